@@ -23,6 +23,11 @@ import java.sql.SQLException;
 import java.util.HashMap;
 import static picocli.CommandLine.*;
 import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -82,6 +87,9 @@ public class JsonExport implements Callable<Integer> {
     @Option(names = {"--sqlScript"}, description = "SQL file name to execute before exporting (useful for tests)")
     private String sqlScriptFileName;
 
+    @Option(names = {"--ndjson"}, description = "Write NDJSON: one line per root row. The pkValue can then be a comma-separated list of primary key values.")
+    private boolean ndjson = false;
+
     @Option(names = {"--diagram"}, description = "Generate a graphviz png diagram from the exported graph with this name (show generated output if no .png suffix). ")
     private String optionalPngDiagramName;
 
@@ -126,6 +134,14 @@ public class JsonExport implements Callable<Integer> {
             Fk.addVirtualForeignKeyAsString(connection, dbExporter, fks);
         }
 
+        if (ndjson) {
+            List<Object[]> pkValues = Stream.of(pkValue.split(",")).map(String::trim).map(p -> new Object[]{p}).collect(Collectors.toList());
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            long lines = dbExporter.contentAsNdjson(connection, tableName, pkValues, writer);
+            err.println("Exported lines: " + lines);
+            return 0;
+        }
+
         DbRecord asRecord = dbExporter.contentAsTree(connection, tableName, pkValue);
 
         if (doCanonicalize) {
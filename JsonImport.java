@@ -15,6 +15,8 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import static picocli.CommandLine.*;
+import java.io.BufferedReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -54,6 +56,18 @@ public class JsonImport implements Callable<Integer> {
             "user_id is the FK id in preferences. Use ';' to separate multiple FKs;")
     private String fks;
 
+    @Option(names = {"--ndjson"}, description = "The file is NDJSON: one root record per line.")
+    private boolean ndjson = false;
+
+    @Option(names = {"--firstLine"}, description = "NDJSON only: the (0-based) first line to import (e.g. to restart an import).")
+    private long firstLine = 0;
+
+    @Option(names = {"--maxLines"}, description = "NDJSON only: the maximal number of lines to import.")
+    private long maxLines = Long.MAX_VALUE;
+
+    @Option(names = {"--threads"}, description = "NDJSON only: number of threads to parse lines (default: number of processors).")
+    private Integer threads;
+
     @Option(names = {"--log"}, description = "What to log (change, select, delete, all)")
     private List<String> logs;
 
@@ -83,8 +97,23 @@ public class JsonImport implements Callable<Integer> {
             Fk.addVirtualForeignKeyAsString(dbConnection, dbImporter, fks);
         }
 
-        String json = "";
+        if (excludedFields != null) {
+            excludedFields.forEach(f -> dbImporter.registerFieldImporter(null, f, FieldImporter.NOP_FIELDIMPORTER));
+        }
+
         Path fileName = Path.of(jsonFile);
+        if (ndjson) {
+            if (threads != null) {
+                dbImporter.setParsingThreads(threads);
+            }
+            try (BufferedReader reader = Files.newBufferedReader(fileName, StandardCharsets.UTF_8)) {
+                long lines = dbImporter.insertNdjson(dbConnection, tableName, reader, firstLine, maxLines);
+                out.println("Imported lines: " + lines);
+            }
+            return 0;
+        }
+
+        String json = "";
         try {
             json = Files.readString(fileName);
         } catch (Exception e) {
@@ -92,10 +121,6 @@ public class JsonImport implements Callable<Integer> {
             return -2;
         }
 
-        if (excludedFields != null) {
-            excludedFields.forEach(f -> dbImporter.registerFieldImporter(null, f, FieldImporter.NOP_FIELDIMPORTER));
-        }
-
         dbImporter.insertRecords(dbConnection, dbImporter.jsonToRecord(dbConnection, tableName, json));
         return 0;
 	}
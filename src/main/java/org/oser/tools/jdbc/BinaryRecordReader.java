@@ -0,0 +1,349 @@
+package org.oser.tools.jdbc;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.oser.tools.jdbc.BinaryRecordWriter.*;
+
+/**
+ * Reads {@link DbRecord}s written by {@link BinaryRecordWriter} (e.g. to insert them with {@link DbImporter#insertRecords(Connection, DbRecord)}). <p>
+ *
+ * Without a connection the column metadata and primary keys of the records come from the binary data.
+ * With a connection they come from the database (as with {@link DbImporter#jsonToRecord(Connection, String, String)}):
+ * fields that do not exist in the database are ignored.
+ */
+public class BinaryRecordReader implements Closeable {
+    private final DataInputStream in;
+    private final Connection connection;
+
+    private final List<TableDefinition> tables = new ArrayList<>();
+
+    private long lobSpillThreshold = -1;
+
+    private final Cache<String, List<String>> pkCache = Caffeine.newBuilder()
+            .maximumSize(1000).build();
+
+    private final Cache<String, SortedMap<String, JdbcHelpers.ColumnMetadata>> metadataCache = Caffeine.newBuilder()
+            .maximumSize(1000).build();
+
+    /** Take the metadata from the binary data */
+    public BinaryRecordReader(InputStream inputStream) throws IOException {
+        this(inputStream, null);
+    }
+
+    /** @param connection to take the metadata from the database, may be null */
+    public BinaryRecordReader(InputStream inputStream, Connection connection) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(inputStream));
+        this.connection = connection;
+
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IllegalArgumentException("Not a binary record stream (wrong header).");
+        }
+        long version = readVarint();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported version of binary record stream: " + version);
+        }
+    }
+
+    /** Store BLOB/ CLOB values that are longer than the threshold (in bytes) in temporary files ({@link SpilledLob})
+     *  instead of on the heap, delete them with {@link DbRecord#deleteSpilledLobs()}. Negative values disable it (the default). */
+    public void setLobSpillThreshold(long lobSpillThreshold) {
+        this.lobSpillThreshold = lobSpillThreshold;
+    }
+
+    /** @return the first record of the binary data */
+    public static DbRecord fromBytes(byte[] bytes, Connection connection) throws IOException, SQLException {
+        try (BinaryRecordReader reader = new BinaryRecordReader(new ByteArrayInputStream(bytes), connection)) {
+            return reader.read();
+        }
+    }
+
+    /** @return the next root record (with all its sub records) or null at the end */
+    public DbRecord read() throws IOException, SQLException {
+        long tag;
+        try {
+            tag = readVarint();
+        } catch (EOFException e) {
+            return null; // the end tag is missing, we tolerate it
+        }
+        if (tag == END) {
+            return null;
+        } else if (tag != ROOT_RECORD) {
+            throw new IllegalArgumentException("Unexpected tag in binary record stream: " + tag);
+        }
+        return readRecord();
+    }
+
+    private DbRecord readRecord() throws IOException, SQLException {
+        int tableId = (int) readVarint();
+        TableDefinition table;
+        if (tableId == tables.size()) {
+            table = readTableDefinition();
+            tables.add(table);
+        } else {
+            table = tables.get(tableId);
+        }
+
+        DbRecord dbRecord = new DbRecord(table.name, null);
+        dbRecord.setPkNames(table.pkNames);
+        dbRecord.setColumnMetadata(table.columnMetadata);
+
+        Map<String, Integer> primaryKeyArrayPosition = JdbcHelpers.getStringIntegerMap(table.pkNames);
+        Object[] primaryKeyValues = new Object[table.pkNames.size()];
+
+        long numberOfFields = readVarint();
+        for (int i = 0; i < numberOfFields; i++) {
+            int columnId = (int) readVarint();
+            if (columnId == table.columns.size()) {
+                JdbcHelpers.ColumnMetadata column = readColumnDefinition();
+                table.columns.add(column);
+                if (connection == null) {
+                    table.columnMetadata.put(column.getName(), column);
+                }
+            }
+            String columnName = table.columns.get(columnId).getName();
+            Object value = readValue(table.columns.get(columnId));
+
+            JdbcHelpers.ColumnMetadata metadata = table.columnMetadata.get(columnName);
+            DbRecord.FieldAndValue field = null;
+            if (metadata != null) { // the field exists in the db
+                field = new DbRecord.FieldAndValue(columnName, metadata, value);
+                dbRecord.getContent().add(field);
+
+                Integer pkPosition = primaryKeyArrayPosition.get(columnName.toLowerCase());
+                if (pkPosition != null) {
+                    primaryKeyValues[pkPosition] = field.getValue();
+                }
+            }
+
+            long numberOfSubTables = readVarint();
+            for (int j = 0; j < numberOfSubTables; j++) {
+                String subTableName = readString();
+                long numberOfRecords = readVarint();
+                List<DbRecord> subRecords = new ArrayList<>();
+                for (int k = 0; k < numberOfRecords; k++) {
+                    subRecords.add(readRecord());
+                }
+                if (field != null) {
+                    field.getSubRow().put(subTableName, subRecords);
+                }
+            }
+        }
+        dbRecord.setPkValue(primaryKeyValues);
+
+        return dbRecord;
+    }
+
+    private TableDefinition readTableDefinition() throws IOException, SQLException {
+        String name = readString();
+
+        long numberOfPks = readVarint();
+        List<String> pkNames = new ArrayList<>();
+        for (int i = 0; i < numberOfPks; i++) {
+            pkNames.add(readString());
+        }
+
+        SortedMap<String, JdbcHelpers.ColumnMetadata> columnMetadata;
+        if (connection != null) {
+            JdbcHelpers.assertTableExists(connection, name);
+            columnMetadata = JdbcHelpers.getColumnMetadata(connection.getMetaData(), name, metadataCache);
+            pkNames = JdbcHelpers.getPrimaryKeys(connection.getMetaData(), name, pkCache);
+        } else {
+            columnMetadata = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        }
+        return new TableDefinition(name, pkNames, new ArrayList<>(), columnMetadata);
+    }
+
+    private JdbcHelpers.ColumnMetadata readColumnDefinition() throws IOException {
+        String name = readString();
+        String type = readString();
+        int dataType = (int) readSignedVarint();
+        int sourceDataType = (int) readSignedVarint();
+        int size = (int) readSignedVarint();
+        String columnDef = readNullableString();
+        int ordinalPos = (int) readSignedVarint();
+        return new JdbcHelpers.ColumnMetadata(name, type, dataType, sourceDataType, size, columnDef, ordinalPos);
+    }
+
+    private Object readValue(JdbcHelpers.ColumnMetadata column) throws IOException {
+        int tag = (int) readVarint();
+        if ((tag == BYTES || (tag == STRING && JdbcHelpers.isLob(column.getDataType()))) && lobSpillThreshold >= 0) {
+            return readPotentiallySpilledLob(tag == STRING);
+        }
+        switch (tag) {
+            case NULL:
+                return null;
+            case LONG:
+                return readSignedVarint();
+            case DOUBLE:
+                return in.readDouble();
+            case BIG_DECIMAL:
+                int scale = (int) readSignedVarint();
+                return new BigDecimal(new BigInteger(readBytes()), scale);
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case STRING:
+                return readString();
+            case BYTES:
+                return readBytes();
+            case TIMESTAMP:
+                long epochSecond = readSignedVarint();
+                int nanos = (int) readVarint();
+                return Timestamp.valueOf(LocalDateTime.ofEpochSecond(epochSecond, nanos, ZoneOffset.UTC));
+            case DATE:
+                return Date.valueOf(LocalDate.ofEpochDay(readSignedVarint()));
+            case TIME:
+                return Time.valueOf(LocalTime.ofNanoOfDay(readVarint()));
+            default:
+                throw new IllegalArgumentException("Unknown value tag in binary record stream: " + tag);
+        }
+    }
+
+    private Object readPotentiallySpilledLob(boolean character) throws IOException {
+        long length = readVarint();
+        if (length <= lobSpillThreshold) {
+            byte[] bytes = new byte[(int) length];
+            in.readFully(bytes);
+            return character ? new String(bytes, StandardCharsets.UTF_8) : bytes;
+        }
+
+        InputStream lobContent = new LimitedInputStream(in, length);
+        return character ? SpilledLob.ofCharacter(new InputStreamReader(lobContent, StandardCharsets.UTF_8)) :
+                SpilledLob.ofBinary(lobContent);
+    }
+
+    private String readString() throws IOException {
+        return new String(readBytes(), StandardCharsets.UTF_8);
+    }
+
+    private String readNullableString() throws IOException {
+        long lengthPlusOne = readVarint();
+        if (lengthPlusOne == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) (lengthPlusOne - 1)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private byte[] readBytes() throws IOException {
+        long length = readVarint();
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Value too long in binary record stream: " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private long readSignedVarint() throws IOException {
+        long value = readVarint();
+        return (value >>> 1) ^ -(value & 1); // zigzag
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in binary record stream.");
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /** reads at most limit bytes of a stream (without closing it) */
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b == -1) {
+                throw new EOFException("Incomplete lob in binary record stream.");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(b, off, (int) Math.min(len, remaining));
+            if (read == -1) {
+                throw new EOFException("Incomplete lob in binary record stream.");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+            // the underlying stream stays open
+        }
+    }
+
+    private static class TableDefinition {
+        final String name;
+        final List<String> pkNames;
+        /** the columns of the binary data (by column id) */
+        final List<JdbcHelpers.ColumnMetadata> columns;
+        /** the metadata for the records (from the binary data or from the db) */
+        final SortedMap<String, JdbcHelpers.ColumnMetadata> columnMetadata;
+
+        TableDefinition(String name, List<String> pkNames, List<JdbcHelpers.ColumnMetadata> columns, SortedMap<String, JdbcHelpers.ColumnMetadata> columnMetadata) {
+            this.name = name;
+            this.pkNames = pkNames;
+            this.columns = columns;
+            this.columnMetadata = columnMetadata;
+        }
+    }
+}
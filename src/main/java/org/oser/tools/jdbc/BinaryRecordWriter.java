@@ -0,0 +1,281 @@
+package org.oser.tools.jdbc;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Blob;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes {@link DbRecord}s in a compact, self-describing binary format (read it again with {@link BinaryRecordReader}). <p>
+ *
+ * Compared to JSON, the column names (and column metadata) of a table are written only once (in a per-table dictionary,
+ * when a column occurs the first time), numbers are written as varints, BLOB/BYTEA values as raw bytes and timestamps
+ * relative to the epoch. The tree structure (the subtables of the fields) is the same as in the JSON format. <p>
+ *
+ * Format: the header ({@link #MAGIC} and {@link #VERSION}), then per root record the tag {@link #ROOT_RECORD} and the record,
+ * at the end the tag {@link #END}. A record is: the table id (followed by the table name and its primary keys if the table is new), the
+ * number of fields, per field the column id (followed by the column definition if the column is new), the value (a type tag
+ * and the data) and the subtables (their number, per subtable its name, the number of records and the records).
+ * Integers are unsigned varints (longs zigzag encoded), strings are UTF-8 bytes with their length before.
+ */
+public class BinaryRecordWriter implements Closeable {
+    static final byte[] MAGIC = {'L', 'D', 'R', 'B'};
+    static final int VERSION = 1;
+
+    static final int END = 0;
+    static final int ROOT_RECORD = 1;
+
+    // value tags
+    static final int NULL = 0;
+    static final int LONG = 1;
+    static final int DOUBLE = 2;
+    static final int BIG_DECIMAL = 3;
+    static final int TRUE = 4;
+    static final int FALSE = 5;
+    static final int STRING = 6;
+    static final int BYTES = 7;
+    static final int TIMESTAMP = 8;
+    static final int DATE = 9;
+    static final int TIME = 10;
+
+    private final DataOutputStream out;
+    private boolean finished = false;
+    /** false: the sub records are not written (the records are written as if they had none) */
+    private boolean withSubRecords = true;
+
+    /** table name -> table id and the column ids */
+    private final Map<String, TableDictionary> tables = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    public BinaryRecordWriter(OutputStream outputStream) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.write(MAGIC);
+        writeVarint(VERSION);
+    }
+
+    /** @return the record in the binary format */
+    public static byte[] toBytes(DbRecord dbRecord) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryRecordWriter writer = new BinaryRecordWriter(bytes)) {
+            writer.write(dbRecord);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** @return the record in the binary format without its sub records */
+    static byte[] toBytesWithoutSubRecords(DbRecord dbRecord) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryRecordWriter writer = new BinaryRecordWriter(bytes)) {
+            writer.withSubRecords = false;
+            writer.write(dbRecord);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Write a root record (with all its sub records). Can be called multiple times (the dictionary is shared). */
+    public void write(DbRecord dbRecord) throws IOException {
+        writeVarint(ROOT_RECORD);
+        writeRecord(dbRecord);
+    }
+
+    private void writeRecord(DbRecord dbRecord) throws IOException {
+        TableDictionary table = tables.get(dbRecord.getTableName());
+        if (table == null) {
+            table = new TableDictionary(tables.size());
+            tables.put(dbRecord.getTableName(), table);
+            writeVarint(table.id);
+            writeTableDefinition(dbRecord);
+        } else {
+            writeVarint(table.id);
+        }
+
+        writeVarint(dbRecord.getContent().size());
+        for (DbRecord.FieldAndValue field : dbRecord.getContent()) {
+            Integer columnId = table.columns.get(field.getName());
+            if (columnId == null) {
+                columnId = table.columns.size();
+                table.columns.put(field.getName(), columnId);
+                writeVarint(columnId);
+                writeColumnDefinition(field.getName(), field.getMetadata());
+            } else {
+                writeVarint(columnId);
+            }
+            writeValue(field.getValue());
+
+            if (!withSubRecords) {
+                writeVarint(0);
+                continue;
+            }
+            writeVarint(field.getSubRow().size());
+            for (Map.Entry<String, List<DbRecord>> subTable : field.getSubRow().entrySet()) {
+                writeString(subTable.getKey());
+                writeVarint(subTable.getValue().size());
+                for (DbRecord subRecord : subTable.getValue()) {
+                    writeRecord(subRecord);
+                }
+            }
+        }
+    }
+
+    private void writeTableDefinition(DbRecord dbRecord) throws IOException {
+        writeString(dbRecord.getTableName());
+
+        List<String> pkNames = dbRecord.getPkNames() != null ? dbRecord.getPkNames() : List.of();
+        writeVarint(pkNames.size());
+        for (String pkName : pkNames) {
+            writeString(pkName);
+        }
+    }
+
+    private void writeColumnDefinition(String name, JdbcHelpers.ColumnMetadata column) throws IOException {
+        writeString(name);
+        writeString(column.getType());
+        writeSignedVarint(column.getDataType());
+        writeSignedVarint(column.getSourceDataType());
+        writeSignedVarint(column.getSize());
+        writeNullableString(column.getColumnDef());
+        writeSignedVarint(column.getOrdinalPos());
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            writeVarint(NULL);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            writeVarint(LONG);
+            writeSignedVarint(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            writeVarint(DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof BigDecimal) {
+            writeVarint(BIG_DECIMAL);
+            writeSignedVarint(((BigDecimal) value).scale());
+            writeBytes(((BigDecimal) value).unscaledValue().toByteArray());
+        } else if (value instanceof Boolean) {
+            writeVarint((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof byte[]) {
+            writeVarint(BYTES);
+            writeBytes((byte[]) value);
+        } else if (value instanceof Blob) {
+            writeVarint(BYTES);
+            try {
+                writeBytes(((Blob) value).getBytes(1, (int) ((Blob) value).length()));
+            } catch (SQLException e) {
+                throw new IllegalStateException("could not convert blob to byte[]", e);
+            }
+        } else if (value instanceof LobValue) {
+            writeLob((LobValue) value);
+        } else if (value instanceof Timestamp) {
+            LocalDateTime localDateTime = ((Timestamp) value).toLocalDateTime();
+            writeVarint(TIMESTAMP);
+            writeSignedVarint(localDateTime.toEpochSecond(ZoneOffset.UTC));
+            writeVarint(localDateTime.getNano());
+        } else if (value instanceof Date) {
+            writeVarint(DATE);
+            writeSignedVarint(((Date) value).toLocalDate().toEpochDay());
+        } else if (value instanceof Time) {
+            writeVarint(TIME);
+            writeVarint(((Time) value).toLocalTime().toNanoOfDay());
+        } else {
+            // as in the JSON format
+            writeVarint(STRING);
+            writeString(value.toString());
+        }
+    }
+
+    private void writeLob(LobValue lob) throws IOException {
+        try {
+            if (lob instanceof SpilledLob && lob.isCharacter()) {
+                // the file holds the UTF-8 bytes
+                writeVarint(STRING);
+                writeVarint(((SpilledLob) lob).byteLength());
+                try (InputStream inputStream = ((SpilledLob) lob).openFileStream()) {
+                    inputStream.transferTo(out);
+                }
+            } else if (lob.isCharacter()) {
+                // the length is in bytes (so we need the whole string first)
+                writeVarint(STRING);
+                writeString(lob.getString());
+            } else {
+                writeVarint(BYTES);
+                writeVarint(lob.length());
+                try (InputStream inputStream = lob.openBinaryStream()) {
+                    long copied = inputStream.transferTo(out);
+                    if (copied != lob.length()) {
+                        throw new IllegalStateException("Lob changed while it was written " + lob);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("could not read lob " + lob, e);
+        }
+    }
+
+    private void writeString(String string) throws IOException {
+        writeBytes(string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeNullableString(String string) throws IOException {
+        if (string == null) {
+            writeVarint(0);
+        } else {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1L);
+            out.write(bytes);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        writeVarint(bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeSignedVarint(long value) throws IOException {
+        writeVarint((value << 1) ^ (value >> 63)); // zigzag
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /** writes the end tag and flushes (does not close the underlying stream) */
+    public void finish() throws IOException {
+        if (!finished) {
+            writeVarint(END);
+            finished = true;
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+
+    private static class TableDictionary {
+        final int id;
+        final Map<String, Integer> columns = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        TableDictionary(int id) {
+            this.id = id;
+        }
+    }
+}
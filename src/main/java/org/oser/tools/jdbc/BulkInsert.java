@@ -0,0 +1,278 @@
+package org.oser.tools.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static org.oser.tools.jdbc.Fk.getFksOfTable;
+
+/**
+ * Inserts records (that come in insertion order) in blocks of the same table, for the import strategies
+ * {@link ImportStrategy#JDBC_BATCH}, {@link ImportStrategy#MULTI_ROW_VALUES}, {@link ImportStrategy#POSTGRES_COPY} and
+ * {@link ImportStrategy#UPSERT}. <p>
+ *
+ * The primary keys are remapped as with {@link ImportStrategy#ROW_BY_ROW}. But as the rows of a block are only
+ * sent to the db at the end, the existing primary keys of a block are determined with one query (per chunk) and the
+ * keys of the rows that are not yet in the db are tracked here.
+ */
+class BulkInsert {
+    private static final int PK_CHECK_CHUNK_SIZE = RecordDeleter.DEFAULT_CHUNK_SIZE;
+
+    private final DbImporter importer;
+    private final Connection connection;
+    private final Map<RowLink, DbImporter.Remap> newKeys;
+    private final boolean useCopy;
+    private final String dbProductName;
+    private final boolean upsert;
+
+    private final List<DbRecord> block = new ArrayList<>();
+    /** primary keys (as text) of the rows of the block that are prepared but not yet in the db */
+    private final Set<List<String>> pendingPks = new HashSet<>();
+    /** primary keys (as text) of the block that were checked in the db */
+    private final Set<List<String>> checkedPks = new HashSet<>();
+    /** the checked primary keys that already exist in the db */
+    private final Set<List<String>> existingPks = new HashSet<>();
+    /** table/pk index -> last generated primary key */
+    private final Map<String, Long> lastGeneratedPks = new HashMap<>();
+
+    private long insertedRows = 0;
+
+    BulkInsert(DbImporter importer, Connection connection, Map<RowLink, DbImporter.Remap> newKeys) throws SQLException {
+        this.importer = importer;
+        this.connection = connection;
+        this.newKeys = newKeys;
+        this.useCopy = importer.getImportStrategy() == ImportStrategy.POSTGRES_COPY && PostgresCopy.isAvailable(connection);
+        this.dbProductName = connection.getMetaData().getDatabaseProductName();
+        this.upsert = importer.getImportStrategy() == ImportStrategy.UPSERT && !importer.isForceInsert() &&
+                JdbcHelpers.supportsUpsert(dbProductName);
+    }
+
+    /** add the next record (in insertion order), sends the current block to the db when the table changes */
+    void add(DbRecord dbRecord) throws SQLException {
+        if (!block.isEmpty() &&
+                (!block.get(0).getTableName().equals(dbRecord.getTableName()) || block.size() >= importer.getBatchSize())) {
+            flush();
+        }
+        block.add(dbRecord);
+    }
+
+    /** send the current block to the db */
+    void flush() throws SQLException {
+        if (block.isEmpty()) {
+            return;
+        }
+
+        try {
+            if (!upsert) {
+                checkExistingPks();
+            }
+
+            List<DbImporter.RowToInsert> rows = new ArrayList<>();
+            for (DbRecord dbRecord : block) {
+                // already inserted (the same row can be visited more than once)
+                if (newKeys.containsKey(dbRecord.getRowLink())) {
+                    continue;
+                }
+                DbImporter.RowToInsert row = importer.prepareRow(connection, dbRecord, newKeys, this);
+                if (row != null) {
+                    pendingPks.add(asText(row.getPkValues()));
+                    rows.add(row);
+                }
+            }
+            execute(rows);
+        } finally {
+            block.clear();
+            pendingPks.clear();
+            checkedPks.clear();
+            existingPks.clear();
+        }
+    }
+
+    /** @return true if the rows are inserted or updated with upsert statements (without checking whether they exist) */
+    boolean isUpsert() {
+        return upsert;
+    }
+
+    String getDbProductName() {
+        return dbProductName;
+    }
+
+    /** @return the number of inserted or updated rows so far */
+    long getInsertedRows() {
+        return insertedRows;
+    }
+
+    /** replaces {@link JdbcHelpers#doesRowWithPrimaryKeysExist} for the rows of the block */
+    boolean doesRowExist(DbRecord dbRecord, List<Object> pkValues) throws SQLException {
+        List<String> pk = asText(pkValues);
+        if (pendingPks.contains(pk)) {
+            return true;
+        }
+        if (checkedPks.contains(pk)) {
+            return existingPks.contains(pk);
+        }
+        return JdbcHelpers.doesRowWithPrimaryKeysExist(connection, dbRecord.getTableName(), dbRecord.getPkNames(), pkValues, dbRecord.getColumnMetadata());
+    }
+
+    /**
+     * The pk generators look at the db, so they return the same candidate for all rows of a block.
+     * @return a numeric candidate that is not yet used in the block (other candidates are returned as they are)
+     */
+    Object notYetUsedPk(String tableName, int pkIndex, List<Object> pkValues, Object candidatePk) {
+        if (!(candidatePk instanceof Number)) {
+            return candidatePk;
+        }
+
+        String key = tableName.toLowerCase() + "/" + pkIndex;
+        long candidate = ((Number) candidatePk).longValue();
+        Long lastGenerated = lastGeneratedPks.get(key);
+        if (lastGenerated != null) {
+            candidate = Math.max(candidate, lastGenerated + 1);
+        }
+
+        List<Object> withCandidate = new ArrayList<>(pkValues);
+        withCandidate.set(pkIndex, candidate);
+        while (pendingPks.contains(asText(withCandidate))) {
+            withCandidate.set(pkIndex, ++candidate);
+        }
+        lastGeneratedPks.put(key, candidate);
+        return candidate;
+    }
+
+    /** determine which primary keys of the block already exist in the db (with one query per chunk) */
+    private void checkExistingPks() throws SQLException {
+        DbRecord first = block.get(0);
+        List<String> pkNames = first.getPkNames();
+        if (pkNames.isEmpty()) {
+            return;
+        }
+        Map<String, List<Fk>> fksByColumnName = Fk.fksByColumnName(getFksOfTable(connection, first.getTableName(), importer.getFkCache()));
+
+        Map<List<String>, Object[]> toCheck = new LinkedHashMap<>();
+        for (DbRecord dbRecord : block) {
+            List<Object> pkValues = DbImporter.remapPrimaryKeyValues(dbRecord, newKeys, pkNames, fksByColumnName, new ArrayList<>());
+            toCheck.put(asText(pkValues), pkValues.toArray());
+        }
+
+        List<Object[]> keys = new ArrayList<>(toCheck.values());
+        // the chunks mostly share one statement (refer to JdbcHelpers#whereClauseForKeys)
+        Map<String, PreparedStatement> statements = new HashMap<>();
+        try {
+            for (int start = 0; start < keys.size(); start += PK_CHECK_CHUNK_SIZE) {
+                List<Object[]> chunk = keys.subList(start, Math.min(start + PK_CHECK_CHUNK_SIZE, keys.size()));
+                String sql = "SELECT " + String.join(", ", pkNames) + " FROM " + first.getTableName() +
+                        " WHERE " + JdbcHelpers.whereClauseForKeys(pkNames, chunk.size(), first.getColumnMetadata(), dbProductName);
+                PreparedStatement statement = statements.get(sql);
+                if (statement == null) {
+                    statement = connection.prepareStatement(sql); // NOSONAR: values all via prepared statement
+                    statements.put(sql, statement);
+                }
+                JdbcHelpers.setKeyValues(statement, 1, pkNames, chunk, first.getColumnMetadata(), dbProductName);
+                Loggers.logSelectStatement(statement, sql, List.of());
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        List<String> existing = new ArrayList<>(pkNames.size());
+                        for (int i = 1; i <= pkNames.size(); i++) {
+                            existing.add(Objects.toString(RowLink.normalizePk(rs.getObject(i))));
+                        }
+                        existingPks.add(existing);
+                    }
+                }
+            }
+        } finally {
+            for (PreparedStatement statement : statements.values()) {
+                statement.close();
+            }
+        }
+        checkedPks.addAll(toCheck.keySet());
+    }
+
+    /** consecutive rows with the same statement are sent together */
+    private void execute(List<DbImporter.RowToInsert> rows) throws SQLException {
+        int start = 0;
+        while (start < rows.size()) {
+            String sql = rows.get(start).getSqlStatement().getStatement();
+            int end = start + 1;
+            while (end < rows.size() && rows.get(end).getSqlStatement().getStatement().equals(sql)) {
+                end++;
+            }
+
+            List<DbImporter.RowToInsert> sameStatement = rows.subList(start, end);
+            if (useCopy && PostgresCopy.canCopy(importer, sameStatement)) {
+                insertedRows += PostgresCopy.copy(connection, sameStatement);
+            } else if (useMultiRowInsert(sameStatement)) {
+                executeMultiRowInsert(sameStatement);
+            } else {
+                executeBatch(sql, sameStatement);
+            }
+            start = end;
+        }
+    }
+
+    private boolean useMultiRowInsert(List<DbImporter.RowToInsert> rows) {
+        return importer.getImportStrategy() == ImportStrategy.MULTI_ROW_VALUES && rows.get(0).isInsert() &&
+                JdbcHelpers.maxRowsPerInsertStatement(dbProductName, rows.get(0).getSqlStatement().getFields().size()) > 0;
+    }
+
+    /** insert the rows (that all have the same insert statement) with multi-row insert statements */
+    private void executeMultiRowInsert(List<DbImporter.RowToInsert> rows) throws SQLException {
+        DbImporter.RowToInsert first = rows.get(0);
+        List<String> columnNames = first.getSqlStatement().getFields();
+        int rowsPerStatement = Math.min(importer.getBatchSize(), JdbcHelpers.maxRowsPerInsertStatement(dbProductName, columnNames.size()));
+
+        for (int start = 0; start < rows.size(); start += rowsPerStatement) {
+            List<DbImporter.RowToInsert> chunk = rows.subList(start, Math.min(start + rowsPerStatement, rows.size()));
+            JdbcHelpers.SqlChangeStatement sqlStatement = JdbcHelpers.getSqlMultiRowInsertStatement(first.getDbRecord().getTableName(),
+                    columnNames, chunk.size(), first.getDbRecord().getColumnMetadata());
+
+            PreparedStatement savedStatement = null;
+            try (PreparedStatement statement = connection.prepareStatement(sqlStatement.getStatement())) { // NOSONAR: values all via prepared statement
+                savedStatement = statement;
+                for (int i = 0; i < chunk.size(); i++) {
+                    importer.setRowValues(statement, chunk.get(i), i * columnNames.size());
+                }
+                int updateCount = statement.executeUpdate();
+                Loggers.LOGGER_CHANGE.info("{} ({} rows)", first.getSqlStatement().getStatement(), updateCount);
+                insertedRows += updateCount;
+            } catch (SQLException e) {
+                Loggers.LOGGER_WARNING.info("issue with multi-row insert of {} rows: {} ", chunk.size(), savedStatement);
+                throw e;
+            }
+        }
+    }
+
+    private void executeBatch(String sql, List<DbImporter.RowToInsert> rows) throws SQLException {
+        PreparedStatement savedStatement = null;
+        try (PreparedStatement statement = connection.prepareStatement(sql)) { // NOSONAR: values all via prepared statement
+            savedStatement = statement;
+            for (DbImporter.RowToInsert row : rows) {
+                importer.setRowValues(statement, row);
+                statement.addBatch();
+            }
+            int[] updateCounts = statement.executeBatch();
+
+            for (int i = 0; i < rows.size(); i++) {
+                Loggers.logChangeStatement(statement, sql, rows.get(i).getValues(), i < updateCounts.length ? updateCounts[i] : 0);
+            }
+            insertedRows += rows.size();
+        } catch (SQLException e) {
+            Loggers.LOGGER_WARNING.info("issue with batch of {} rows: {} ", rows.size(), savedStatement);
+            throw e;
+        }
+    }
+
+    private static List<String> asText(List<Object> pkValues) {
+        List<String> result = new ArrayList<>(pkValues.size());
+        pkValues.forEach(v -> result.add(Objects.toString(RowLink.normalizePk(v))));
+        return result;
+    }
+}
@@ -0,0 +1,190 @@
+package org.oser.tools.jdbc;
+
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * {@link LobValue} of a column of a db row: the content is selected again (by the primary key of the row) when it is read.
+ * So it can only be read as long as the connection is open (and the row is unchanged). <p>
+ *
+ * The streams also release their statement when their end is reached (so JDBC drivers that read them on
+ * insertion do not leave statements open).
+ */
+class DatabaseLobValue implements LobValue {
+    private final Connection connection;
+    private final String tableName;
+    private final String columnName;
+    private final List<String> pkNames;
+    private final Object[] pkValues;
+    private final Map<String, JdbcHelpers.ColumnMetadata> columns;
+    private final boolean character;
+
+    private Long length;
+
+    DatabaseLobValue(Connection connection, String tableName, String columnName, List<String> pkNames, Object[] pkValues,
+                     Map<String, JdbcHelpers.ColumnMetadata> columns, boolean character) {
+        this.connection = connection;
+        this.tableName = tableName;
+        this.columnName = columnName;
+        this.pkNames = pkNames;
+        this.pkValues = pkValues;
+        this.columns = columns;
+        this.character = character;
+    }
+
+    @Override
+    public boolean isCharacter() {
+        return character;
+    }
+
+    @Override
+    public long length() throws SQLException {
+        if (length == null) {
+            try (PreparedStatement statement = prepareSelect(); ResultSet rs = selectRow(statement)) {
+                length = character ? rs.getClob(1).length() : rs.getBlob(1).length();
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public InputStream openBinaryStream() throws SQLException {
+        if (character) {
+            throw new IllegalStateException("Character data cannot be read as binary stream " + this);
+        }
+        PreparedStatement statement = prepareSelect();
+        try {
+            ResultSet rs = selectRow(statement);
+            Blob blob = rs.getBlob(1);
+            return new FilterInputStream(blob.getBinaryStream()) {
+                private boolean closed = false;
+
+                @Override
+                public int read() throws IOException {
+                    return closeAtEnd(super.read());
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return closeAtEnd(super.read(b, off, len));
+                }
+
+                private int closeAtEnd(int read) throws IOException {
+                    if (read == -1) {
+                        close();
+                    }
+                    return read;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (!closed) {
+                        closed = true;
+                        super.close();
+                        closeStatement(statement, blob, null);
+                    }
+                }
+            };
+        } catch (SQLException | RuntimeException e) {
+            statement.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Reader openCharacterStream() throws SQLException {
+        if (!character) {
+            throw new IllegalStateException("Binary data cannot be read as character stream " + this);
+        }
+        PreparedStatement statement = prepareSelect();
+        try {
+            ResultSet rs = selectRow(statement);
+            Clob clob = rs.getClob(1);
+            return new FilterReader(clob.getCharacterStream()) {
+                private boolean closed = false;
+
+                @Override
+                public int read() throws IOException {
+                    return closeAtEnd(super.read());
+                }
+
+                @Override
+                public int read(char[] cbuf, int off, int len) throws IOException {
+                    return closeAtEnd(super.read(cbuf, off, len));
+                }
+
+                private int closeAtEnd(int read) throws IOException {
+                    if (read == -1) {
+                        close();
+                    }
+                    return read;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (!closed) {
+                        closed = true;
+                        super.close();
+                        closeStatement(statement, null, clob);
+                    }
+                }
+            };
+        } catch (SQLException | RuntimeException e) {
+            statement.close();
+            throw e;
+        }
+    }
+
+    private PreparedStatement prepareSelect() throws SQLException {
+        String whereClause = pkNames.stream().collect(Collectors.joining(" = ? AND ", "", " = ?"));
+        String select = "SELECT " + columnName + " FROM " + tableName + " WHERE " + whereClause;
+        PreparedStatement statement = connection.prepareStatement(select); // NOSONAR: values via prepared statement
+        for (int i = 0; i < pkNames.size(); i++) {
+            JdbcHelpers.innerSetStatementField(statement, i + 1, columns.get(pkNames.get(i).toLowerCase()),
+                    Objects.toString(pkValues[i]), null);
+        }
+        Loggers.logSelectStatement(statement, select, Arrays.asList(pkValues));
+        return statement;
+    }
+
+    private ResultSet selectRow(PreparedStatement statement) throws SQLException {
+        ResultSet rs = statement.executeQuery();
+        if (!rs.next()) {
+            throw new IllegalStateException("Row of lob not found anymore " + this);
+        }
+        return rs;
+    }
+
+    private static void closeStatement(PreparedStatement statement, Blob blob, Clob clob) throws IOException {
+        try {
+            if (blob != null) {
+                blob.free();
+            }
+            if (clob != null) {
+                clob.free();
+            }
+            statement.close();
+        } catch (SQLException e) {
+            throw new IOException("Could not close lob statement", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DatabaseLobValue{" + tableName + "." + columnName + " " + Arrays.toString(pkValues) + "}";
+    }
+}
@@ -1,9 +1,21 @@
 package org.oser.tools.jdbc;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.AccessLevel;
 import lombok.Getter;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Path;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Connection;
@@ -13,19 +25,26 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Formatter;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -40,6 +59,7 @@ public class DbExporter implements FkCacheAccessor {
     private final Set<String> stopTablesExcluded = new HashSet<>();
     private final Set<String> stopTablesIncluded = new HashSet<>();
     private final Set<String> stopTablesIncludeOne = new HashSet<>();
+    private final Set<String> referenceTables = new HashSet<>();
 
     private final Cache<String, List<Fk>> fkCache = Caffeine.newBuilder()
             .maximumSize(1000).build();
@@ -50,6 +70,9 @@ public class DbExporter implements FkCacheAccessor {
     private final Cache<String, SortedMap<String, JdbcHelpers.ColumnMetadata>> metadataCache = Caffeine.newBuilder()
             .maximumSize(1000).build();
 
+    /** rows of the reference tables (with the reference rows they link to), shared by all exports */
+    private Cache<RowLink, DbRecord> referenceRowCache = newReferenceRowCache(1000, Duration.ofMinutes(10));
+
     /** to overwrite how special JDBC types are retrieved on ResultSets. The keys must be the uppercased JDBC type name.
      */
     private final Map<String, FieldExporter> typeFieldExporters = new HashMap<>();
@@ -80,12 +103,377 @@ public class DbExporter implements FkCacheAccessor {
     /** experimental feature to order results by first pk when exporting */
     private boolean orderResults = true;
 
+    /** export BLOBs and CLOBs as {@link LobValue} handles (instead of reading their content into memory) */
+    private boolean streamLobs = false;
+
+    /** BLOBs, CLOBs and binary values longer than this are stored in temporary files ({@link SpilledLob}), negative: disabled */
+    private long lobSpillThreshold = -1;
+
+    /** how many rows are deleted with one statement in {@link #deleteRecursively(Connection, String, Object...)} */
+    private int deleteChunkSize = RecordDeleter.DEFAULT_CHUNK_SIZE;
+
+    /** how much (off-heap) memory the visited rows of {@link #contentAsRowStream(Connection, CheckedFunction, String, Object...)} may use */
+    private long visitedRowsMemoryCap = 256L * 1024 * 1024;
+
+    /** where the visited rows are stored if they exceed the visitedRowsMemoryCap, null: fail instead */
+    private Path visitedRowsOverflowDirectory = null;
+
+    /** how many rows of a table are read with one query in {@link #dumpTables(Connection, List, CheckedFunction)} */
+    private int dumpPageSize = 1000;
+
+    /** the fetch size of the queries that read linked rows, 0: the default of the driver */
+    private int fetchSize = 0;
+
+    /** the linked rows of one fk are followed in chunks of this size while they are read, 0: after all are read */
+    private int fanoutChunkSize = 0;
+
+    /** above how many keys of a table the rows are read or deleted via a temporary table of the keys */
+    private int tempTableKeyThreshold = TempKeyTable.DEFAULT_THRESHOLD;
+
+    /** streaming exports read the rows level by level (instead of depth first) */
+    private boolean levelWise = false;
+
     /**
      * Main method: recursively read a tree of linked db rows and return it
      */
     public DbRecord contentAsTree(Connection connection, String tableName, Object... pkValue) throws SQLException {
+        return asTree(connection, tableName, new ExportContext(connection), pkValue);
+    }
+
+    /**
+     * Like {@link #contentAsTree(Connection, String, Object...)} but only reads the primary key columns and the
+     * columns needed to follow the foreign keys (no other content, e.g. no BLOBs or CLOBs).
+     */
+    public DbRecord keysAsTree(Connection connection, String tableName, Object... pkValue) throws SQLException {
+        return asTree(connection, tableName, new ExportContext(connection, true), pkValue);
+    }
+
+    /** Get the graph of all rows (and their fk links) that are reachable from a row (only reads the keys, refer to {@link #keysAsTree(Connection, String, Object...)}) */
+    public KeyGraph keyGraph(Connection connection, String tableName, Object... pkValue) throws SQLException {
+        return KeyGraph.of(connection, keysAsTree(connection, tableName, pkValue), fkCache);
+    }
+
+    /** Count the rows (per table) that are reachable from a row (only reads the keys) */
+    public Map<String, Integer> countReachableRows(Connection connection, String tableName, Object... pkValue) throws SQLException {
+        return DbRecord.classifyNodes(keysAsTree(connection, tableName, pkValue).getAllNodes());
+    }
+
+    /**
+     * Export several rows (each with all its linked rows) as NDJSON: one root record per line, in the format of {@link DbRecord#asJsonNode()}.
+     * The records are written one after the other (only one record is in memory at a time), LOBs are streamed
+     * if {@link #setStreamLobs(boolean)} is set.
+     * @param pkValues the primary key values of the root rows (one array per row)
+     * @return the number of written lines
+     */
+    public long contentAsNdjson(Connection connection, String tableName, Iterable<Object[]> pkValues, Writer writer) throws SQLException, IOException {
+        ObjectMapper mapper = DbRecord.getObjectMapper();
+        long lines = 0;
+        for (Object[] pkValue : pkValues) {
+            DbRecord dbRecord = contentAsTree(connection, tableName, pkValue);
+            try (JsonGenerator generator = mapper.createGenerator(writer).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+                dbRecord.writeJson(generator, true);
+            }
+            deleteSpilledLobs(dbRecord);
+            writer.write('\n');
+            lines++;
+        }
+        writer.flush();
+        return lines;
+    }
+
+    /**
+     * Export a row with all its linked rows in the normalized graph format: each row is contained once (without sub records),
+     * the rows are in insertion order (refer to {@link GraphJson} for the format). Import it with
+     * {@link DbImporter#insertGraph(Connection, Reader)}.
+     */
+    public void contentAsGraph(Connection connection, Writer writer, String tableName, Object... pkValue) throws SQLException, IOException {
+        DbRecord dbRecord = contentAsTree(connection, tableName, pkValue);
+        try (JsonGenerator generator = DbRecord.getObjectMapper().createGenerator(writer).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            GraphJson.write(connection, dbRecord, fkCache, generator);
+        }
+        deleteSpilledLobs(dbRecord);
+        writer.flush();
+    }
+
+    /**
+     * Export a row with all its linked rows as a flat stream: each row is passed to the consumer once (without sub records),
+     * as soon as it is read (depth first, as in {@link #contentAsTree(Connection, String, Object...)}). Other than the tree
+     * exports, the rows are not kept: only their keys are remembered in an off-heap set (refer to
+     * {@link #setVisitedRowsMemoryCap(long)} and {@link #setVisitedRowsOverflowDirectory(Path)}), so the number of rows
+     * is not limited by the heap. Rows of reference tables are not cached in this mode. With {@link #setLevelWise(boolean)}
+     * the rows are read level by level instead of depth first.
+     * @return the number of rows
+     */
+    public long contentAsRowStream(Connection connection, CheckedFunction<DbRecord, Void> consumer, String tableName, Object... pkValue) throws SQLException {
+        ExportContext context = new ExportContext(connection);
+        try (OffHeapKeySet visitedKeys = new OffHeapKeySet(visitedRowsMemoryCap, visitedRowsOverflowDirectory)) {
+            context.visitedKeys = visitedKeys;
+            context.rowConsumer = consumer;
+            if (levelWise) {
+                readLevelWise(connection, tableName, List.<Object[]>of(pkValue), context);
+            } else {
+                asTree(connection, tableName, context, pkValue);
+            }
+            return visitedKeys.size();
+        }
+    }
+
+    /**
+     * Export a row with all its linked rows as NDJSON: one row per line (without sub records, in the format of
+     * {@link DbRecord#asJsonNode()}), refer to {@link #contentAsRowStream(Connection, CheckedFunction, String, Object...)}.
+     * @return the number of written lines
+     */
+    public long contentAsFlatNdjson(Connection connection, Writer writer, String tableName, Object... pkValue) throws SQLException, IOException {
+        ObjectMapper mapper = DbRecord.getObjectMapper();
+        long lines;
+        try {
+            lines = contentAsRowStream(connection, row -> {
+                try {
+                    try (JsonGenerator generator = mapper.createGenerator(writer).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+                        row.writeJson(generator, true);
+                    }
+                    writer.write('\n');
+                    deleteSpilledLobs(row);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return null;
+            }, tableName, pkValue);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+        return lines;
+    }
+
+    /**
+     * Export a row with all its linked rows into a store (for graphs that do not fit into memory, refer to
+     * {@link #contentAsRowStream(Connection, CheckedFunction, String, Object...)})
+     * @return the number of added rows
+     */
+    public long contentToStore(Connection connection, DiskRecordStore store, String tableName, Object... pkValue) throws SQLException {
+        return contentAsRowStream(connection, writtenRows(row -> {
+            store.add(row);
+            return null;
+        }), tableName, pkValue);
+    }
+
+    /**
+     * Export a subset of the db: the given root rows with all their linked rows, in the graph format (refer to
+     * {@link #contentAsGraph(Connection, Writer, String, Object...)}, import it with {@link DbImporter#insertGraph(Connection, Reader)}).
+     * All roots are exported with one visited set, so a row that is linked to several roots is only exported once
+     * (and a root that was already reached from another root is not exported again). The rows are stored in a
+     * {@link DiskRecordStore} (in the visitedRowsOverflowDirectory or the default temporary directory) before they are
+     * written in insertion order. With {@link #setLevelWise(boolean)} all roots are read together, level by level.
+     * @param rootPkValues the primary key values of the root rows (one array per row)
+     * @return the number of exported rows
+     */
+    public long subsetAsGraph(Connection connection, Writer writer, String rootTable, Iterable<Object[]> rootPkValues) throws SQLException, IOException {
+        if (pkCache.getIfPresent(rootTable) == null) {
+            JdbcHelpers.assertTableExists(connection, rootTable);
+        }
+        try (DiskRecordStore store = new DiskRecordStore(visitedRowsOverflowDirectory);
+             OffHeapKeySet visitedKeys = new OffHeapKeySet(visitedRowsMemoryCap, visitedRowsOverflowDirectory)) {
+            ExportContext context = new ExportContext(connection);
+            context.visitedKeys = visitedKeys;
+            context.rowConsumer = writtenRows(row -> {
+                store.add(row);
+                return null;
+            });
+
+            List<RowLink> roots = new ArrayList<>();
+            List<Object[]> rootKeys = new ArrayList<>();
+            for (Object[] pkValue : rootPkValues) {
+                roots.add(new RowLink(rootTable, pkValue));
+                if (levelWise) {
+                    rootKeys.add(pkValue);
+                } else if (!context.containsNode(rootTable, pkValue)) {
+                    asTree(connection, rootTable, context, pkValue);
+                }
+            }
+            if (levelWise) {
+                readLevelWise(connection, rootTable, rootKeys, context);
+            }
+
+            try (JsonGenerator generator = DbRecord.getObjectMapper().createGenerator(writer).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+                GraphJson.write(connection, store, rootTable, roots, fkCache, pkCache, generator);
+            }
+            writer.flush();
+            return store.size();
+        }
+    }
+
+    /**
+     * Like {@link #subsetAsGraph(Connection, Writer, String, Iterable)} with the rows of the root table that match a
+     * sampling predicate as roots.
+     * @param samplingPredicate an SQL condition on the root table, e.g. <code>MOD(customer_id, 100) = 0</code> for 1% of
+     *                          the customers (CAVEAT: it is added to the SQL statement as is, do not pass user input)
+     */
+    public long subsetAsGraph(Connection connection, Writer writer, String rootTable, String samplingPredicate) throws SQLException, IOException {
+        JdbcHelpers.assertTableExists(connection, rootTable);
+        List<String> primaryKeys = JdbcHelpers.getPrimaryKeys(connection.getMetaData(), rootTable, pkCache);
+        String select = "SELECT " + String.join(", ", primaryKeys) + " FROM " + rootTable + " WHERE " + samplingPredicate +
+                " ORDER BY " + String.join(", ", primaryKeys);
+
+        List<Object[]> roots = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(select)) { // NOSONAR: the predicate is documented to be trusted
+            Loggers.logSelectStatement(statement, select, List.of());
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    Object[] pkValues = new Object[primaryKeys.size()];
+                    for (int i = 0; i < pkValues.length; i++) {
+                        pkValues[i] = rs.getObject(i + 1);
+                    }
+                    roots.add(pkValues);
+                }
+            }
+        }
+        return subsetAsGraph(connection, writer, rootTable, roots);
+    }
+
+    //region dump
+
+    /**
+     * Export whole tables (e.g. all tables of a schema, refer to {@link JdbcHelpers#getAllTableNames(Connection)}): each row
+     * is passed to the consumer (without sub records). The tables come in insertion order (refer to
+     * {@link JdbcHelpers#determineOrder(Connection, Collection, boolean, Cache)}), the rows of a table in the order of its
+     * primary keys. A table is read in pages of {@link #setDumpPageSize(int)} rows with keyset pagination (the next page
+     * starts after the primary key of the last row, refer to {@link JdbcHelpers#keysetPageSelect(String, List, boolean, int, String, Map)}),
+     * so there is no long-running query and only one page is in memory at a time. <p>
+     * CAVEAT: the tables need primary keys. Rows of a table that references itself are not sorted by their references.
+     * @return the number of rows
+     */
+    public long dumpTables(Connection connection, List<String> tables, CheckedFunction<DbRecord, Void> consumer) throws SQLException {
+        Map<String, String> originalNames = new HashMap<>();
+        tables.forEach(t -> originalNames.put(t.toLowerCase(), t));
+
         ExportContext context = new ExportContext(connection);
+        long rows = 0;
+        for (String table : JdbcHelpers.determineOrder(connection, tables, false, fkCache)) {
+            rows += dumpTable(connection, originalNames.get(table), consumer, context);
+        }
+        return rows;
+    }
+
+    /**
+     * Export whole tables in the graph format (refer to {@link #dumpTables(Connection, List, CheckedFunction)} and
+     * {@link GraphJson}), without edges. Import it with {@link DbImporter#insertGraph(Connection, Reader)}.
+     * @return the number of rows
+     */
+    public long dumpAsGraph(Connection connection, Writer writer, List<String> tables) throws SQLException, IOException {
+        long rows;
+        try (JsonGenerator generator = DbRecord.getObjectMapper().createGenerator(writer).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            rows = GraphJson.writeDump(tables, consumer -> dumpTables(connection, tables, writtenRows(consumer)), generator);
+        }
+        writer.flush();
+        return rows;
+    }
 
+    /**
+     * Export whole tables as NDJSON: one row per line (in the format of {@link DbRecord#asJsonNode()}, refer to
+     * {@link #dumpTables(Connection, List, CheckedFunction)}). Import it with {@link DbImporter#insertDump(Connection, Reader)}.
+     * @return the number of written lines
+     */
+    public long dumpAsNdjson(Connection connection, Writer writer, List<String> tables) throws SQLException, IOException {
+        ObjectMapper mapper = DbRecord.getObjectMapper();
+        long lines = dumpTables(connection, tables, writtenRows(row -> {
+            try {
+                try (JsonGenerator generator = mapper.createGenerator(writer).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+                    row.writeJson(generator, true);
+                }
+                writer.write('\n');
+            } catch (IOException e) {
+                throw new SQLException("Could not write row " + row.getRowLink(), e);
+            }
+            return null;
+        }));
+        writer.flush();
+        return lines;
+    }
+
+    /**
+     * Export whole tables in the binary format of {@link BinaryRecordWriter}: each row is a root record (refer to
+     * {@link #dumpTables(Connection, List, CheckedFunction)}). Import it with {@link DbImporter#insertDump(Connection, InputStream)}.
+     * The output stream is not closed.
+     * @return the number of rows
+     */
+    public long dumpAsBinary(Connection connection, OutputStream outputStream, List<String> tables) throws SQLException, IOException {
+        BinaryRecordWriter recordWriter = new BinaryRecordWriter(outputStream);
+        long rows = dumpTables(connection, tables, writtenRows(row -> {
+            try {
+                recordWriter.write(row);
+            } catch (IOException e) {
+                throw new SQLException("Could not write row " + row.getRowLink(), e);
+            }
+            return null;
+        }));
+        recordWriter.finish();
+        return rows;
+    }
+
+    /**
+     * The rows of the writers of the exporter are not handed out (the exporter owns them): their spill files (refer to
+     * {@link #setLobSpillThreshold(long)}) are deleted as soon as the writer has written them
+     */
+    private CheckedFunction<DbRecord, Void> writtenRows(CheckedFunction<DbRecord, Void> writer) {
+        return row -> {
+            writer.apply(row);
+            try {
+                deleteSpilledLobs(row);
+            } catch (IOException e) {
+                throw new SQLException("Could not delete the spilled lobs of " + row.getRowLink(), e);
+            }
+            return null;
+        };
+    }
+
+    private void deleteSpilledLobs(DbRecord dbRecord) throws IOException {
+        if (lobSpillThreshold >= 0) {
+            dbRecord.deleteSpilledLobs();
+        }
+    }
+
+    private long dumpTable(Connection connection, String tableName, CheckedFunction<DbRecord, Void> consumer, ExportContext context) throws SQLException {
+        Map<String, JdbcHelpers.ColumnMetadata> columns = JdbcHelpers.getColumnMetadata(context.getMetaData(), tableName, metadataCache);
+        List<String> primaryKeys = JdbcHelpers.getPrimaryKeys(context.getMetaData(), tableName, pkCache);
+        if (primaryKeys.isEmpty()) {
+            throw new IllegalStateException("Primary keys of " + tableName + " not found (needed to dump it).");
+        }
+
+        long rows = 0;
+        Object[] lastPkValues = null;
+        int rowsOfPage;
+        do {
+            String select = JdbcHelpers.keysetPageSelect(tableName, primaryKeys, lastPkValues == null, dumpPageSize, context.getDbProductName(), columns);
+            rowsOfPage = 0;
+            try (PreparedStatement statement = prepareForwardOnly(connection, select)) { // NOSONAR: now unchecked values all via prepared statement
+                if (lastPkValues != null) {
+                    JdbcHelpers.setKeysetValues(statement, primaryKeys, lastPkValues, columns);
+                }
+                Loggers.logSelectStatement(statement, select, lastPkValues != null ? Arrays.asList(lastPkValues) : List.of());
+
+                try (ResultSet rs = statement.executeQuery()) {
+                    ResultSetMetaData rsMetaData = rs.getMetaData();
+                    int columnCount = rsMetaData.getColumnCount();
+                    while (rs.next()) {
+                        // the raw values (a field exporter may change the values of the record)
+                        lastPkValues = new Object[primaryKeys.size()];
+                        for (int i = 0; i < primaryKeys.size(); i++) {
+                            lastPkValues[i] = rs.getObject(primaryKeys.get(i));
+                        }
+                        consumer.apply(innerReadRecord(tableName, columns, rs, rsMetaData, columnCount, primaryKeys, context));
+                        rowsOfPage++;
+                    }
+                }
+            }
+            rows += rowsOfPage;
+        } while (rowsOfPage == dumpPageSize);
+        return rows;
+    }
+
+    //endregion dump
+
+    private DbRecord asTree(Connection connection, String tableName, ExportContext context, Object... pkValue) throws SQLException {
         if (pkCache.getIfPresent(tableName) == null) {
             JdbcHelpers.assertTableExists(connection, tableName);
         }
@@ -104,15 +492,34 @@ public class DbExporter implements FkCacheAccessor {
      */
     @Getter
     public static class ExportContext {
-        Map<RowLink, DbRecord> visitedNodes = new HashMap<>();
+        /** the rows read so far (with compact keys) */
+        @Getter(AccessLevel.NONE)
+        final RowKeyMap<DbRecord> visitedNodes = new RowKeyMap<>();
+        /** in streaming mode: only the keys of the rows read so far (instead of visitedNodes) */
+        @Getter(AccessLevel.NONE)
+        OffHeapKeySet visitedKeys;
+        /** in streaming mode: gets the rows as they are read (they are not linked to their parent rows) */
+        @Getter(AccessLevel.NONE)
+        CheckedFunction<DbRecord, Void> rowConsumer;
         Set<Fk> treatedFks = new HashSet<>();
 
         DatabaseMetaData metaData;
         String dbProductName;
 
+        /** only read the pk and fk columns */
+        boolean keysOnly;
+
+        /** in keysOnly mode: per table a column that is read in addition (e.g. a change column), case-insensitive */
+        Map<String, String> additionalColumns = Map.of();
+
         public ExportContext(Connection connection) throws SQLException {
+            this(connection, false);
+        }
+
+        public ExportContext(Connection connection, boolean keysOnly) throws SQLException {
             metaData = connection.getMetaData();
             dbProductName = metaData.getDatabaseProductName();
+            this.keysOnly = keysOnly;
         }
 
         @Override
@@ -123,12 +530,31 @@ public class DbExporter implements FkCacheAccessor {
                     '}';
         }
 
+        public Map<RowLink, DbRecord> getVisitedNodes() {
+            return visitedNodes;
+        }
+
         public boolean containsNode(String tableName, Object[] pk){
-            return visitedNodes.containsKey(new RowLink(tableName.toLowerCase(), pk));
+            return visitedKeys != null ? visitedKeys.contains(tableName, pk) : visitedNodes.containsKey(tableName, pk);
         }
 
+        /** @return true if a row of the table was read (case-insensitive) */
         public boolean containsTable(String tableName){
-            return visitedNodes.keySet().stream().map(RowLink::getTableName).anyMatch(table -> tableName.equals(table));
+            return visitedKeys != null ? visitedKeys.containsTable(tableName) : visitedNodes.containsTable(tableName);
+        }
+
+        /** @return true if the rows are streamed (refer to {@link DbExporter#contentAsRowStream(Connection, CheckedFunction, String, Object...)}) */
+        public boolean isStreaming() {
+            return visitedKeys != null;
+        }
+
+        void addNode(String tableName, Object[] pks, DbRecord dbRecord) throws SQLException {
+            if (visitedKeys == null) {
+                visitedNodes.put(tableName, pks, dbRecord);
+            } else {
+                visitedKeys.add(tableName, pks);
+                rowConsumer.apply(dbRecord);
+            }
         }
 
     }
@@ -147,7 +573,7 @@ public class DbExporter implements FkCacheAccessor {
 
         data.setColumnMetadata(columns);
 
-        String selectPk = selectStatementByPks(tableName, primaryKeys, false);
+        String selectPk = selectStatementByPks(tableName, selectedColumns(connection, tableName, primaryKeys, context), primaryKeys, false);
 
         try (PreparedStatement pkSelectionStatement = connection.prepareStatement(selectPk)) { // NOSONAR: now unchecked values all via prepared statement
             for (int i = 0; i < primaryKeys.size(); i++) {
@@ -175,7 +601,7 @@ public class DbExporter implements FkCacheAccessor {
                 }
             }
         }
-        context.visitedNodes.put(new RowLink(tableName, pkValues), data);
+        context.addNode(tableName, pkValues, data);
 
         return data;
     }
@@ -188,13 +614,28 @@ public class DbExporter implements FkCacheAccessor {
                                                          String columnName,
                                                          ExportContext context) throws SQLException {
         FieldExporter localFieldExporter = getFieldExporter(tableName, columnName);
+        boolean isLob = JdbcHelpers.isLob(columns.get(columnName).getDataType());
+        boolean streamLob = localFieldExporter == null && streamLobs && isLob;
+
+        // only table/column exporters take precedence over spilling (the type exporters include the default CLOB/BLOB ones)
+        if (localFieldExporter == null && lobSpillThreshold >= 0 && JdbcHelpers.isBinary(columns.get(columnName).getDataType())) {
+            return new DbRecord.FieldAndValue(columnName, columns.get(columnName), readBinarySpillingLarge(rs, i));
+        }
+        SpilledLob spilledLob = null;
+        if (localFieldExporter == null && !streamLob && lobSpillThreshold >= 0 && isLob) {
+            spilledLob = spillLargeLob(rs, i, columns.get(columnName).getDataType());
+        }
 
-        if (localFieldExporter == null) {
+        if (localFieldExporter == null && !streamLob && spilledLob == null) {
             localFieldExporter = typeFieldExporters.get(columns.get(columnName).getType().toUpperCase());
         }
 
         DbRecord.FieldAndValue d;
-        if (localFieldExporter != null) {
+        if (streamLob) {
+            d = new DbRecord.FieldAndValue(columnName, columns.get(columnName), lobValue(tableName, columns, rs, i, columnName, context));
+        } else if (spilledLob != null) {
+            d = new DbRecord.FieldAndValue(columnName, columns.get(columnName), spilledLob);
+        } else if (localFieldExporter != null) {
             d = localFieldExporter.exportField(tableName, columnName, columns.get(columnName.toLowerCase()), rs);
         } else {
             // this is a bit hacky as h2 behaves strangely if we do not get string types via ResultSet#getString
@@ -207,10 +648,82 @@ public class DbExporter implements FkCacheAccessor {
         return d;
     }
 
+    private LobValue lobValue(String tableName, Map<String, JdbcHelpers.ColumnMetadata> columns, ResultSet rs, int i,
+                              String columnName, ExportContext context) throws SQLException {
+        boolean character = columns.get(columnName).getDataType() != Types.BLOB;
+        if ((character ? rs.getClob(i) : rs.getBlob(i)) == null) {
+            return null;
+        }
+
+        List<String> primaryKeys = JdbcHelpers.getPrimaryKeys(context.getMetaData(), tableName, pkCache);
+        Object[] pkValues = new Object[primaryKeys.size()];
+        for (int j = 0; j < primaryKeys.size(); j++) {
+            pkValues[j] = rs.getObject(primaryKeys.get(j));
+        }
+        return new DatabaseLobValue(rs.getStatement().getConnection(), tableName, columnName, primaryKeys, pkValues, columns, character);
+    }
+
+    /**
+     * Binary values (e.g. BYTEA) have no length before they are read: the bytes up to the lobSpillThreshold are read first
+     * @return the value stored in a temporary file if it is longer than the lobSpillThreshold, otherwise as byte[] (or null)
+     */
+    private Object readBinarySpillingLarge(ResultSet rs, int i) throws SQLException {
+        try (InputStream inputStream = rs.getBinaryStream(i)) {
+            if (inputStream == null) {
+                return null;
+            }
+            byte[] start = inputStream.readNBytes((int) Math.min(lobSpillThreshold + 1, Integer.MAX_VALUE - 8));
+            if (start.length <= lobSpillThreshold) {
+                return start;
+            }
+            return SpilledLob.ofBinary(new SequenceInputStream(new ByteArrayInputStream(start), inputStream));
+        } catch (IOException e) {
+            throw new SQLException("Could not store binary value in temporary file", e);
+        }
+    }
+
+    /** @return the lob stored in a temporary file if it is longer than the lobSpillThreshold, otherwise null */
+    private SpilledLob spillLargeLob(ResultSet rs, int i, int dataType) throws SQLException {
+        try {
+            if (dataType == Types.BLOB) {
+                Blob blob = rs.getBlob(i);
+                if (blob != null && blob.length() > lobSpillThreshold) {
+                    try (InputStream inputStream = blob.getBinaryStream()) {
+                        return SpilledLob.ofBinary(inputStream);
+                    }
+                }
+            } else {
+                Clob clob = rs.getClob(i);
+                if (clob != null && clob.length() > lobSpillThreshold) {
+                    try (Reader reader = clob.getCharacterStream()) {
+                        return SpilledLob.ofCharacter(reader);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new SQLException("Could not store lob in temporary file", e);
+        }
+        return null;
+    }
 
-    private String selectStatementByPks(String tableName, List<String> fkNames, boolean orderResult) {
+    /** the columns to select: all or (in keysOnly mode) the primary keys and the columns of the fks of the table */
+    private String selectedColumns(Connection connection, String tableName, List<String> primaryKeys, ExportContext context) throws SQLException {
+        if (!context.isKeysOnly()) {
+            return "*";
+        }
+
+        Set<String> columns = new LinkedHashSet<>();
+        primaryKeys.forEach(pk -> columns.add(pk.toLowerCase()));
+        for (Fk fk : getFksOfTable(connection, tableName, fkCache)) {
+            Stream.of(fk.isInverted() ? fk.getFkcolumn() : fk.getPkcolumn()).map(String::toLowerCase).forEach(columns::add);
+        }
+        Optional.ofNullable(context.getAdditionalColumns().get(tableName)).map(String::toLowerCase).ifPresent(columns::add);
+        return String.join(", ", columns);
+    }
+
+    private String selectStatementByPks(String tableName, String selectedColumns, List<String> fkNames, boolean orderResult) {
         String whereClause = fkNames.stream().collect(Collectors.joining(" = ? AND ", "", " = ?"));
-        return  "SELECT * FROM " + tableName + " WHERE  " + whereClause +
+        return  "SELECT " + selectedColumns + " FROM " + tableName + " WHERE  " + whereClause +
                 (orderResult ? (" ORDER BY "+fkNames.get(0)+" asc " ) : "");
     }
 
@@ -222,6 +735,25 @@ public class DbExporter implements FkCacheAccessor {
             return listOfRows;
         }
 
+        // streamed or spilled lobs belong to one export (a spill file is deleted by its owner), they are not shared via the cache
+        if (referenceTables.contains(tableName) && !context.isKeysOnly() && !streamLobs && lobSpillThreshold < 0 && !context.isStreaming()) {
+            Optional<List<DbRecord>> referenceRows = readReferenceRows(connection, tableName, fkNames, fkValues, context);
+            if (referenceRows.isPresent()) {
+                return referenceRows.get();
+            }
+        }
+
+        return queryLinkedRecords(connection, tableName, fkNames, fkValues, context);
+    }
+
+    /**
+     * Read the rows that link to the fk values and follow their fks. With a fanoutChunkSize, the rows are followed in
+     * chunks while the result set is read (in streaming mode the chunks are then not kept, so a large fanout does not
+     * need to fit into memory).
+     */
+    private List<DbRecord> queryLinkedRecords(Connection connection, String tableName, String[] fkNames, Object[] fkValues, ExportContext context) throws SQLException {
+        List<DbRecord> listOfRows = new ArrayList<>();
+
         DatabaseMetaData metaData = connection.getMetaData();
         Map<String, JdbcHelpers.ColumnMetadata> columns = JdbcHelpers.getColumnMetadata(metaData, tableName, metadataCache);
         List<String> primaryKeys = JdbcHelpers.getPrimaryKeys(metaData, tableName, pkCache);
@@ -230,9 +762,11 @@ public class DbExporter implements FkCacheAccessor {
             return listOfRows; // for tables without a pk
         }
 
-        String selectPk = selectStatementByPks(tableName, Arrays.asList(fkNames), orderResults);
+        String selectPk = selectStatementByPks(tableName, selectedColumns(connection, tableName, primaryKeys, context), Arrays.asList(fkNames), orderResults);
 
-        try (PreparedStatement pkSelectionStatement = connection.prepareStatement(selectPk)) { // NOSONAR: now unchecked values all via prepared statement
+        List<DbRecord> chunk = new ArrayList<>();
+        boolean autoCommitDisabled = disableAutoCommitForCursor(connection, context);
+        try (PreparedStatement pkSelectionStatement = prepareForwardOnly(connection, selectPk)) { // NOSONAR: now unchecked values all via prepared statement
             for (int i = 0; i < fkValues.length; i++) {
                 JdbcHelpers.innerSetStatementField(pkSelectionStatement, i+1, columns.get(fkNames[i].toLowerCase()),
                         Objects.toString(fkValues[i]), null);
@@ -248,31 +782,152 @@ public class DbExporter implements FkCacheAccessor {
                         continue; // we have already read this node
                     }
 
-                    context.visitedNodes.put(new RowLink(tableName, row.getRowLink().getPks()), row);
-                    listOfRows.add(row);
+                    context.addNode(tableName, row.getRowLink().getPks(), row);
+                    chunk.add(row);
+                    if (fanoutChunkSize > 0 && chunk.size() >= fanoutChunkSize) {
+                        treatSubtables(connection, tableName, chunk, listOfRows, context);
+                    }
                 }
             }
+        } finally {
+            if (autoCommitDisabled) {
+                connection.setAutoCommit(true);
+            }
         }
 
         // now treat subtables
-        for (DbRecord row : listOfRows) {
+        treatSubtables(connection, tableName, chunk, listOfRows, context);
+
+        return listOfRows;
+    }
+
+    /** follow the fks of the rows of the chunk, then move them to listOfRows (in streaming mode they are dropped) */
+    private void treatSubtables(Connection connection, String tableName, List<DbRecord> chunk, List<DbRecord> listOfRows, ExportContext context) throws SQLException {
+        for (DbRecord row : chunk) {
             if (!stopTablesIncluded.contains(tableName)) {
-                addSubRowDataFromFks(connection, tableName, row, context);
+                addSubRowDataFromFks(connection, tableName, row, context, referenceTables.contains(tableName));
             }
         }
+        if (!context.isStreaming()) {
+            listOfRows.addAll(chunk);
+        }
+        chunk.clear();
+    }
 
-        return listOfRows;
+    /** a forward-only, read-only statement with the fetch size (refer to {@link #setFetchSize(int)}) */
+    private PreparedStatement prepareForwardOnly(Connection connection, String sql) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY); // NOSONAR: only called with prepared statements
+        if (fetchSize > 0) {
+            statement.setFetchSize(fetchSize);
+        }
+        return statement;
+    }
+
+    /**
+     * postgres only reads a result set with a cursor (fetchSize rows at a time) if autocommit is off, otherwise it reads
+     * the whole result into memory
+     * @return true if autocommit was switched off here (the caller switches it on again)
+     */
+    private boolean disableAutoCommitForCursor(Connection connection, ExportContext context) throws SQLException {
+        if (fetchSize > 0 && context.getDbProductName().equals("PostgreSQL") && connection.getAutoCommit()) {
+            connection.setAutoCommit(false);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the row of a reference table from the cache (or read it and add it to the cache).
+     * @return empty if the row is not selected by its primary key (so it cannot be cached)
+     */
+    private Optional<List<DbRecord>> readReferenceRows(Connection connection, String tableName, String[] fkNames, Object[] fkValues, ExportContext context) throws SQLException {
+        List<String> primaryKeys = JdbcHelpers.getPrimaryKeys(connection.getMetaData(), tableName, pkCache);
+        List<String> lowerCaseFkNames = Stream.of(fkNames).map(String::toLowerCase).collect(toList());
+        if (primaryKeys.isEmpty() || primaryKeys.size() != fkNames.length) {
+            return Optional.empty();
+        }
+        Object[] pkValues = new Object[primaryKeys.size()];
+        for (int i = 0; i < primaryKeys.size(); i++) {
+            int fkPosition = lowerCaseFkNames.indexOf(primaryKeys.get(i).toLowerCase());
+            if (fkPosition < 0) {
+                return Optional.empty();
+            }
+            pkValues[i] = fkValues[fkPosition];
+        }
+
+        RowLink rowLink = new RowLink(tableName, pkValues);
+        List<DbRecord> result = new ArrayList<>();
+        if (context.getVisitedNodes().containsKey(rowLink)) {
+            return Optional.of(result); // we have already read this node
+        }
+
+        DbRecord cached = referenceRowCache.getIfPresent(rowLink);
+        if (cached == null) {
+            // read with its own context, so the cached rows do not depend on the current export
+            List<DbRecord> rows = queryLinkedRecords(connection, tableName, fkNames, fkValues, new ExportContext(connection));
+            if (rows.isEmpty()) {
+                return Optional.of(result);
+            }
+            cached = rows.get(0);
+            referenceRowCache.put(rowLink, cached);
+        }
+
+        DbRecord copy = copyUnvisitedRows(cached, context);
+        if (copy != null) {
+            result.add(copy);
+        }
+        return Optional.of(result);
+    }
+
+    /** @return a deep copy of the record without the rows that were already visited in the context (they are added to it), null if the record was visited */
+    private static DbRecord copyUnvisitedRows(DbRecord dbRecord, ExportContext context) {
+        if (context.getVisitedNodes().containsKey(dbRecord.getRowLink())) {
+            return null;
+        }
+        DbRecord copy = new DbRecord(dbRecord.getRowLink().getTableName(), null);
+        copy.setPkValue(dbRecord.getRowLink().getPks().clone());
+        copy.setPkNames(dbRecord.getPkNames());
+        copy.setColumnMetadata(dbRecord.getColumnMetadata());
+        copy.setOptionalFks(dbRecord.getOptionalFks());
+        context.visitedNodes.put(copy.getRowLink(), copy);
+
+        for (DbRecord.FieldAndValue field : dbRecord.getContent()) {
+            Object value = field.getValue() instanceof byte[] ? ((byte[]) field.getValue()).clone() : field.getValue();
+            DbRecord.FieldAndValue fieldCopy = new DbRecord.FieldAndValue(field.getName(), field.getMetadata(), value);
+            for (Map.Entry<String, List<DbRecord>> subTable : field.getSubRow().entrySet()) {
+                List<DbRecord> subRows = new ArrayList<>();
+                for (DbRecord subRow : subTable.getValue()) {
+                    DbRecord subRowCopy = copyUnvisitedRows(subRow, context);
+                    if (subRowCopy != null) {
+                        subRows.add(subRowCopy);
+                    }
+                }
+                if (!subRows.isEmpty()) {
+                    fieldCopy.getSubRow().put(subTable.getKey(), subRows);
+                }
+            }
+            copy.getContent().add(fieldCopy);
+        }
+        return copy;
     }
 
     /**
      * complement the record "data" by starting from "tableName" and recursively adding data that is connected via FKs
      */
     void addSubRowDataFromFks(Connection connection, String tableName, DbRecord data, ExportContext context) throws SQLException {
+        addSubRowDataFromFks(connection, tableName, data, context, false);
+    }
+
+    /** @param isReferenceRow only follow the fks of the row to other reference tables */
+    private void addSubRowDataFromFks(Connection connection, String tableName, DbRecord data, ExportContext context, boolean isReferenceRow) throws SQLException {
         List<Fk> fks = getFksOfTable(connection, tableName, fkCache);
 
         data.setOptionalFks(fks);
 
         for (Fk fk : fks) {
+            if (isReferenceRow && (!fk.isInverted() || !referenceTables.contains(Fk.getSubtableName(fk, context.getDbProductName())))) {
+                continue;
+            }
             context.treatedFks.add(fk);
 
             String[] elementPkName = fk.isInverted() ? fk.getFkcolumn() : fk.getPkcolumn();
@@ -293,7 +948,7 @@ public class DbExporter implements FkCacheAccessor {
                         subFkNames,
                         elementsWithName.stream().map(DbRecord.FieldAndValue::getValue).toArray(),
                         context);
-                if (!subRow.isEmpty()) {
+                if (!subRow.isEmpty() && !context.isStreaming()) {
                     if (!elementsWithName.get(0).getSubRow().containsKey(subTableName)) {
                         elementsWithName.get(0).getSubRow().put(subTableName, subRow);
                     } else {
@@ -330,6 +985,271 @@ public class DbExporter implements FkCacheAccessor {
         return row;
     }
 
+    //region level-wise
+
+    /**
+     * Read the rows reachable from the roots level by level (breadth first): the rows of a level are grouped per table and
+     * for each fk of the table the linked rows of all of them are read together (refer to {@link #readRowsWithKeys}), so
+     * there are a few queries per fk and level instead of one per row and fk. Only the rows of one level are kept.
+     * Streaming mode only (the rows are passed to the rowConsumer of the context).
+     */
+    private void readLevelWise(Connection connection, String rootTable, List<Object[]> rootPkValues, ExportContext context) throws SQLException {
+        if (pkCache.getIfPresent(rootTable) == null) {
+            JdbcHelpers.assertTableExists(connection, rootTable);
+        }
+        List<String> rootPks = JdbcHelpers.getPrimaryKeys(connection.getMetaData(), rootTable, pkCache);
+        if (rootPks.isEmpty()) {
+            throw new IllegalStateException("Primary keys of " + rootTable + " not found.");
+        }
+
+        Map<RowLink, Object[]> unvisitedRoots = new LinkedHashMap<>();
+        for (Object[] pkValue : rootPkValues) {
+            if (!context.containsNode(rootTable, pkValue)) {
+                unvisitedRoots.putIfAbsent(new RowLink(rootTable, pkValue), pkValue);
+            }
+        }
+        if (unvisitedRoots.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<DbRecord>> roots = new LinkedHashMap<>();
+        readRowsWithKeys(connection, rootTable, rootPks, new ArrayList<>(unvisitedRoots.values()), context,
+                row -> addToLevel(rootTable, row, roots, context));
+        if (roots.getOrDefault(rootTable, List.of()).size() < unvisitedRoots.size()) {
+            throw new IllegalArgumentException("Entry not found " + rootTable + " " + unvisitedRoots.keySet());
+        }
+
+        Map<String, List<DbRecord>> level = roots;
+
+        while (!level.isEmpty()) {
+            Map<String, List<DbRecord>> nextLevel = new LinkedHashMap<>();
+            for (Map.Entry<String, List<DbRecord>> rowsOfTable : level.entrySet()) {
+                String tableName = rowsOfTable.getKey();
+                if (!stopTablesIncluded.contains(tableName)) {
+                    readLinkedRowsOfLevel(connection, tableName, rowsOfTable.getValue(), nextLevel, context);
+                }
+            }
+            level = nextLevel;
+        }
+    }
+
+    /** read the rows that are linked to the rows (of one table) via its fks, the unvisited ones are added to the next level */
+    private void readLinkedRowsOfLevel(Connection connection, String tableName, List<DbRecord> rows,
+                                       Map<String, List<DbRecord>> nextLevel, ExportContext context) throws SQLException {
+        // as in addSubRowDataFromFks: from reference rows only the fks to other reference tables are followed
+        boolean isReferenceRow = referenceTables.contains(tableName);
+
+        for (Fk fk : getFksOfTable(connection, tableName, fkCache)) {
+            String subTableName = Fk.getSubtableName(fk, context.getDbProductName());
+            if ((isReferenceRow && (!fk.isInverted() || !referenceTables.contains(subTableName))) ||
+                    stopTablesExcluded.contains(subTableName) || stopAfterFirstInstance(subTableName, context) ||
+                    (stopTablesIncluded.contains(subTableName) && context.containsTable(subTableName))) {
+                continue;
+            }
+            context.treatedFks.add(fk);
+
+            String[] elementPkName = fk.isInverted() ? fk.getFkcolumn() : fk.getPkcolumn();
+            List<String> subFkNames = Stream.of(fk.isInverted() ? fk.getPkcolumn() : fk.getFkcolumn()).map(String::toLowerCase).collect(toList());
+
+            // the distinct (non null) values of the fk columns
+            Map<List<String>, Object[]> keys = new LinkedHashMap<>();
+            for (DbRecord row : rows) {
+                Object[] values = Stream.of(elementPkName).map(row::findElementWithName)
+                        .map(field -> field != null ? field.getValue() : null).toArray();
+                if (Stream.of(values).noneMatch(Objects::isNull)) {
+                    keys.putIfAbsent(Stream.of(values).map(v -> Objects.toString(RowLink.normalizePk(v))).collect(toList()), values);
+                }
+            }
+            if (!keys.isEmpty()) {
+                readRowsWithKeys(connection, subTableName, subFkNames, new ArrayList<>(keys.values()), context,
+                        row -> addToLevel(subTableName, row, nextLevel, context));
+            }
+        }
+    }
+
+    private static Void addToLevel(String tableName, DbRecord row, Map<String, List<DbRecord>> level, ExportContext context) throws SQLException {
+        if (!context.containsNode(tableName, row.getRowLink().getPks())) {
+            context.addNode(tableName, row.getRowLink().getPks(), row);
+            level.computeIfAbsent(tableName, t -> new ArrayList<>()).add(row);
+        }
+        return null;
+    }
+
+    //endregion level-wise
+
+    //region delta
+
+    /**
+     * Compare the graph of an earlier export with the current rows in the db. Only the keys of the graph (and the change
+     * columns) are read, rows whose change column moved (and new rows) are read again. This detects added and removed rows
+     * as well. Rows of tables without change column are always read again (and compared with their earlier content).
+     * @param previous an earlier export (e.g. read again via {@link DbImporter#jsonToRecord(Connection, String, String)})
+     * @param changeColumns per table a column that changes whenever a row changes (e.g. an updated_at timestamp or a version)
+     */
+    public RecordDelta contentAsDelta(Connection connection, DbRecord previous, Map<String, String> changeColumns) throws SQLException {
+        Map<String, String> changeColumnsOfTables = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        changeColumnsOfTables.putAll(changeColumns);
+
+        ExportContext keysContext = new ExportContext(connection, true);
+        keysContext.additionalColumns = changeColumnsOfTables;
+        RowLink root = previous.getRowLink();
+        DbRecord keys = asTree(connection, root.getTableName(), keysContext, root.getPks().clone());
+
+        Map<RowLink, DbRecord> previousRows = new LinkedHashMap<>();
+        previous.visitRecords(r -> previousRows.putIfAbsent(r.getRowLink(), r));
+        Map<RowLink, DbRecord> currentKeys = new LinkedHashMap<>();
+        keys.visitRecords(r -> currentKeys.putIfAbsent(r.getRowLink(), r));
+
+        Set<RowLink> added = new LinkedHashSet<>();
+        Set<RowLink> changed = new LinkedHashSet<>();
+        Set<RowLink> toCompare = new LinkedHashSet<>();
+        for (DbRecord current : currentKeys.values()) {
+            DbRecord earlier = previousRows.get(current.getRowLink());
+            String changeColumn = changeColumnsOfTables.get(current.getRowLink().getTableName());
+            if (earlier == null) {
+                added.add(current.getRowLink());
+            } else if (changeColumn == null) {
+                toCompare.add(current.getRowLink());
+            } else if (!sameValue(earlier.findElementWithName(changeColumn), current.findElementWithName(changeColumn))) {
+                changed.add(current.getRowLink());
+            }
+        }
+        Set<RowLink> removed = new LinkedHashSet<>(previousRows.keySet());
+        removed.removeAll(currentKeys.keySet());
+
+        Set<RowLink> toRead = new LinkedHashSet<>(added);
+        toRead.addAll(changed);
+        toRead.addAll(toCompare);
+        Map<RowLink, DbRecord> readAgain = readRecordsByKeys(connection, toRead, new ExportContext(connection));
+        for (RowLink rowLink : toCompare) {
+            if (!RecordDelta.fieldsAsJson(previousRows.get(rowLink)).equals(RecordDelta.fieldsAsJson(readAgain.get(rowLink)))) {
+                changed.add(rowLink);
+            }
+        }
+
+        DbRecord patched = patchedRecord(keys, rowLink -> readAgain.containsKey(rowLink) ? readAgain.get(rowLink) : previousRows.get(rowLink));
+        return new RecordDelta(patched, added, changed, removed);
+    }
+
+    private static boolean sameValue(DbRecord.FieldAndValue earlier, DbRecord.FieldAndValue current) {
+        if (earlier == null || current == null) {
+            return false;
+        }
+        return Objects.equals(Objects.toString(RowLink.normalizePk(earlier.getValue())), Objects.toString(RowLink.normalizePk(current.getValue())));
+    }
+
+    /** read rows (without following their fks), per table in chunks */
+    private Map<RowLink, DbRecord> readRecordsByKeys(Connection connection, Collection<RowLink> rowLinks, ExportContext context) throws SQLException {
+        Map<String, List<Object[]>> keysPerTable = new LinkedHashMap<>();
+        rowLinks.forEach(rowLink -> keysPerTable.computeIfAbsent(rowLink.getTableName(), t -> new ArrayList<>()).add(rowLink.getPks()));
+
+        Map<RowLink, DbRecord> result = new HashMap<>();
+        for (Map.Entry<String, List<Object[]>> keysOfTable : keysPerTable.entrySet()) {
+            List<String> primaryKeys = JdbcHelpers.getPrimaryKeys(connection.getMetaData(), keysOfTable.getKey(), pkCache);
+            readRowsWithKeys(connection, keysOfTable.getKey(), primaryKeys, keysOfTable.getValue(), context, row -> {
+                result.put(row.getRowLink(), row);
+                return null;
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Read the rows of a table whose keyNames columns have one of the keys (without following their fks): with chunked
+     * IN lists or, above the tempTableKeyThreshold, with one join on a temporary table of the keys.
+     */
+    private void readRowsWithKeys(Connection connection, String tableName, List<String> keyNames, List<Object[]> keys,
+                                  ExportContext context, CheckedFunction<DbRecord, Void> rowConsumer) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        Map<String, JdbcHelpers.ColumnMetadata> columns = JdbcHelpers.getColumnMetadata(metaData, tableName, metadataCache);
+        List<String> primaryKeys = JdbcHelpers.getPrimaryKeys(metaData, tableName, pkCache);
+        String selectedColumns = selectedColumns(connection, tableName, primaryKeys, context);
+
+        if (keys.size() > tempTableKeyThreshold && TempKeyTable.isSupported(context.getDbProductName())) {
+            try (TempKeyTable keyTable = TempKeyTable.of(connection, keyNames, columns, keys)) {
+                String select = "SELECT " + selectedColumns + " FROM " + tableName + " WHERE " + keyTable.existsCondition(tableName);
+                boolean autoCommitDisabled = disableAutoCommitForCursor(connection, context);
+                try (PreparedStatement statement = prepareForwardOnly(connection, select)) { // NOSONAR: no values
+                    Loggers.logSelectStatement(statement, select, List.of());
+                    readRows(statement, tableName, columns, primaryKeys, context, rowConsumer);
+                } finally {
+                    if (autoCommitDisabled) {
+                        connection.setAutoCommit(true);
+                    }
+                }
+            }
+            return;
+        }
+
+        // the chunks of a table mostly share one statement (refer to JdbcHelpers#whereClauseForKeys)
+        Map<String, PreparedStatement> statements = new HashMap<>();
+        boolean autoCommitDisabled = disableAutoCommitForCursor(connection, context);
+        try {
+            for (int start = 0; start < keys.size(); start += RecordDeleter.DEFAULT_CHUNK_SIZE) {
+                List<Object[]> chunk = keys.subList(start, Math.min(keys.size(), start + RecordDeleter.DEFAULT_CHUNK_SIZE));
+                String select = "SELECT " + selectedColumns + " FROM " + tableName + " WHERE " +
+                        JdbcHelpers.whereClauseForKeys(keyNames, chunk.size(), columns, context.getDbProductName());
+                PreparedStatement statement = statements.get(select);
+                if (statement == null) {
+                    statement = prepareForwardOnly(connection, select); // NOSONAR: values all via prepared statement
+                    statements.put(select, statement);
+                }
+                JdbcHelpers.setKeyValues(statement, 1, keyNames, chunk, columns, context.getDbProductName());
+                Loggers.logSelectStatement(statement, select, chunk.stream().map(Arrays::toString).collect(toList()));
+                readRows(statement, tableName, columns, primaryKeys, context, rowConsumer);
+            }
+        } finally {
+            for (PreparedStatement statement : statements.values()) {
+                statement.close();
+            }
+            if (autoCommitDisabled) {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private void readRows(PreparedStatement statement, String tableName, Map<String, JdbcHelpers.ColumnMetadata> columns, List<String> primaryKeys,
+                          ExportContext context, CheckedFunction<DbRecord, Void> rowConsumer) throws SQLException {
+        try (ResultSet rs = statement.executeQuery()) {
+            ResultSetMetaData rsMetaData = rs.getMetaData();
+            while (rs.next()) {
+                rowConsumer.apply(innerReadRecord(tableName, columns, rs, rsMetaData, rsMetaData.getColumnCount(), primaryKeys, context));
+            }
+        }
+    }
+
+    /** @return the structure of the keyRecord with the content of the records of contentOf */
+    private static DbRecord patchedRecord(DbRecord keyRecord, Function<RowLink, DbRecord> contentOf) {
+        DbRecord content = contentOf.apply(keyRecord.getRowLink());
+        if (content == null) {
+            throw new IllegalStateException("No content found for " + keyRecord.getRowLink());
+        }
+
+        DbRecord result = new DbRecord(keyRecord.getRowLink().getTableName(), null);
+        result.setPkValue(keyRecord.getRowLink().getPks().clone());
+        result.setPkNames(keyRecord.getPkNames());
+        result.setColumnMetadata(keyRecord.getColumnMetadata());
+        result.setOptionalFks(keyRecord.getOptionalFks());
+
+        for (DbRecord.FieldAndValue field : content.getContent()) {
+            DbRecord.FieldAndValue fieldCopy = new DbRecord.FieldAndValue(field.getName(), field.getMetadata(), field.getValue());
+            DbRecord.FieldAndValue keyField = keyRecord.findElementWithName(field.getName());
+            if (keyField != null) {
+                for (Map.Entry<String, List<DbRecord>> subTable : keyField.getSubRow().entrySet()) {
+                    List<DbRecord> subRows = new ArrayList<>();
+                    for (DbRecord subRow : subTable.getValue()) {
+                        subRows.add(patchedRecord(subRow, contentOf));
+                    }
+                    fieldCopy.getSubRow().put(subTable.getKey(), subRows);
+                }
+            }
+            result.getContent().add(fieldCopy);
+        }
+        return result;
+    }
+
+    //endregion delta
+
     //region delete
 
     /** Get SQL statements to delete all the content of a record (needs to be created before).
@@ -365,16 +1285,15 @@ public class DbExporter implements FkCacheAccessor {
         }
     }
 
-    /** Delete the record with all linked rows
+    /** Delete the record with all linked rows. Deletes per table with chunked statements (refer to {@link RecordDeleter}).
+     *  Only the keys of the rows are read before (refer to {@link #keysAsTree(Connection, String, Object...)}).
      *  CAVEAT: really deletes data, check the data first!
      *   @throws SQLException or an IllegalStateException if there is a problem during deletion
-     * @return the record that was deleted */
+     * @return the keys of the record that was deleted */
     public DbRecord deleteRecursively(Connection connection, String tableName, Object... pkValue) throws Exception {
-        DbRecord dbRecord = contentAsTree(connection, tableName, pkValue);
+        DbRecord dbRecord = keysAsTree(connection, tableName, pkValue);
 
-        List<String> deleteStatements = getDeleteStatements(connection, dbRecord);
-
-        doDeletionWithException(connection, deleteStatements);
+        RecordDeleter.deleteRecords(connection, dbRecord, fkCache, deleteChunkSize, tempTableKeyThreshold);
 
         return dbRecord;
     }
@@ -395,8 +1314,7 @@ public class DbExporter implements FkCacheAccessor {
     //endregion delete
 
     boolean stopAfterFirstInstance(String tableName, ExportContext context) {
-        return (stopTablesIncludeOne.contains(tableName) &&
-                context.visitedNodes.keySet().stream().map(RowLink::getTableName).collect(Collectors.toSet()).contains(tableName));
+        return stopTablesIncludeOne.contains(tableName) && context.containsTable(tableName);
     }
 
     /** If one these tables occurs in collecting the graph, we stop before collecting them. */
@@ -416,6 +1334,45 @@ public class DbExporter implements FkCacheAccessor {
         return stopTablesIncludeOne;
     }
 
+    /** Rows of these tables are reference (=lookup) data, e.g. countries or currencies. They are cached across exports
+     *  (refer to {@link #configureReferenceRowCache(long, Duration)}) and from them only the fks to other reference tables
+     *  are followed (the rows they link to, not the rows that link to them). */
+    public Set<String> getReferenceTables() {
+        return referenceTables;
+    }
+
+    private static Cache<RowLink, DbRecord> newReferenceRowCache(long maximumSize, Duration timeToLive) {
+        return Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive)
+                .build();
+    }
+
+    /** Replace the cache of the rows of reference tables (default: 1000 rows, 10 minutes after they were read) */
+    public void configureReferenceRowCache(long maximumSize, Duration timeToLive) {
+        referenceRowCache = newReferenceRowCache(maximumSize, timeToLive);
+    }
+
+    public Cache<RowLink, DbRecord> getReferenceRowCache() {
+        return referenceRowCache;
+    }
+
+    /** Remove all cached reference rows */
+    public void invalidateReferenceRows() {
+        referenceRowCache.invalidateAll();
+    }
+
+    /** Remove all cached reference rows that are of a table or link to a row of it */
+    public void invalidateReferenceRows(String tableName) {
+        referenceRowCache.asMap().entrySet().removeIf(e -> e.getValue().getAllNodes().stream()
+                .anyMatch(rowLink -> rowLink.getTableName().equalsIgnoreCase(tableName)));
+    }
+
+    /** Remove all cached reference rows that are this row or link to it */
+    public void invalidateReferenceRow(RowLink rowLink) {
+        referenceRowCache.asMap().entrySet().removeIf(e -> e.getValue().getAllNodes().contains(rowLink));
+    }
+
     @Override
     public Cache<String, List<Fk>> getFkCache() {
         return fkCache;
@@ -425,6 +1382,11 @@ public class DbExporter implements FkCacheAccessor {
         return pkCache;
     }
 
+    /** Add the metadata of the schemaSnapshot to the metadata caches (so it is not read from the db anymore) */
+    public void useSchemaSnapshot(SchemaSnapshot schemaSnapshot) {
+        schemaSnapshot.fillCaches(fkCache, pkCache, metadataCache);
+    }
+
     /**  fieldName : String -> <optionalTableName : String, FieldExporter> */
     private final Map<String, Map<String, FieldExporter>> fieldExporters = new HashMap<>();
 
@@ -481,6 +1443,119 @@ public class DbExporter implements FkCacheAccessor {
         this.orderResults = orderResults;
     }
 
+    /** Export BLOBs and CLOBs as {@link LobValue} handles that are read when needed (e.g. streamed in chunks by
+     *  {@link DbRecord#writeJson(JsonGenerator, boolean)}) instead of reading their content into memory.
+     *  The handles can only be read as long as the connection is open. Default: false */
+    public void setStreamLobs(boolean streamLobs) {
+        this.streamLobs = streamLobs;
+    }
+
+    public boolean isStreamLobs() {
+        return streamLobs;
+    }
+
+    /** Store BLOBs, CLOBs and binary values (e.g. BYTEA) that are longer than the threshold (in bytes or characters) in temporary files
+     *  ({@link SpilledLob}) instead of on the heap. Other than {@link #setStreamLobs(boolean)} they can still be read
+     *  after the connection is closed. The caller deletes the files with {@link DbRecord#deleteSpilledLobs()} when
+     *  the records are no longer needed (the writing exports, e.g. {@link #dumpAsNdjson(Connection, Writer, List)}, delete
+     *  them as soon as a record is written). Negative values disable it (the default). */
+    public void setLobSpillThreshold(long lobSpillThreshold) {
+        this.lobSpillThreshold = lobSpillThreshold;
+    }
+
+    public long getLobSpillThreshold() {
+        return lobSpillThreshold;
+    }
+
+    /** how many rows are deleted with one statement when deleting recursively (default: {@link RecordDeleter#DEFAULT_CHUNK_SIZE}) */
+    public void setDeleteChunkSize(int deleteChunkSize) {
+        this.deleteChunkSize = deleteChunkSize;
+    }
+
+    /** How many bytes of (off-heap) memory the keys of the visited rows of a streamed export may use (16 bytes per
+     *  slot of the hash set, it doubles when it is 3/4 full). Default: 256 MB */
+    public void setVisitedRowsMemoryCap(long visitedRowsMemoryCap) {
+        this.visitedRowsMemoryCap = visitedRowsMemoryCap;
+    }
+
+    public long getVisitedRowsMemoryCap() {
+        return visitedRowsMemoryCap;
+    }
+
+    /** Where the keys of the visited rows of a streamed export are stored (in a memory mapped temporary file) if they
+     *  exceed the memory cap. Default: null (the export fails with an IllegalStateException instead) */
+    public void setVisitedRowsOverflowDirectory(Path visitedRowsOverflowDirectory) {
+        this.visitedRowsOverflowDirectory = visitedRowsOverflowDirectory;
+    }
+
+    public Path getVisitedRowsOverflowDirectory() {
+        return visitedRowsOverflowDirectory;
+    }
+
+    /** How many rows of a table are read with one query when dumping it (refer to {@link #dumpTables(Connection, List, CheckedFunction)}).
+     *  Default: 1000 */
+    public void setDumpPageSize(int dumpPageSize) {
+        if (dumpPageSize < 1) {
+            throw new IllegalArgumentException("The page size must be positive: " + dumpPageSize);
+        }
+        this.dumpPageSize = dumpPageSize;
+    }
+
+    public int getDumpPageSize() {
+        return dumpPageSize;
+    }
+
+    /** How many rows the driver fetches at a time when reading linked rows (and dumps), refer to {@link Statement#setFetchSize(int)}.
+     *  The statements are forward-only and read-only. On postgres autocommit is switched off while the rows are read
+     *  (otherwise the driver reads the whole result), MySQL needs <code>useCursorFetch=true</code> in the JDBC url.
+     *  Default: 0 (the default of the driver) */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /** Follow the rows that link to a row in chunks of this size while they are read (instead of after reading all of them).
+     *  With the streaming exports (refer to {@link #contentAsRowStream(Connection, CheckedFunction, String, Object...)})
+     *  only a chunk is in memory, so an fk with millions of rows does not need to fit into the heap. The result set
+     *  stays open while the chunk is followed, so the driver must support several open result sets per connection.
+     *  Default: 0 (all rows of an fk are read before they are followed) */
+    public void setFanoutChunkSize(int fanoutChunkSize) {
+        this.fanoutChunkSize = fanoutChunkSize;
+    }
+
+    public int getFanoutChunkSize() {
+        return fanoutChunkSize;
+    }
+
+    /** Above how many keys of one table the rows are not read (refer to {@link #contentAsDelta(Connection, DbRecord, Map)})
+     *  or deleted (refer to {@link #deleteRecursively(Connection, String, Object...)}) with chunked IN lists, but the keys
+     *  are loaded into a session temporary table (with COPY on postgres, otherwise batched) and the rows are selected
+     *  or deleted with one statement that joins it. Only for postgres, H2, MySQL and SQL Server.
+     *  Default: 10000, {@link Integer#MAX_VALUE} to disable it */
+    public void setTempTableKeyThreshold(int tempTableKeyThreshold) {
+        this.tempTableKeyThreshold = tempTableKeyThreshold;
+    }
+
+    public int getTempTableKeyThreshold() {
+        return tempTableKeyThreshold;
+    }
+
+    /** Streaming exports ({@link #contentAsRowStream(Connection, CheckedFunction, String, Object...)} and the methods
+     *  based on it, {@link #subsetAsGraph(Connection, Writer, String, Iterable)}) read the rows level by level: the linked
+     *  rows of all rows of a table and level are read together per fk (with IN lists or, above
+     *  {@link #setTempTableKeyThreshold(int)} keys, with a join on a temporary table of the keys). So large exports
+     *  (e.g. all rows of a tenant) need a few queries per fk instead of one per row and fk. Default: false */
+    public void setLevelWise(boolean levelWise) {
+        this.levelWise = levelWise;
+    }
+
+    public boolean isLevelWise() {
+        return levelWise;
+    }
+
 
     /**
      * Get only the cache entries that are excluded by the stopTablesExcluded
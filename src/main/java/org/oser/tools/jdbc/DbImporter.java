@@ -9,9 +9,12 @@ import lombok.Getter;
 import lombok.ToString;
 import org.oser.tools.jdbc.spi.pkgenerator.NextValuePkGenerator;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.sql.Blob;
 import java.sql.Connection;
@@ -19,9 +22,12 @@ import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -29,6 +35,11 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -65,20 +76,26 @@ public class DbImporter implements FkCacheAccessor {
      */
     private final Map<String, FieldImporter> typeFieldImporters = new HashMap<>();
 
+    /** the default importer of postgres BYTEA values (refer to {@link PostgresCopy#canCopy(DbImporter, List)}, COPY can replace it) */
+    static final FieldImporter BYTEA_IMPORTER = (tableName, metadata, statement, insertIndex, value ) -> {
+        if (value instanceof LobValue) {
+            JdbcHelpers.setLobStatementField(statement, insertIndex, (LobValue) value);
+        } else if (value != null) {
+            InputStream inputStream = new ByteArrayInputStream( JdbcHelpers.valueToByteArray(value));
+            statement.setBinaryStream(insertIndex, inputStream);
+        } else {
+            statement.setArray(insertIndex, null);
+        }
+        return true;
+    };
+
     {
-        FieldImporter postgresImporter = (tableName, metadata, statement, insertIndex, value ) -> {
-            if (value != null) {
-                InputStream inputStream = new ByteArrayInputStream( JdbcHelpers.valueToByteArray(value));
-                statement.setBinaryStream(insertIndex, inputStream);
-            } else {
-                statement.setArray(insertIndex, null);
-            }
-            return true;
-        };
-        typeFieldImporters.put("BYTEA", postgresImporter);
+        typeFieldImporters.put("BYTEA", BYTEA_IMPORTER);
 
         FieldImporter blobImporter = (tableName, metadata, statement, insertIndex, value ) -> {
-            if (value != null) {
+            if (value instanceof LobValue) {
+                JdbcHelpers.setLobStatementField(statement, insertIndex, (LobValue) value);
+            } else if (value != null) {
                 Blob blob = statement.getConnection().createBlob();
 
                 blob.setBytes(1, JdbcHelpers.valueToByteArray(value));
@@ -96,6 +113,14 @@ public class DbImporter implements FkCacheAccessor {
     /** with cycles in the FKs we would throw an exception - we can try inserting what we can anyway */
     private boolean ignoreFkCycles = false;
 
+    private int maxPendingRecords = StreamingJsonImport.DEFAULT_MAX_PENDING_RECORDS;
+
+    private int parsingThreads = Runtime.getRuntime().availableProcessors();
+
+    private ImportStrategy importStrategy = ImportStrategy.ROW_BY_ROW;
+
+    private int batchSize = 1000;
+
     private static List<Map.Entry<String, JsonNode>> getCompositeJsonElements(JsonNode json) {
         Iterable<Map.Entry<String, JsonNode>> iterable = json::fields;
         return StreamSupport
@@ -157,13 +182,56 @@ public class DbImporter implements FkCacheAccessor {
 
     /** Convert JsonNode to Record */
     public DbRecord jsonToRecord(Connection connection, String rootTable, JsonNode json) throws SQLException {
+        return jsonToRecord(connection, null, rootTable, json);
+    }
+
+    /**
+     * Convert jsonString to record without a db connection: the metadata is taken from the schemaSnapshot
+     * (it is also added to the metadata caches of this importer).
+     * @throws IllegalArgumentException if the rootTable is not in the schemaSnapshot
+     */
+    public DbRecord jsonToRecord(SchemaSnapshot schemaSnapshot, String rootTable, String jsonString) throws IOException, SQLException {
+        if (jsonString == null || jsonString.isEmpty()){
+            throw new IllegalArgumentException("JSON string is null or empty.");
+        }
+        return jsonToRecord(schemaSnapshot, rootTable, DbRecord.getObjectMapper().readTree(jsonString));
+    }
+
+    /** Refer to {@link #jsonToRecord(SchemaSnapshot, String, String)} */
+    public DbRecord jsonToRecord(SchemaSnapshot schemaSnapshot, String rootTable, JsonNode json) throws SQLException {
+        schemaSnapshot.assertContainsTable(rootTable);
+        useSchemaSnapshot(schemaSnapshot);
+        return jsonToRecord(null, schemaSnapshot.getDbProductName(), rootTable, json);
+    }
+
+    /** @param connection can be null if the caches hold the metadata of all tables (the dbProductName must then be set) */
+    private DbRecord jsonToRecord(Connection connection, String dbProductName, String rootTable, JsonNode json) throws SQLException {
+        DbRecord dbRecord = jsonFieldsToRecord(connection, rootTable, json);
+
+        // treat subtables
+        if (getCompositeJsonElements(json).isEmpty()) {
+            return dbRecord;
+        }
+        String productName = dbProductName != null ? dbProductName : connection.getMetaData().getDatabaseProductName();
+        for (Fk fk : getFksOfTable(connection, rootTable, fkCache)) {
+            treatOneFk(connection, productName, json, dbRecord, fk);
+        }
+
+        return dbRecord;
+    }
+
+    /**
+     * Convert the fields of a JsonNode to a Record (without the subtables)
+     * @param connection can be null if the caches hold the metadata of the table
+     */
+    DbRecord jsonFieldsToRecord(Connection connection, String rootTable, JsonNode json) throws SQLException {
         if (pkCache.getIfPresent(rootTable) == null) {
             JdbcHelpers.assertTableExists(connection, rootTable);
         }
 
         DbRecord dbRecord = new DbRecord(rootTable, null);
 
-        DatabaseMetaData metadata = connection.getMetaData();
+        DatabaseMetaData metadata = connection != null ? connection.getMetaData() : null;
         Map<String, JdbcHelpers.ColumnMetadata> columns = JdbcHelpers.getColumnMetadata(metadata, rootTable, metadataCache);
         List<String> pks = JdbcHelpers.getPrimaryKeys(metadata, rootTable, pkCache);
 
@@ -193,24 +261,16 @@ public class DbImporter implements FkCacheAccessor {
         }
         dbRecord.setPkValue(primaryKeyValues);
 
-        // treat subtables
-        if (getCompositeJsonElements(json).isEmpty()) {
-            return dbRecord;
-        }
-        for (Fk fk : getFksOfTable(connection, rootTable, fkCache)) {
-            treatOneFk(connection, json, dbRecord, metadata, fk);
-        }
-
         return dbRecord;
     }
 
-    private void treatOneFk(Connection connection, JsonNode json, DbRecord dbRecord, DatabaseMetaData metadata, Fk fk) throws SQLException {
+    private void treatOneFk(Connection connection, String dbProductName, JsonNode json, DbRecord dbRecord, Fk fk) throws SQLException {
         String[] elementPkName = fk.isInverted() ? fk.getFkcolumn() : fk.getPkcolumn();
         List<DbRecord.FieldAndValue> elementsWithName = Stream.of(elementPkName).map(dbRecord::findElementWithName).map(Optional::ofNullable)
                 .flatMap(Optional::stream).collect(toList());
 
         if (!elementsWithName.isEmpty()) {
-            String subTableName = Fk.getSubtableName(fk, metadata.getDatabaseProductName());
+            String subTableName = Fk.getSubtableName(fk, dbProductName);
 
             JsonNode subJsonNode = json.get(elementsWithName.get(0).getName().toLowerCase() + JSON_SUBTABLE_SUFFIX  + subTableName + JSON_SUBTABLE_SUFFIX);
             ArrayList<DbRecord> dbRecords = new ArrayList<>();
@@ -224,11 +284,11 @@ public class DbImporter implements FkCacheAccessor {
                     Iterator<JsonNode> elements = subJsonNode.elements();
 
                     while (elements.hasNext()) {
-                        DbRecord subrecord = this.jsonToRecord(connection, subTableName, elements.next());
+                        DbRecord subrecord = this.jsonToRecord(connection, dbProductName, subTableName, elements.next());
                         dbRecords.add(subrecord);
                     }
                 } else if (subJsonNode.isObject()) {
-                    dbRecords.add(this.jsonToRecord(connection, subTableName, subJsonNode));
+                    dbRecords.add(this.jsonToRecord(connection, dbProductName, subTableName, subJsonNode));
                 }
             }
 
@@ -269,11 +329,183 @@ public class DbImporter implements FkCacheAccessor {
      * Will insert just partial data (the first tables without cycles).
      */
     public Map<RowLink, Remap> insertRecords(Connection connection, DbRecord dbRecord) throws SQLException {
-        Map<RowLink, Remap> newKeys = new HashMap<>();
+        Map<RowLink, Remap> newKeys = new KeyRemaps();
 
         return insertRecords(connection, dbRecord, newKeys);
     }
 
+    /**
+     * Insert a JSON document (as exported with {@link DbExporter}) while it is parsed, without holding the whole document in memory.
+     * Records are inserted as soon as the rows they link to are inserted, the others are kept
+     * (and spilled to temporary files if there are more than {@link #setMaxPendingRecords(int)}) and inserted at the end.
+     * Refer to {@link #insertRecords(Connection, DbRecord, Map)} for the newKeys.
+     * @return the remapped keys (RowLink -> new primary key)
+     */
+    public Map<RowLink, Remap> insertJsonStream(Connection connection, String rootTable, InputStream json, Map<RowLink, Remap> newKeys) throws SQLException, IOException {
+        return new StreamingJsonImport(this, connection, newKeys).importJson(rootTable, json);
+    }
+
+    /** Refer to {@link #insertJsonStream(Connection, String, InputStream, Map)} */
+    public Map<RowLink, Remap> insertJsonStream(Connection connection, String rootTable, InputStream json) throws SQLException, IOException {
+        return insertJsonStream(connection, rootTable, json, new KeyRemaps());
+    }
+
+    /**
+     * Insert a document in the normalized graph format (as written by {@link DbExporter#contentAsGraph(Connection, Writer, String, Object...)}).
+     * Its rows are already in insertion order: they are inserted while the document is parsed (without determining the
+     * insertion order again). Refer to {@link #insertRecords(Connection, DbRecord, Map)} for the newKeys.
+     * @return the remapped keys (RowLink -> new primary key)
+     */
+    public Map<RowLink, Remap> insertGraph(Connection connection, Reader graphJson, Map<RowLink, Remap> newKeys) throws SQLException, IOException {
+        GraphJson.insert(this, connection, graphJson, newKeys);
+        return newKeys;
+    }
+
+    /** Refer to {@link #insertGraph(Connection, Reader, Map)} */
+    public Map<RowLink, Remap> insertGraph(Connection connection, Reader graphJson) throws SQLException, IOException {
+        return insertGraph(connection, graphJson, new KeyRemaps());
+    }
+
+    /**
+     * Insert a dump of whole tables in NDJSON (as written by {@link DbExporter#dumpAsNdjson(Connection, Writer, List)}):
+     * one row per line, the lines are already in insertion order. The rows are inserted in batches of the same table
+     * (also with {@link ImportStrategy#ROW_BY_ROW}, that is treated like {@link ImportStrategy#JDBC_BATCH}), the keys are
+     * remapped across all rows. Refer to {@link #insertRecords(Connection, DbRecord, Map)} for the newKeys.
+     * @return the remapped keys (RowLink -> new primary key)
+     */
+    public Map<RowLink, Remap> insertDump(Connection connection, Reader ndjson, Map<RowLink, Remap> newKeys) throws SQLException, IOException {
+        ObjectMapper mapper = DbRecord.getObjectMapper();
+        BufferedReader reader = ndjson instanceof BufferedReader ? (BufferedReader) ndjson : new BufferedReader(ndjson);
+        long[] lineNumber = {0};
+        return insertDumpRows(connection, newKeys, () -> {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber[0]++;
+                if (!line.isBlank()) {
+                    JsonNode json = mapper.readTree(line);
+                    String tableName = json.path("_metadata").path("rootTable").asText(null);
+                    if (tableName == null) {
+                        throw new IllegalArgumentException("Line " + lineNumber[0] + " of the dump has no _metadata.rootTable");
+                    }
+                    return jsonFieldsToRecord(connection, tableName, json);
+                }
+            }
+            return null;
+        });
+    }
+
+    /** Refer to {@link #insertDump(Connection, Reader, Map)} */
+    public Map<RowLink, Remap> insertDump(Connection connection, Reader ndjson) throws SQLException, IOException {
+        return insertDump(connection, ndjson, new KeyRemaps());
+    }
+
+    /**
+     * Insert a dump of whole tables in the binary format (as written by {@link DbExporter#dumpAsBinary(Connection, java.io.OutputStream, List)}),
+     * like {@link #insertDump(Connection, Reader, Map)}. The input stream is not closed.
+     * @return the remapped keys (RowLink -> new primary key)
+     */
+    public Map<RowLink, Remap> insertDump(Connection connection, InputStream binary, Map<RowLink, Remap> newKeys) throws SQLException, IOException {
+        BinaryRecordReader reader = new BinaryRecordReader(binary, connection);
+        return insertDumpRows(connection, newKeys, reader::read);
+    }
+
+    /** Refer to {@link #insertDump(Connection, InputStream, Map)} */
+    public Map<RowLink, Remap> insertDump(Connection connection, InputStream binary) throws SQLException, IOException {
+        return insertDump(connection, binary, new KeyRemaps());
+    }
+
+    private Map<RowLink, Remap> insertDumpRows(Connection connection, Map<RowLink, Remap> newKeys, DumpRows rows) throws SQLException, IOException {
+        BulkInsert bulkInsert = new BulkInsert(this, connection, newKeys);
+        DbRecord row;
+        while ((row = rows.next()) != null) {
+            bulkInsert.add(row);
+        }
+        bulkInsert.flush();
+        return newKeys;
+    }
+
+    /** the rows of a dump (in insertion order) */
+    private interface DumpRows {
+        /** @return the next row or null at the end */
+        DbRecord next() throws SQLException, IOException;
+    }
+
+    /** Refer to {@link #insertNdjson(Connection, String, Reader, long, long)}, inserts all lines */
+    public long insertNdjson(Connection connection, String defaultRootTable, Reader ndjson) throws SQLException, IOException {
+        return insertNdjson(connection, defaultRootTable, ndjson, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Insert NDJSON content (as written by {@link DbExporter#contentAsNdjson(Connection, String, Iterable, Writer)}): one root record per line.
+     * The lines are read as a stream and parsed on {@link #setParsingThreads(int)} threads (with a bounded number of lines in memory),
+     * they are inserted one after the other (in the order of the lines). <p>
+     * To restart an import or to split it (e.g. across machines), use firstLine and maxLines. Empty lines are skipped (but counted).
+     * @param defaultRootTable the root table of lines without _metadata.rootTable
+     * @param firstLine the (0-based) number of the first line to insert, the lines before are skipped
+     * @param maxLines the maximal number of lines to treat
+     * @return the number of inserted records (lines)
+     */
+    public long insertNdjson(Connection connection, String defaultRootTable, Reader ndjson, long firstLine, long maxLines) throws SQLException, IOException {
+        ObjectMapper mapper = DbRecord.getObjectMapper();
+        BufferedReader reader = ndjson instanceof BufferedReader ? (BufferedReader) ndjson : new BufferedReader(ndjson);
+
+        ExecutorService executor = parsingThreads > 1 ? Executors.newFixedThreadPool(parsingThreads) : null;
+        Deque<NdjsonLine> inFlight = new ArrayDeque<>();
+        long inserted = 0;
+        try {
+            long lineNumber = 0;
+            String line;
+            while (lineNumber - firstLine < maxLines && (line = reader.readLine()) != null) {
+                if (lineNumber >= firstLine && !line.isBlank()) {
+                    String lineToParse = line;
+                    FutureTask<JsonNode> json = new FutureTask<>(() -> mapper.readTree(lineToParse));
+                    if (executor != null) {
+                        executor.execute(json);
+                    } else {
+                        json.run();
+                    }
+                    inFlight.add(new NdjsonLine(lineNumber, json));
+                }
+                lineNumber++;
+
+                if (inFlight.size() >= 2 * parsingThreads) {
+                    inserted += insertNdjsonLine(connection, defaultRootTable, inFlight.poll());
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                inserted += insertNdjsonLine(connection, defaultRootTable, inFlight.poll());
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        return inserted;
+    }
+
+    private int insertNdjsonLine(Connection connection, String defaultRootTable, NdjsonLine line) throws SQLException, IOException {
+        JsonNode json;
+        try {
+            json = line.json().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing line " + line.lineNumber(), e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not parse line " + line.lineNumber(), e.getCause());
+        }
+
+        String rootTable = json.path("_metadata").path("rootTable").asText(defaultRootTable);
+        try {
+            insertRecords(connection, jsonToRecord(connection, rootTable, json));
+        } catch (SQLException e) {
+            throw new SQLException("Could not insert line " + line.lineNumber() + ": " + e.getMessage(), e.getSQLState(), e);
+        }
+        return 1;
+    }
+
+    private record NdjsonLine(long lineNumber, Future<JsonNode> json) {
+    }
+
     /** Holds the pkField and the position within the PK (0-based). The latter is important if the PK has multiple fields */
     @AllArgsConstructor
     @ToString
@@ -291,6 +523,16 @@ public class DbImporter implements FkCacheAccessor {
     public Map<RowLink, Remap> insertRecords(Connection connection, DbRecord dbRecord, Map<RowLink, Remap> newKeys) throws SQLException {
         Set<RowLink> rowLinksNotToInsert = newKeys.keySet();
 
+        if (importStrategy != ImportStrategy.ROW_BY_ROW) {
+            BulkInsert bulkInsert = new BulkInsert(this, connection, newKeys);
+            dbRecord.visitRecordsInInsertionOrder(connection, r -> {
+                bulkInsert.add(r);
+                return null;
+            }, !ignoreFkCycles, fkCache);
+            bulkInsert.flush();
+            return newKeys;
+        }
+
         CheckedFunction<DbRecord, Void> insertOneRecord = (DbRecord r) -> {
             if (!rowLinksNotToInsert.contains(r.getRowLink())) {
                 this.insertOneRecord(connection, r, newKeys);
@@ -302,7 +544,35 @@ public class DbImporter implements FkCacheAccessor {
         return newKeys;
     }
 
-    private void insertOneRecord(Connection connection, DbRecord dbRecord, Map<RowLink, Remap> newKeys) throws SQLException {
+    void insertOneRecord(Connection connection, DbRecord dbRecord, Map<RowLink, Remap> newKeys) throws SQLException {
+        RowToInsert row = prepareRow(connection, dbRecord, newKeys, null);
+        if (row == null) {
+            return;
+        }
+
+        PreparedStatement savedStatement = null;
+        try (PreparedStatement statement = connection.prepareStatement(row.getSqlStatement().getStatement())) {
+            setRowValues(statement, row);
+
+            savedStatement = statement;
+            int optionalUpdateCount = statement.executeUpdate();
+
+            Loggers.logChangeStatement(statement, row.getSqlStatement().getStatement(), row.getValues(), optionalUpdateCount);
+
+        } catch (SQLException e) {
+            Loggers.logChangeStatement(savedStatement, row.getSqlStatement().getStatement(), row.getValues(), 0);
+            Loggers.LOGGER_WARNING.info("issue with statement: {} ", savedStatement);
+
+            throw e;
+        }
+    }
+
+    /**
+     * Determine the statement and the values to insert (or update) a record. Remaps the primary key if needed (and adds it to newKeys).
+     * @param bulkInsert null or the bulk insert that will insert the row (it knows the rows that are not yet in the db)
+     * @return null if there is nothing to change
+     */
+    RowToInsert prepareRow(Connection connection, DbRecord dbRecord, Map<RowLink, Remap> newKeys, BulkInsert bulkInsert) throws SQLException {
         List<String> primaryKeys = dbRecord.getPkNames();
 
         // todo : bug sometimes the optionalFk is not correct on record (e.g. on node)
@@ -314,7 +584,16 @@ public class DbImporter implements FkCacheAccessor {
 
         List<Object> newPkValues = remapPrimaryKeyValues(dbRecord, newKeys, primaryKeys, fksByColumnName, isFreePk);
 
-        boolean entryExists = JdbcHelpers.doesRowWithPrimaryKeysExist(connection, dbRecord.getRowLink().getTableName(), primaryKeys, newPkValues, dbRecord.getColumnMetadata());
+        // an upsert does not need to know whether the row exists (and never remaps as forceInsert is false)
+        boolean upsert = bulkInsert != null && bulkInsert.isUpsert() && !primaryKeys.isEmpty();
+        boolean entryExists;
+        if (upsert) {
+            entryExists = false;
+        } else if (bulkInsert != null) {
+            entryExists = bulkInsert.doesRowExist(dbRecord, newPkValues);
+        } else {
+            entryExists = JdbcHelpers.doesRowWithPrimaryKeysExist(connection, dbRecord.getRowLink().getTableName(), primaryKeys, newPkValues, dbRecord.getColumnMetadata());
+        }
         boolean isInsert = forceInsert || !entryExists;
 
         Object candidatePk;
@@ -325,6 +604,9 @@ public class DbImporter implements FkCacheAccessor {
                 if (isFreePk.get(i)) {
                     DbRecord.FieldAndValue pkFieldWithValue = dbRecord.findElementWithName(primaryKeys.get(i));
                     candidatePk = getCandidatePk(connection, dbRecord.getRowLink().getTableName(), pkFieldWithValue.getMetadata().type, primaryKeys.get(i));
+                    if (bulkInsert != null) {
+                        candidatePk = bulkInsert.notYetUsedPk(dbRecord.getRowLink().getTableName(), i, newPkValues, candidatePk);
+                    }
 
                     newKeys.put(dbRecord.getRowLink(), new Remap(candidatePk, i));
 
@@ -343,63 +625,76 @@ public class DbImporter implements FkCacheAccessor {
 
         // special case: if the entry needs updating and there are no other fields to set, we are done
         if (!isInsert && (fieldNames.size() == primaryKeys.size())) {
-            return;
+            return null;
         }
 
         Map<String, JdbcHelpers.ColumnMetadata> columnMetadata = dbRecord.getColumnMetadata();
-        JdbcHelpers.SqlChangeStatement sqlStatement = JdbcHelpers.getSqlInsertOrUpdateStatement(dbRecord.getRowLink().getTableName(), fieldNames, dbRecord.getPkNames(), isInsert, columnMetadata);
-        PreparedStatement savedStatement = null;
-        Map<String, Object> insertedValues = new HashMap<>();
-        try (PreparedStatement statement = connection.prepareStatement(sqlStatement.getStatement())) {
-            final Object[] valueToInsert = {"-"};
-
-            for (String currentFieldName : fieldNames) {
-                DbRecord.FieldAndValue currentElement = dbRecord.findElementWithName(currentFieldName);
-                valueToInsert[0] = prepareStringTypeToInsert(currentElement.getMetadata().type, currentElement.getValue());
-
-                boolean fieldIsPk = primaryKeys.stream().map(String::toLowerCase).anyMatch(e -> currentFieldName.toLowerCase().equals(e));
-
-                if (fieldIsPk) {
-                    valueToInsert[0] = Objects.toString(newPkValues.get(JdbcHelpers.getStringIntegerMap(primaryKeys).get(currentFieldName.toLowerCase())));
-                } else if (isInsert && fksByColumnName.containsKey(currentFieldName)) {
-                    // remap fks!
-                    List<Fk> fks = fksByColumnName.get(currentFieldName);
-
-                    Object earlierIntendedFk = valueToInsert[0];
-                    fks.forEach(fk -> {
-                        Remap potentialNewValue = newKeys.get(new RowLink(fk.getPktable(), earlierIntendedFk));
-                        valueToInsert[0] = potentialNewValue != null ? Objects.toString(potentialNewValue.getPkField()) : valueToInsert[0];
-                    });
-                }
-
-                int statementPosition = sqlStatement.getFields().indexOf(currentFieldName.toLowerCase()) + 1;
-
-                valueToInsert[0] = removeQuotes(valueToInsert[0]);
-
-                FieldImporter fieldImporter = getFieldImporter(dbRecord.getRowLink().getTableName(), currentFieldName);
-                boolean bypassNormalInsertion = false;
-                insertedValues.put(currentElement.getName(), valueToInsert[0]);
-                if (fieldImporter != null) {
-                    bypassNormalInsertion = fieldImporter.importField(dbRecord.getRowLink().getTableName(), currentElement.getMetadata(), statement, statementPosition, valueToInsert[0]);
-                }
-                if (!bypassNormalInsertion) {
-                    JdbcHelpers.innerSetStatementField(statement, statementPosition, currentElement.getMetadata(), valueToInsert[0], typeFieldImporters);
+        JdbcHelpers.SqlChangeStatement sqlStatement = upsert ?
+                JdbcHelpers.getSqlUpsertStatement(bulkInsert.getDbProductName(), dbRecord.getRowLink().getTableName(), fieldNames, dbRecord.getPkNames(), columnMetadata) :
+                JdbcHelpers.getSqlInsertOrUpdateStatement(dbRecord.getRowLink().getTableName(), fieldNames, dbRecord.getPkNames(), isInsert, columnMetadata);
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (String currentFieldName : fieldNames) {
+            DbRecord.FieldAndValue currentElement = dbRecord.findElementWithName(currentFieldName);
+            Object valueToInsert = prepareStringTypeToInsert(currentElement.getMetadata().type, currentElement.getValue());
+
+            boolean fieldIsPk = primaryKeys.stream().map(String::toLowerCase).anyMatch(e -> currentFieldName.toLowerCase().equals(e));
+
+            if (fieldIsPk) {
+                valueToInsert = Objects.toString(newPkValues.get(JdbcHelpers.getStringIntegerMap(primaryKeys).get(currentFieldName.toLowerCase())));
+            } else if (isInsert && fksByColumnName.containsKey(currentFieldName)) {
+                // remap fks!
+                List<Fk> fks = fksByColumnName.get(currentFieldName);
+
+                Object earlierIntendedFk = valueToInsert;
+                for (Fk fk : fks) {
+                    Object potentialNewValue = KeyRemaps.getNewPk(newKeys, fk.getPktable(), earlierIntendedFk);
+                    valueToInsert = potentialNewValue != null ? Objects.toString(potentialNewValue) : valueToInsert;
                 }
             }
 
-            savedStatement = statement;
-            int optionalUpdateCount = statement.executeUpdate();
+            values.put(currentElement.getName(), removeQuotes(valueToInsert));
+        }
 
-            Loggers.logChangeStatement(statement, sqlStatement.getStatement(), insertedValues, optionalUpdateCount);
+        return new RowToInsert(dbRecord, newPkValues, isInsert && !upsert, sqlStatement, values);
+    }
 
-        } catch (SQLException e) {
-            Loggers.logChangeStatement(savedStatement, sqlStatement.getStatement(), insertedValues, 0);
-            Loggers.LOGGER_WARNING.info("issue with statement: {} ", savedStatement);
+    /** set the values of a row on the statement (with the FieldImporters) */
+    void setRowValues(PreparedStatement statement, RowToInsert row) throws SQLException {
+        setRowValues(statement, row, 0);
+    }
 
-            throw e;
+    /** @param offset the number of statement parameters before the ones of this row (for multi-row statements) */
+    void setRowValues(PreparedStatement statement, RowToInsert row, int offset) throws SQLException {
+        String tableName = row.getDbRecord().getRowLink().getTableName();
+        for (Map.Entry<String, Object> fieldAndValue : row.getValues().entrySet()) {
+            String fieldName = fieldAndValue.getKey();
+            JdbcHelpers.ColumnMetadata metadata = row.getDbRecord().findElementWithName(fieldName).getMetadata();
+            int statementPosition = offset + row.getSqlStatement().getFields().indexOf(fieldName.toLowerCase()) + 1;
+
+            FieldImporter fieldImporter = getFieldImporter(tableName, fieldName);
+            boolean bypassNormalInsertion = false;
+            if (fieldImporter != null) {
+                bypassNormalInsertion = fieldImporter.importField(tableName, metadata, statement, statementPosition, fieldAndValue.getValue());
+            }
+            if (!bypassNormalInsertion) {
+                JdbcHelpers.innerSetStatementField(statement, statementPosition, metadata, fieldAndValue.getValue(), typeFieldImporters);
+            }
         }
     }
 
+    /** A row that is ready to be inserted (or updated): its statement and the values (after remapping the keys) */
+    @Getter
+    @AllArgsConstructor
+    static class RowToInsert {
+        private final DbRecord dbRecord;
+        private final List<Object> pkValues;
+        /** true for an insert, false for an update or upsert */
+        private final boolean insert;
+        private final JdbcHelpers.SqlChangeStatement sqlStatement;
+        /** field name -> value to insert */
+        private final Map<String, Object> values;
+    }
+
 
 
     /**
@@ -422,16 +717,18 @@ public class DbImporter implements FkCacheAccessor {
             DbRecord.FieldAndValue pkFieldWithValue = dbRecord.findElementWithName(primaryKey);
 
             // do the remapping from the newKeys
-            Remap[] potentialValueToInsert = {null};
+            Object potentialValueToInsert = null;
             if (fksByColumnName.containsKey(primaryKey.toLowerCase())) {
                 List<Fk> fks = fksByColumnName.get(primaryKey.toLowerCase());
                 // todo: fix next line: rowlink is wrong if more than 1 primary key?
-                fks.forEach(fk -> potentialValueToInsert[0] = newKeys.get(new RowLink(fk.getPktable(), pkFieldWithValue.getValue())));
+                for (Fk fk : fks) {
+                    potentialValueToInsert = KeyRemaps.getNewPk(newKeys, fk.getPktable(), pkFieldWithValue.getValue());
+                }
             }
             // if it is remapped, it is a fk from somewhere else -> so we cannot set it freely
-            isFreePk.add(potentialValueToInsert[0] == null);
+            isFreePk.add(potentialValueToInsert == null);
 
-            pkValues.add(potentialValueToInsert[0] != null ? potentialValueToInsert[0].getPkField(): pkFieldWithValue.getValue());
+            pkValues.add(potentialValueToInsert != null ? potentialValueToInsert : pkFieldWithValue.getValue());
         }
         return pkValues;
     }
@@ -455,6 +752,10 @@ public class DbImporter implements FkCacheAccessor {
         this.forceInsert = forceInsert;
     }
 
+    boolean isForceInsert() {
+        return forceInsert;
+    }
+
     public Map<String, PkGenerator> getOverriddenPkGenerators() {
         return overriddenPkGenerators;
     }
@@ -520,4 +821,58 @@ public class DbImporter implements FkCacheAccessor {
     public void setIgnoreFkCycles(boolean ignoreFkCycles) {
         this.ignoreFkCycles = ignoreFkCycles;
     }
+
+    boolean isIgnoreFkCycles() {
+        return ignoreFkCycles;
+    }
+
+    Cache<String, List<String>> getPkCache() {
+        return pkCache;
+    }
+
+    /** Add the metadata of the schemaSnapshot to the metadata caches (so it is not read from the db anymore) */
+    public void useSchemaSnapshot(SchemaSnapshot schemaSnapshot) {
+        schemaSnapshot.fillCaches(fkCache, pkCache, metadataCache);
+    }
+
+    /** how many records {@link #insertJsonStream(Connection, String, InputStream)} keeps in memory before it spills
+     * the records that cannot be inserted yet to temporary files (default: {@link StreamingJsonImport#DEFAULT_MAX_PENDING_RECORDS}) */
+    public void setMaxPendingRecords(int maxPendingRecords) {
+        this.maxPendingRecords = maxPendingRecords;
+    }
+
+    int getMaxPendingRecords() {
+        return maxPendingRecords;
+    }
+
+    /** on how many threads {@link #insertNdjson(Connection, String, Reader, long, long)} parses lines
+     *  (default: number of available processors, 1 means parsing in the calling thread) */
+    public void setParsingThreads(int parsingThreads) {
+        if (parsingThreads < 1) {
+            throw new IllegalArgumentException("Need at least 1 thread: " + parsingThreads);
+        }
+        this.parsingThreads = parsingThreads;
+    }
+
+    /** how {@link #insertRecords(Connection, DbRecord)} and {@link #insertGraph(Connection, Reader)} send the rows
+     * to the db (default: {@link ImportStrategy#ROW_BY_ROW}) */
+    public void setImportStrategy(ImportStrategy importStrategy) {
+        this.importStrategy = Objects.requireNonNull(importStrategy, "ImportStrategy must not be null");
+    }
+
+    public ImportStrategy getImportStrategy() {
+        return importStrategy;
+    }
+
+    /** how many rows of a table are sent to the db together (for the import strategies other than {@link ImportStrategy#ROW_BY_ROW}, default: 1000) */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Need a batch size of at least 1: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
 }
@@ -12,7 +12,9 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
 import java.math.BigDecimal;
 import java.sql.*;
 import java.sql.Date;
@@ -81,6 +83,24 @@ public class DbRecord {
         return dbRecord;
     }
 
+    /**
+     * Write the JSON representation (the same as {@link #asJsonNode(boolean)}) to a generator. Unlike the JsonNode, this
+     * does not hold {@link LobValue}s in memory, they are streamed in chunks.
+     */
+    public void writeJson(JsonGenerator generator, boolean withMetadata) throws IOException {
+        generator.writeStartObject();
+        for (FieldAndValue field : content) {
+            field.writeJson(generator);
+        }
+        if (withMetadata) {
+            ObjectNode metadataHolder = mapper.createObjectNode();
+            addMetadata(metadataHolder);
+            generator.writeFieldName("_metadata");
+            mapper.writeTree(generator, metadataHolder.get("_metadata"));
+        }
+        generator.writeEndObject();
+    }
+
     private void addMetadata(ObjectNode dbRecord) {
         ObjectNode metadata = mapper.createObjectNode();
         metadata.put("version", getGitVersion());
@@ -230,6 +250,17 @@ public class DbRecord {
         return toVisit.stream().flatMap(e -> e.visitRecords(visitor).stream()).collect(toSet());
     }
 
+    /** Delete the temporary files of the {@link SpilledLob} values of this record and all its sub records (they cannot
+     *  be read afterwards). Call it when the record (exported with a lobSpillThreshold) is no longer needed. */
+    public void deleteSpilledLobs() throws IOException {
+        List<SpilledLob> spilledLobs = new ArrayList<>();
+        visitRecords(r -> r.getContent().stream().map(FieldAndValue::getValue).filter(SpilledLob.class::isInstance)
+                .forEach(value -> spilledLobs.add((SpilledLob) value)));
+        for (SpilledLob spilledLob : spilledLobs) {
+            spilledLob.delete();
+        }
+    }
+
     /** visit all Records in insertion order */
     public void visitRecordsInInsertionOrder(Connection connection, CheckedFunction<DbRecord, Void> visitor, boolean exceptionWithCycles) throws SQLException {
         visitRecordsInInsertionOrder(connection, visitor, exceptionWithCycles, Caffeine.newBuilder().maximumSize(10_000).build());
@@ -237,8 +268,6 @@ public class DbRecord {
 
     /** visit all Records in insertion order */
     public void visitRecordsInInsertionOrder(Connection connection, CheckedFunction<DbRecord, Void> visitor, boolean exceptionWithCycles, Cache<String, List<Fk>> cache) throws SQLException {
-        JdbcHelpers.Pair<List<String>, Set<String>> insertionOrder = JdbcHelpers.determineOrderWithDetails(connection, rowLink.getTableName(), exceptionWithCycles, cache);
-
         Map<String, List<DbRecord>> tableToRecords = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
         visitRecords(r -> {
             if (!tableToRecords.containsKey(r.rowLink.getTableName())) {
@@ -247,9 +276,37 @@ public class DbRecord {
             tableToRecords.get(r.rowLink.getTableName()).add(r);
         });
 
+        visitRecordsInInsertionOrder(connection, rowLink.getTableName(), tableToRecords.keySet(), tableToRecords::get, visitor, exceptionWithCycles, cache);
+    }
+
+    /**
+     * visit all Records in insertion order without a db connection: the fks are taken from the schemaSnapshot
+     * @throws IllegalArgumentException if a table of the records is not in the schemaSnapshot
+     */
+    public void visitRecordsInInsertionOrder(SchemaSnapshot schemaSnapshot, CheckedFunction<DbRecord, Void> visitor, boolean exceptionWithCycles) throws SQLException {
+        for (RowLink node : getAllNodes()) {
+            schemaSnapshot.assertContainsTable(node.getTableName());
+        }
+        // the connection is not used: all fks are in the cache
+        visitRecordsInInsertionOrder(null, visitor, exceptionWithCycles, schemaSnapshot.newFkCache());
+    }
+
+    /**
+     * visit records (that are not organized as a tree) in insertion order
+     * @param rootTable the table from which the insertion order is determined
+     * @param tables the tables that have records
+     * @param recordsOfTable gets the records of a table (is called once per table, so records can be loaded lazily)
+     */
+    static void visitRecordsInInsertionOrder(Connection connection, String rootTable, Set<String> tables,
+                                             CheckedFunction<String, List<DbRecord>> recordsOfTable,
+                                             CheckedFunction<DbRecord, Void> visitor, boolean exceptionWithCycles,
+                                             Cache<String, List<Fk>> cache) throws SQLException {
+        JdbcHelpers.Pair<List<String>, Set<String>> insertionOrder = JdbcHelpers.determineOrderWithDetails(connection, rootTable, exceptionWithCycles, cache);
+
+        Set<String> treatedTables = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
         for (String tableName : insertionOrder.getLeft()) {
-            List<DbRecord> dbRecords = tableToRecords.get(tableName);
-            if (dbRecords != null) {
+            if (tables.contains(tableName) && treatedTables.add(tableName)) {
+                List<DbRecord> dbRecords = recordsOfTable.apply(tableName);
                 List<Fk> fksOfTable = Fk.getFksOfTable(connection, tableName, cache);
                 if (Fk.hasSelfLink(fksOfTable)) {
                     dbRecords = orderRecordsForInsertion(connection, dbRecords, cache);
@@ -261,8 +318,12 @@ public class DbRecord {
         }
 
         // treat entries that exist in cycles (they are not in the insertionOrder list)
-        HashSet<String> treatedTables = new HashSet<>(insertionOrder.getLeft());
-        List<DbRecord> untreated = this.getAllRecords().stream().filter(r -> !treatedTables.contains(r.getTableName())).collect(toList());
+        List<DbRecord> untreated = new ArrayList<>();
+        for (String tableName : tables) {
+            if (!treatedTables.contains(tableName)) {
+                untreated.addAll(recordsOfTable.apply(tableName));
+            }
+        }
 
         untreated = orderRecordsForInsertion(connection, untreated, cache);
         for (DbRecord dbRecord:untreated) {
@@ -365,6 +426,9 @@ public class DbRecord {
             if ("null".equals(value)) {
                 return null;
             }
+            if (value instanceof LobValue) {
+                return value; // is read when needed
+            }
             switch (metadata.type.toUpperCase()) {
                 case "BOOLEAN":
                 case "BIT": // mysql uses this for booleans
@@ -457,6 +521,50 @@ public class DbRecord {
             }
         }
 
+        /** like {@link #addToJsonNode(ObjectNode)} but writes to a generator (and streams {@link LobValue}s in chunks) */
+        void writeJson(JsonGenerator generator) throws IOException {
+            writeFieldJson(generator);
+
+            for (Map.Entry<String, List<DbRecord>> entry : subRow.entrySet()) {
+                if (entry.getValue().isEmpty()) {
+                    continue;
+                }
+                generator.writeArrayFieldStart(getSubtableKeyName(name, entry.getKey()));
+                for (DbRecord subrow : entry.getValue()) {
+                    subrow.writeJson(generator, false);
+                }
+                generator.writeEndArray();
+            }
+        }
+
+        /** write the name and the value (without the sub rows) */
+        void writeFieldJson(JsonGenerator generator) throws IOException {
+            generator.writeFieldName(name);
+            if (value instanceof LobValue) {
+                writeLob(generator, (LobValue) value);
+            } else {
+                ObjectNode node = mapper.createObjectNode();
+                putFieldToJsonNode(node);
+                mapper.writeTree(generator, node.get(name));
+            }
+        }
+
+        private static void writeLob(JsonGenerator generator, LobValue lob) throws IOException {
+            try {
+                if (lob.isCharacter()) {
+                    try (Reader reader = lob.openCharacterStream()) {
+                        generator.writeString(reader, -1);
+                    }
+                } else {
+                    try (InputStream inputStream = lob.openBinaryStream()) {
+                        generator.writeBinary(inputStream, -1); // base64 encoded chunk by chunk
+                    }
+                }
+            } catch (SQLException e) {
+                throw new IOException("could not read lob " + lob, e);
+            }
+        }
+
         private static String getSubtableKeyName(String name, String key) {
             return name + JSON_SUBTABLE_SUFFIX + key + JSON_SUBTABLE_SUFFIX;
         }
@@ -533,6 +641,17 @@ public class DbRecord {
                 } catch (SQLException throwables) {
                     throw new IllegalStateException("could not convert blob to byte[]", throwables);
                 }
+            } else if (value instanceof LobValue) {
+                LobValue lob = (LobValue) value;
+                try {
+                    if (lob.isCharacter()) {
+                        node.put(name, lob.getString());
+                    } else {
+                        node.put(name, lob.getBytes());
+                    }
+                } catch (SQLException | IOException e) {
+                    throw new IllegalStateException("could not read lob " + lob, e);
+                }
             } else if (value instanceof Timestamp) {
                 node.put(name,  DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(((Timestamp) value).toLocalDateTime()));
             } else if (value instanceof Date) {
@@ -0,0 +1,375 @@
+package org.oser.tools.jdbc;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Stores {@link DbRecord}s (without their sub records) in a temporary file instead of on the heap, for graphs that do
+ * not fit into memory (e.g. fill it with {@link DbExporter#contentToStore(Connection, DiskRecordStore, String, Object...)}). <p>
+ *
+ * The records are appended in the binary format of {@link BinaryRecordWriter} to a memory mapped file, they are
+ * indexed by their compact row key. Only the index (and the column metadata per table) is on the heap, the records
+ * are read again when they are visited, one record at a time (also by
+ * {@link #visitRecordsInInsertionOrder(Connection, CheckedFunction, boolean, Cache)}).
+ * Canonicalize the records with {@link RecordCanonicalizer#canonicalizeIds(Connection, DiskRecordStore, Cache, Cache)},
+ * compare 2 stores with {@link RecordDiff#compare(DiskRecordStore, DiskRecordStore)}. <p>
+ *
+ * Adding a record with the same {@link RowLink} again replaces it (the file is append-only, the old version stays in it).
+ * The file is deleted with {@link #close()} or at the latest when the JVM exits. Not thread safe.
+ */
+public class DiskRecordStore implements AutoCloseable {
+    private static final int MIN_SEGMENT_SIZE = 1024 * 1024;
+    private static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final Path file;
+    private final FileChannel channel;
+    /** the file is mapped in segments of growing size, a record is always in one segment */
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private int positionInLastSegment = 0;
+    private long fileSize = 0;
+
+    /** RowLink -> record number */
+    private RowKeyMap<Integer> index = new RowKeyMap<>();
+    /** per record number: segment (high 32 bits) and position in it */
+    private long[] positions = new long[1024];
+    private int[] lengths = new int[1024];
+    private int size = 0;
+
+    /** lower case table name -> its records (in insertion order) */
+    private final Map<String, TableRecords> tables = new LinkedHashMap<>();
+    private String rootTable;
+
+    /** creates the file in the default temporary directory */
+    public DiskRecordStore() throws IOException {
+        this(null);
+    }
+
+    /** @param directory where the file is created (null: the default temporary directory) */
+    public DiskRecordStore(Path directory) throws IOException {
+        file = TempFiles.create(directory, "linked-db-rows-records");
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /** Store the record (without its sub records), replaces a stored record with the same {@link RowLink} */
+    public void add(DbRecord dbRecord) throws SQLException {
+        byte[] bytes;
+        long position;
+        try {
+            bytes = BinaryRecordWriter.toBytesWithoutSubRecords(dbRecord);
+            position = append(bytes);
+        } catch (IOException e) {
+            throw new SQLException("Could not store record " + dbRecord.getRowLink() + " in " + file, e);
+        }
+
+        RowLink rowLink = dbRecord.getRowLink();
+        Integer number = index.get(rowLink.getTableName(), rowLink.getPks());
+        if (number == null) {
+            number = newRecordNumber();
+            index.put(rowLink.getTableName(), rowLink.getPks(), number);
+            tables.computeIfAbsent(rowLink.getTableName().toLowerCase(), t -> new TableRecords(dbRecord)).add(number);
+            if (rootTable == null) {
+                rootTable = rowLink.getTableName();
+            }
+        }
+        positions[number] = position;
+        lengths[number] = bytes.length;
+    }
+
+    /**
+     * Store the record as a new record, also if a record with the same {@link RowLink} (or an incomplete one) is stored:
+     * it is visited, but not indexed (not found by {@link #get(RowLink)} and {@link #contains(RowLink)})
+     */
+    void addUnindexed(DbRecord dbRecord) throws SQLException {
+        int number = newRecordNumber();
+        replace(number, dbRecord);
+        tables.computeIfAbsent(dbRecord.getTableName().toLowerCase(), t -> new TableRecords(dbRecord)).add(number);
+        if (rootTable == null) {
+            rootTable = dbRecord.getTableName();
+        }
+    }
+
+    /** Store the record and all its sub records (each without its sub records) */
+    public void addAll(DbRecord dbRecord) throws SQLException {
+        List<DbRecord> toAdd = new ArrayList<>();
+        dbRecord.visitRecords(toAdd::add);
+        for (DbRecord r : toAdd) {
+            add(r);
+        }
+    }
+
+    /** @return the record (without sub records) or null if it is not stored */
+    public DbRecord get(RowLink rowLink) throws SQLException {
+        Integer number = index.get(rowLink.getTableName(), rowLink.getPks());
+        return number != null ? read(number) : null;
+    }
+
+    public boolean contains(RowLink rowLink) {
+        return index.containsKey(rowLink.getTableName(), rowLink.getPks());
+    }
+
+    /** @return the number of records */
+    public int size() {
+        return size;
+    }
+
+    /** @return the table of the first added record (the insertion order is determined from it) */
+    public String getRootTable() {
+        return rootTable;
+    }
+
+    /** @return the tables with records (case-insensitive) */
+    public Set<String> getTables() {
+        Set<String> result = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        tables.values().forEach(t -> result.add(t.tableName));
+        return result;
+    }
+
+    /** @return the records of a table (they are all read into memory) */
+    public List<DbRecord> getRecordsOfTable(String tableName) throws SQLException {
+        TableRecords table = tables.get(tableName.toLowerCase());
+        List<DbRecord> result = new ArrayList<>();
+        if (table != null) {
+            for (int i = 0; i < table.size; i++) {
+                result.add(read(table.numbers[i]));
+            }
+        }
+        return result;
+    }
+
+    /** visit all records in the order they were added (only one record is read at a time) */
+    public void visitRecords(CheckedFunction<DbRecord, Void> visitor) throws SQLException {
+        for (int number = 0; number < size; number++) {
+            visitor.apply(read(number));
+        }
+    }
+
+    /** visit the records of a table in the order they were added (only one record is read at a time) */
+    public void visitRecordsOfTable(String tableName, CheckedFunction<DbRecord, Void> visitor) throws SQLException {
+        TableRecords table = tables.get(tableName.toLowerCase());
+        if (table != null) {
+            for (int i = 0; i < table.size; i++) {
+                visitor.apply(read(table.numbers[i]));
+            }
+        }
+    }
+
+    /**
+     * visit all records in insertion order (refer to {@link DbRecord#visitRecordsInInsertionOrder(Connection, CheckedFunction, boolean, Cache)}),
+     * only one record is read at a time. To order the records of self-linked tables and of tables in fk cycles, only
+     * their keys are held in memory.
+     */
+    public void visitRecordsInInsertionOrder(Connection connection, CheckedFunction<DbRecord, Void> visitor, boolean exceptionWithCycles,
+                                             Cache<String, List<Fk>> cache) throws SQLException {
+        visitRecordsInInsertionOrder(connection, rootTable, visitor, exceptionWithCycles, cache);
+    }
+
+    /** Like {@link #visitRecordsInInsertionOrder(Connection, CheckedFunction, boolean, Cache)}, with the insertion order determined from rootTable */
+    void visitRecordsInInsertionOrder(Connection connection, String rootTable, CheckedFunction<DbRecord, Void> visitor, boolean exceptionWithCycles,
+                                      Cache<String, List<Fk>> cache) throws SQLException {
+        visitNumbersInInsertionOrder(connection, rootTable, number -> visitor.apply(read(number)), exceptionWithCycles, cache);
+    }
+
+    /**
+     * Like {@link #visitRecordsInInsertionOrder(Connection, CheckedFunction, boolean, Cache)}, but the visitor may change
+     * the records (also their primary keys): they are stored again after the visitor.
+     */
+    void updateRecordsInInsertionOrder(Connection connection, CheckedFunction<DbRecord, Void> visitor, boolean exceptionWithCycles,
+                                       Cache<String, List<Fk>> cache) throws SQLException {
+        // the index is updated at the end (a new key can be the old key of a record that is not yet visited)
+        List<RowLink> oldKeys = new ArrayList<>();
+        List<RowLink> newKeys = new ArrayList<>();
+        List<Integer> changedNumbers = new ArrayList<>();
+        visitNumbersInInsertionOrder(connection, rootTable, number -> {
+            DbRecord dbRecord = read(number);
+            RowLink before = new RowLink(dbRecord.getRowLink());
+            visitor.apply(dbRecord);
+            replace(number, dbRecord);
+            if (!before.equals(dbRecord.getRowLink())) {
+                oldKeys.add(before);
+                newKeys.add(new RowLink(dbRecord.getRowLink()));
+                changedNumbers.add(number);
+            }
+            return null;
+        }, exceptionWithCycles, cache);
+
+        oldKeys.forEach(index::remove);
+        for (int i = 0; i < newKeys.size(); i++) {
+            index.put(newKeys.get(i), changedNumbers.get(i));
+        }
+    }
+
+    /** the record numbers in insertion order (the same order as DbRecord#visitRecordsInInsertionOrder) */
+    private void visitNumbersInInsertionOrder(Connection connection, String rootTable, CheckedFunction<Integer, Void> visitor, boolean exceptionWithCycles,
+                                              Cache<String, List<Fk>> cache) throws SQLException {
+        if (rootTable == null) {
+            return;
+        }
+        JdbcHelpers.Pair<List<String>, Set<String>> insertionOrder = JdbcHelpers.determineOrderWithDetails(connection, rootTable, exceptionWithCycles, cache);
+
+        Set<String> treatedTables = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        for (String tableName : insertionOrder.getLeft()) {
+            TableRecords table = tables.get(tableName.toLowerCase());
+            if (table != null && treatedTables.add(tableName)) {
+                List<Integer> numbers = table.recordNumbers();
+                if (Fk.hasSelfLink(Fk.getFksOfTable(connection, tableName, cache))) {
+                    numbers = orderForInsertion(connection, numbers, cache);
+                }
+                for (int number : numbers) {
+                    visitor.apply(number);
+                }
+            }
+        }
+
+        // records of tables in cycles (they are not in the insertionOrder list)
+        List<Integer> untreated = new ArrayList<>();
+        for (TableRecords table : tables.values()) {
+            if (!treatedTables.contains(table.tableName)) {
+                untreated.addAll(table.recordNumbers());
+            }
+        }
+        for (int number : orderForInsertion(connection, untreated, cache)) {
+            visitor.apply(number);
+        }
+    }
+
+    /** order records by their fk links, only their key columns are kept in memory for it */
+    private List<Integer> orderForInsertion(Connection connection, List<Integer> numbers, Cache<String, List<Fk>> cache) throws SQLException {
+        if (numbers.isEmpty()) {
+            return numbers;
+        }
+        Map<DbRecord, Integer> numberOfKeyRecord = new IdentityHashMap<>();
+        List<DbRecord> keyRecords = new ArrayList<>();
+        for (int number : numbers) {
+            DbRecord keyRecord = keyRecord(connection, read(number), cache);
+            numberOfKeyRecord.put(keyRecord, number);
+            keyRecords.add(keyRecord);
+        }
+
+        List<Integer> result = new ArrayList<>();
+        for (DbRecord keyRecord : DbRecord.orderRecordsForInsertion(connection, keyRecords, cache)) {
+            result.add(numberOfKeyRecord.get(keyRecord));
+        }
+        return result;
+    }
+
+    /** @return a copy of the record with only the columns of its primary key and of its fks */
+    private static DbRecord keyRecord(Connection connection, DbRecord dbRecord, Cache<String, List<Fk>> cache) throws SQLException {
+        Set<String> keyColumns = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        if (dbRecord.getPkNames() != null) {
+            keyColumns.addAll(dbRecord.getPkNames());
+        }
+        for (Fk fk : Fk.getFksOfTable(connection, dbRecord.getTableName(), cache)) {
+            keyColumns.addAll(Arrays.asList(fk.getPkcolumn()));
+            keyColumns.addAll(Arrays.asList(fk.getFkcolumn()));
+        }
+
+        DbRecord keyRecord = new DbRecord(dbRecord.getTableName(), dbRecord.getRowLink().getPks());
+        keyRecord.setPkNames(dbRecord.getPkNames());
+        dbRecord.getContent().stream().filter(field -> keyColumns.contains(field.getName())).forEach(keyRecord.getContent()::add);
+        return keyRecord;
+    }
+
+    /** closes and deletes the file (the store cannot be used afterwards) */
+    @Override
+    public void close() throws IOException {
+        segments.clear();
+        index = new RowKeyMap<>();
+        channel.close();
+        TempFiles.delete(file);
+    }
+
+    private void replace(int number, DbRecord dbRecord) throws SQLException {
+        try {
+            byte[] bytes = BinaryRecordWriter.toBytesWithoutSubRecords(dbRecord);
+            positions[number] = append(bytes);
+            lengths[number] = bytes.length;
+        } catch (IOException e) {
+            throw new SQLException("Could not store record " + dbRecord.getRowLink() + " in " + file, e);
+        }
+    }
+
+    private DbRecord read(int number) throws SQLException {
+        long position = positions[number];
+        byte[] bytes = new byte[lengths[number]];
+        segments.get((int) (position >>> 32)).get((int) position, bytes);
+
+        DbRecord dbRecord;
+        try {
+            dbRecord = BinaryRecordReader.fromBytes(bytes, null);
+        } catch (IOException e) {
+            throw new SQLException("Could not read record from " + file, e);
+        }
+        // the metadata of the table (the binary format only has the metadata of the columns of the record)
+        TableRecords table = tables.get(dbRecord.getTableName().toLowerCase());
+        if (table != null && table.columnMetadata != null) {
+            dbRecord.setColumnMetadata(table.columnMetadata);
+        }
+        return dbRecord;
+    }
+
+    /** @return the position of the bytes (segment and position in it) */
+    private long append(byte[] bytes) throws IOException {
+        MappedByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.capacity() - positionInLastSegment < bytes.length) {
+            int segmentSize = (int) Math.min(MAX_SEGMENT_SIZE, (long) MIN_SEGMENT_SIZE << Math.min(segments.size(), 6));
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, fileSize, Math.max(segmentSize, bytes.length));
+            segments.add(segment);
+            fileSize += segment.capacity();
+            positionInLastSegment = 0;
+        }
+        segment.put(positionInLastSegment, bytes);
+        long position = ((long) (segments.size() - 1) << 32) | positionInLastSegment;
+        positionInLastSegment += bytes.length;
+        return position;
+    }
+
+    private int newRecordNumber() {
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+        }
+        return size++;
+    }
+
+    private static class TableRecords {
+        final String tableName;
+        final Map<String, JdbcHelpers.ColumnMetadata> columnMetadata;
+        int[] numbers = new int[16];
+        int size = 0;
+
+        TableRecords(DbRecord firstRecord) {
+            tableName = firstRecord.getTableName();
+            columnMetadata = firstRecord.getColumnMetadata();
+        }
+
+        List<Integer> recordNumbers() {
+            List<Integer> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(numbers[i]);
+            }
+            return result;
+        }
+
+        void add(int number) {
+            if (size == numbers.length) {
+                numbers = Arrays.copyOf(numbers, size * 2);
+            }
+            numbers[size++] = number;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
@@ -34,7 +35,9 @@ import static org.oser.tools.jdbc.JdbcHelpers.adaptCaseForDb;
  * Supports virtual foreign keys (that do not exist in the db).
  */
 @Getter
-public class Fk {
+public class Fk implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private String pktable;
     @Setter
     private String[] pkcolumn;
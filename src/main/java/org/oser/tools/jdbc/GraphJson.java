@@ -0,0 +1,306 @@
+package org.oser.tools.jdbc;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Normalized (graph) JSON format of linked db rows: each row is contained exactly once (without sub records), the rows
+ * are already in insertion order. Example:
+ * <pre>
+ * {"_metadata":{"version":"...","format":"graph","rootTable":"blogpost","root":"blogpost/2"},
+ *  "tables":[{"table":"user_table","rows":[{"id":2,...}]},
+ *            {"table":"blogpost","rows":[{"id":2,"user_id":2,...}]},
+ *            {"table":"ccomment","rows":[{"id":1,"post_id":2,...}]}],
+ *  "edges":[["blogpost/2","user_table/2"],["ccomment/1","blogpost/2"]]}
+ * </pre>
+ * "tables" is a list of blocks (and not a map): the rows of a table only come in several blocks if there are
+ * cycles between tables. An edge goes from the row that holds a foreign key to the row it references
+ * (as in {@link KeyGraph}), the edges are not needed to import the rows. A subset of several roots (refer to
+ * {@link DbExporter#subsetAsGraph(Connection, java.io.Writer, String, Iterable)}) has "roots" (a list) instead of "root",
+ * a dump of whole tables (refer to {@link DbExporter#dumpAsGraph(Connection, java.io.Writer, List)}) has "dump" (the tables) and no edges.
+ */
+class GraphJson {
+    static final String FORMAT = "graph";
+
+    private GraphJson() {}
+
+    /** write the record (and all its sub records) */
+    static void write(Connection connection, DbRecord dbRecord, Cache<String, List<Fk>> fkCache, JsonGenerator generator) throws SQLException, IOException {
+        List<DbRecord> inInsertionOrder = new ArrayList<>();
+        Set<RowLink> seen = new HashSet<>();
+        dbRecord.visitRecordsInInsertionOrder(connection, r -> {
+            if (seen.add(r.getRowLink())) {
+                inInsertionOrder.add(r);
+            }
+            return null;
+        }, false, fkCache);
+
+        generator.writeStartObject();
+        writeMetadata(generator, dbRecord.getGitVersion(), dbRecord.getTableName());
+        generator.writeStringField("root", dbRecord.getRowLink().toString());
+        generator.writeEndObject();
+
+        generator.writeArrayFieldStart("tables");
+        TableBlocks tableBlocks = new TableBlocks(generator);
+        for (DbRecord row : inInsertionOrder) {
+            tableBlocks.write(row);
+        }
+        tableBlocks.end();
+
+        generator.writeArrayFieldStart("edges");
+        for (KeyGraph.Edge edge : KeyGraph.of(connection, dbRecord, fkCache).getEdges()) {
+            writeEdge(generator, edge.from(), edge.to());
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    /**
+     * write the records of a store with several roots (the metadata has "roots" instead of "root"). The rows are read
+     * per table (refer to {@link DiskRecordStore#visitRecordsInInsertionOrder(Connection, CheckedFunction, boolean, Cache)}).
+     * Only edges of foreign keys that reference the primary key of a row are written.
+     */
+    static void write(Connection connection, DiskRecordStore store, String rootTable, List<RowLink> roots,
+                      Cache<String, List<Fk>> fkCache, Cache<String, List<String>> pkCache, JsonGenerator generator) throws SQLException, IOException {
+        generator.writeStartObject();
+        writeMetadata(generator, new DbRecord(rootTable, null).getGitVersion(), rootTable);
+        generator.writeArrayFieldStart("roots");
+        for (RowLink root : roots) {
+            generator.writeString(root.toString());
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+
+        generator.writeArrayFieldStart("tables");
+        TableBlocks tableBlocks = new TableBlocks(generator);
+        store.visitRecordsInInsertionOrder(connection, r -> {
+            try {
+                tableBlocks.write(r);
+            } catch (IOException e) {
+                throw new SQLException("Could not write row " + r.getRowLink(), e);
+            }
+            return null;
+        }, false, fkCache);
+        tableBlocks.end();
+
+        generator.writeArrayFieldStart("edges");
+        DatabaseMetaData metaData = connection.getMetaData();
+        store.visitRecords(from -> {
+            for (Fk fk : Fk.getFksOfTable(connection, from.getTableName(), fkCache)) {
+                if (!fk.isInverted()) {
+                    continue; // as in KeyGraph: from the side that holds the foreign key
+                }
+                RowLink to = referencedRow(from, fk, JdbcHelpers.getPrimaryKeys(metaData, fk.getPktable(), pkCache));
+                if (to != null && store.contains(to)) {
+                    try {
+                        writeEdge(generator, from.getRowLink(), to);
+                    } catch (IOException e) {
+                        throw new SQLException("Could not write edge of " + from.getRowLink(), e);
+                    }
+                }
+            }
+            return null;
+        });
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    /**
+     * write the rows of whole tables (refer to {@link DbExporter#dumpAsGraph(Connection, java.io.Writer, List)}): the
+     * metadata has "dump" (the tables) instead of "root", there are no edges.
+     * @param dump passes the rows (in insertion order) to its argument and returns their number
+     * @return the number of rows
+     */
+    static long writeDump(List<String> tables, CheckedFunction<CheckedFunction<DbRecord, Void>, Long> dump, JsonGenerator generator) throws SQLException, IOException {
+        if (tables.isEmpty()) {
+            throw new IllegalArgumentException("No tables to dump.");
+        }
+        String rootTable = tables.get(0);
+        generator.writeStartObject();
+        writeMetadata(generator, new DbRecord(rootTable, null).getGitVersion(), rootTable);
+        generator.writeArrayFieldStart("dump");
+        for (String table : tables) {
+            generator.writeString(table);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+
+        generator.writeArrayFieldStart("tables");
+        TableBlocks tableBlocks = new TableBlocks(generator);
+        long rows = dump.apply(r -> {
+            try {
+                tableBlocks.write(r);
+            } catch (IOException e) {
+                throw new SQLException("Could not write row " + r.getRowLink(), e);
+            }
+            return null;
+        });
+        tableBlocks.end();
+        generator.writeEndObject();
+        return rows;
+    }
+
+    /** @return the row that the fk references (if it references the primary key) or null */
+    private static RowLink referencedRow(DbRecord from, Fk fk, List<String> primaryKeys) {
+        if (primaryKeys.size() != fk.getPkcolumn().length) {
+            return null;
+        }
+        List<String> lowerCasePks = primaryKeys.stream().map(String::toLowerCase).toList();
+        Object[] pks = new Object[primaryKeys.size()];
+        for (int i = 0; i < fk.getPkcolumn().length; i++) {
+            int position = lowerCasePks.indexOf(fk.getPkcolumn()[i].toLowerCase());
+            DbRecord.FieldAndValue field = from.findElementWithName(fk.getFkcolumn()[i]);
+            if (position < 0 || field == null || field.getValue() == null) {
+                return null;
+            }
+            pks[position] = field.getValue();
+        }
+        return new RowLink(fk.getPktable(), pks);
+    }
+
+    /** writes the start of the metadata object (without closing it) */
+    private static void writeMetadata(JsonGenerator generator, String version, String rootTable) throws IOException {
+        generator.writeObjectFieldStart("_metadata");
+        generator.writeStringField("version", version);
+        generator.writeStringField("format", FORMAT);
+        generator.writeStringField("rootTable", rootTable);
+    }
+
+    private static void writeEdge(JsonGenerator generator, RowLink from, RowLink to) throws IOException {
+        generator.writeStartArray();
+        generator.writeString(from.toString());
+        generator.writeString(to.toString());
+        generator.writeEndArray();
+    }
+
+    /** writes the rows in blocks per table (a new block starts when the table changes) */
+    private static class TableBlocks {
+        private final JsonGenerator generator;
+        private String currentTable = null;
+
+        TableBlocks(JsonGenerator generator) {
+            this.generator = generator;
+        }
+
+        void write(DbRecord row) throws IOException {
+            if (!row.getTableName().equals(currentTable)) {
+                endBlock();
+                currentTable = row.getTableName();
+                generator.writeStartObject();
+                generator.writeStringField("table", currentTable);
+                generator.writeArrayFieldStart("rows");
+            }
+            generator.writeStartObject();
+            for (DbRecord.FieldAndValue field : row.getContent()) {
+                field.writeFieldJson(generator);
+            }
+            generator.writeEndObject();
+        }
+
+        /** closes the last block and the tables array */
+        void end() throws IOException {
+            endBlock();
+            generator.writeEndArray();
+        }
+
+        private void endBlock() throws IOException {
+            if (currentTable != null) {
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+        }
+    }
+
+    /**
+     * Insert the rows while the document is parsed (one row, or one batch of rows for the bulk import strategies, is in
+     * memory at a time). As the rows are in insertion order,
+     * they are inserted in the order of the document (and the insertion order is not determined again).
+     * @return the number of inserted rows
+     */
+    static long insert(DbImporter importer, Connection connection, Reader json, Map<RowLink, DbImporter.Remap> newKeys) throws SQLException, IOException {
+        ObjectMapper mapper = DbRecord.getObjectMapper();
+        Set<RowLink> rowLinksNotToInsert = new HashSet<>(newKeys.keySet());
+        BulkInsert bulkInsert = importer.getImportStrategy() != ImportStrategy.ROW_BY_ROW ? new BulkInsert(importer, connection, newKeys) : null;
+        long inserted = 0;
+        try (JsonParser parser = mapper.getFactory().createParser(json)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if (key.equals("_metadata")) {
+                    JsonNode metadata = mapper.readTree(parser);
+                    if (!FORMAT.equals(metadata.path("format").asText())) {
+                        throw new IllegalArgumentException("Not a document in the graph format: " + metadata);
+                    }
+                } else if (key.equals("tables")) {
+                    expect(token, JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        inserted += insertTable(importer, connection, parser, mapper, newKeys, rowLinksNotToInsert, bulkInsert);
+                    }
+                } else {
+                    parser.skipChildren(); // e.g. the edges
+                }
+            }
+        }
+        if (bulkInsert != null) {
+            bulkInsert.flush();
+        }
+        return inserted;
+    }
+
+    /** the parser is on the start of a table block
+     * @param bulkInsert null (to insert row by row) or where to add the rows */
+    private static long insertTable(DbImporter importer, Connection connection, JsonParser parser, ObjectMapper mapper,
+                                    Map<RowLink, DbImporter.Remap> newKeys, Set<RowLink> rowLinksNotToInsert,
+                                    BulkInsert bulkInsert) throws SQLException, IOException {
+        String tableName = null;
+        long inserted = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if (key.equals("table")) {
+                tableName = parser.getText();
+            } else if (key.equals("rows")) {
+                if (tableName == null) {
+                    throw new IllegalArgumentException("The table name must come before the rows.");
+                }
+                expect(token, JsonToken.START_ARRAY);
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    DbRecord row = importer.jsonFieldsToRecord(connection, tableName, mapper.readTree(parser));
+                    if (!rowLinksNotToInsert.contains(row.getRowLink())) {
+                        if (bulkInsert != null) {
+                            bulkInsert.add(row);
+                        } else {
+                            importer.insertOneRecord(connection, row, newKeys);
+                        }
+                        inserted++;
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return inserted;
+    }
+
+    private static void expect(JsonToken token, JsonToken expected) {
+        if (token != expected) {
+            throw new IllegalArgumentException("Wrong graph document: expected " + expected + " but got " + token);
+        }
+    }
+}
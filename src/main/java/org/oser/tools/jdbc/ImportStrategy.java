@@ -0,0 +1,31 @@
+package org.oser.tools.jdbc;
+
+/**
+ * How {@link DbImporter} sends the rows to the db. Refer to {@link DbImporter#setImportStrategy(ImportStrategy)}.
+ */
+public enum ImportStrategy {
+    /** one insert (or update) statement per row */
+    ROW_BY_ROW,
+    /** the rows of a table are sent together as JDBC batches (of {@link DbImporter#setBatchSize(int)} rows) */
+    JDBC_BATCH,
+    /**
+     * the rows of a table are inserted with multi-row statements: <code>INSERT INTO t (a, b) VALUES (?, ?), (?, ?), ...</code>
+     * (as many rows per statement as the parameter limits of the db allow, at most {@link DbImporter#setBatchSize(int)}).
+     * Does not depend on the batch support of the driver. Updates and dbs without multi-row inserts (Oracle) use {@link #JDBC_BATCH}.
+     */
+    MULTI_ROW_VALUES,
+    /**
+     * the rows of a table are streamed with the postgres COPY command (needs the postgres JDBC driver).
+     * Falls back to {@link #JDBC_BATCH} for other dbs, for updates, for tables with columns that need a type cast
+     * (e.g. enums) and for columns with a {@link FieldImporter} or binary content.
+     */
+    POSTGRES_COPY,
+    /**
+     * only for {@link DbImporter#setForceInsert(boolean)} false: the rows of a table are sent as JDBC batches of
+     * dialect specific upsert statements (<code>INSERT ... ON CONFLICT DO UPDATE</code>, <code>MERGE</code> or
+     * <code>INSERT ... ON DUPLICATE KEY UPDATE</code>), so there is no query per row to check whether it exists.
+     * Falls back to {@link #JDBC_BATCH} with forceInsert true or for dbs without upsert support
+     * (refer to {@link JdbcHelpers#supportsUpsert(String)}).
+     */
+    UPSERT
+}
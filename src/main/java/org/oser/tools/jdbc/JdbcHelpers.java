@@ -9,6 +9,9 @@ import lombok.ToString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.Serializable;
 import java.math.BigDecimal;
 import java.sql.Clob;
 import java.sql.Connection;
@@ -18,6 +21,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
@@ -26,15 +30,27 @@ import java.time.LocalDateTime;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import static org.oser.tools.jdbc.Fk.getFksOfTable;
@@ -42,6 +58,9 @@ import static org.oser.tools.jdbc.Fk.getFksOfTable;
 /** Helper methods for core JDBC and JDBC metadata */
 public final class JdbcHelpers {
     private static final Logger LOGGER = LoggerFactory.getLogger(JdbcHelpers.class);
+    private static final Set<Integer> INTEGER_TYPES = Set.of(Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT);
+    /** oracle accepts at most this many elements in an IN list (ORA-01795) */
+    private static final int ORACLE_MAX_IN_LIST = 1000;
 
     private JdbcHelpers() {}
 
@@ -74,6 +93,31 @@ public final class JdbcHelpers {
         return new Pair<>(strings, treated);
     }
 
+    /**
+     * Like {@link #determineOrder(Connection, String, boolean, Cache)} for several tables (e.g. all tables of a schema):
+     * the dependencies between the tables are also followed via tables that are not in the list.
+     * @return the given tables (lower case) in the order in which to insert them, tables with cycles come at the end
+     *  (in the given order, if exceptionWithCycles is false)
+     */
+    public static List<String> determineOrder(Connection connection, Collection<String> tables, boolean exceptionWithCycles, Cache<String, List<Fk>> cache) throws SQLException {
+        Set<String> treated = new HashSet<>();
+        Map<String, Set<String>> dependencyGraph = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String table : tables) {
+            if (!treated.contains(table.toLowerCase())) {
+                initDependencyGraph(table, treated, connection, cache).forEach((key, value) ->
+                        dependencyGraph.computeIfAbsent(key, k -> new HashSet<>()).addAll(value));
+            }
+        }
+
+        Set<String> toOrder = new LinkedHashSet<>();
+        tables.forEach(t -> toOrder.add(t.toLowerCase()));
+        List<String> result = topologicalSort(dependencyGraph, treated, exceptionWithCycles).stream()
+                .filter(toOrder::contains).collect(Collectors.toList());
+        toOrder.removeAll(result);
+        result.addAll(toOrder);
+        return result;
+    }
+
     @Getter
     @AllArgsConstructor
     public static class Pair<A,B> {
@@ -90,6 +134,18 @@ public final class JdbcHelpers {
      * */
     public static <T> List<T> topologicalSort(Map<T, Set<T>> dependencyGraph, Set<T> treated, boolean exceptionWithCycles) {
         List<T> orderedTables = new ArrayList<>();
+        topologicalSortInLayers(dependencyGraph, treated, exceptionWithCycles).forEach(orderedTables::addAll);
+        return orderedTables;
+    }
+
+    /**
+     * Like {@link #topologicalSort(Map, Set, boolean)} but keeps the layers: all entries of one layer only depend on
+     * entries of earlier layers (so e.g. the rows of one layer can be inserted or deleted together).
+     * @return the layers in the order in which they can be treated
+     * @throws IllegalStateException in case of cycles if exceptionWithCycles is true
+     */
+    public static <T> List<Set<T>> topologicalSortInLayers(Map<T, Set<T>> dependencyGraph, Set<T> treated, boolean exceptionWithCycles) {
+        List<Set<T>> layers = new ArrayList<>();
 
         Set<T> stillToTreat = new HashSet<>(treated);
         while (!stillToTreat.isEmpty()) {
@@ -97,7 +153,9 @@ public final class JdbcHelpers {
             Set<T> treatedThisTime = new HashSet<>(stillToTreat);
             treatedThisTime.removeAll(dependencyGraph.keySet());
 
-            orderedTables.addAll(treatedThisTime);
+            if (!treatedThisTime.isEmpty()) {
+                layers.add(treatedThisTime);
+            }
             stillToTreat.removeAll(treatedThisTime);
 
             if (treatedThisTime.isEmpty()) {
@@ -121,7 +179,7 @@ public final class JdbcHelpers {
             dependencyGraph.keySet().forEach(key -> dependencyGraph.get(key).removeAll(treatedThisTime));
             dependencyGraph.entrySet().removeIf(e -> e.getValue().isEmpty());
         }
-        return orderedTables;
+        return layers;
     }
 
     public static <T> List<AbstractMap.SimpleEntry<RowLink, Set<RowLink>>> getDbRecordDependencyGraph(Map<T, Set<T>> dependencyGraph) {
@@ -194,11 +252,7 @@ public final class JdbcHelpers {
 
         String statement;
         if (isInsert) {
-            Map<String, ColumnMetadata> metadataInCurrentTableAndInsert = columnMetadata.entrySet().stream().filter(e -> columnNames.contains(e.getKey().toLowerCase())).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-
-            String questionsMarks = metadataInCurrentTableAndInsert.values().stream().sorted(Comparator.comparing(ColumnMetadata::getOrdinalPos))
-                    .map(JdbcHelpers::questionMarkOrTypeCasting).collect(Collectors.joining(", "));
-            statement = "INSERT INTO " + tableName + " (" + concatenatedFields + ") VALUES (" + questionsMarks + ")";
+            statement = "INSERT INTO " + tableName + " (" + concatenatedFields + ") VALUES " + insertValuesOfOneRow(columnNames, columnMetadata);
         } else {
             concatenatedFields += " = ? ";
 
@@ -218,6 +272,113 @@ public final class JdbcHelpers {
         return new SqlChangeStatement(statement, individualFields);
     }
 
+    /**
+     * generate an insert statement for numberOfRows rows with the same columns: <code>INSERT INTO t (a, b) VALUES (?, ?), (?, ?)</code>
+     * (the fields of the result are the fields of one row repeated numberOfRows times). Refer to
+     * {@link #maxRowsPerInsertStatement(String, int)} for how many rows a db accepts.
+     */
+    public static SqlChangeStatement getSqlMultiRowInsertStatement(String tableName, List<String> columnNames, int numberOfRows, Map<String, ColumnMetadata> columnMetadata) {
+        if (numberOfRows < 1) {
+            throw new IllegalArgumentException("Need at least one row, got " + numberOfRows);
+        }
+        String valuesOfOneRow = insertValuesOfOneRow(columnNames, columnMetadata);
+        String statement = "INSERT INTO " + tableName + " (" + String.join(", ", columnNames) + ") VALUES " +
+                String.join(", ", Collections.nCopies(numberOfRows, valuesOfOneRow));
+
+        List<String> fields = new ArrayList<>(columnNames.size() * numberOfRows);
+        for (int i = 0; i < numberOfRows; i++) {
+            fields.addAll(columnNames);
+        }
+        return new SqlChangeStatement(statement, fields);
+    }
+
+    /**
+     * The parameter limits: SQL Server allows 2100 parameters minus the ones of the RPC call (we use at most 2098) and
+     * 1000 rows in a VALUES clause, postgres and MySQL 65535.
+     * Oracle has no multi-row VALUES clause (before 23ai).
+     * @return how many rows with fieldsPerRow fields can be inserted with one multi-row insert statement, 0 if the db does not support it
+     */
+    public static int maxRowsPerInsertStatement(String dbProductName, int fieldsPerRow) {
+        int fields = Math.max(fieldsPerRow, 1);
+        switch (dbProductName) {
+            case "Microsoft SQL Server":
+                return Math.min(1000, 2098 / fields);
+            case "PostgreSQL":
+            case "MySQL":
+            case "H2":
+                return 65535 / fields;
+            case "Oracle":
+                return 0;
+            default:
+                return 999 / fields;
+        }
+    }
+
+    /**
+     * generate a dialect specific upsert statement (inserts the row or updates it if a row with its primary key exists):
+     * <code>INSERT ... ON CONFLICT DO UPDATE</code> (postgres), <code>INSERT ... ON DUPLICATE KEY UPDATE</code> (MySQL) or
+     * <code>MERGE</code> (H2, Oracle, SQL Server)
+     * @return the statement or null if the db is not supported (refer to {@link #supportsUpsert(String)})
+     */
+    public static SqlChangeStatement getSqlUpsertStatement(String dbProductName, String tableName, List<String> columnNames,
+                                                           List<String> pkNames, Map<String, ColumnMetadata> columnMetadata) {
+        List<String> nonPkColumns = columnNames.stream().filter(c -> isNoPrimaryKeyName(c, pkNames)).collect(Collectors.toList());
+        String fields = String.join(", ", columnNames);
+
+        String statement;
+        switch (dbProductName) {
+            case "PostgreSQL":
+                statement = "INSERT INTO " + tableName + " (" + fields + ") VALUES " + insertValuesOfOneRow(columnNames, columnMetadata) +
+                        " ON CONFLICT (" + String.join(", ", pkNames) + ") " + (nonPkColumns.isEmpty() ? "DO NOTHING" :
+                        "DO UPDATE SET " + nonPkColumns.stream().map(c -> c + " = EXCLUDED." + c).collect(Collectors.joining(", ")));
+                break;
+            case "MySQL":
+                List<String> toUpdate = nonPkColumns.isEmpty() ? pkNames : nonPkColumns;
+                statement = "INSERT INTO " + tableName + " (" + fields + ") VALUES " + insertValuesOfOneRow(columnNames, columnMetadata) +
+                        " ON DUPLICATE KEY UPDATE " + toUpdate.stream().map(c -> c + " = VALUES(" + c + ")").collect(Collectors.joining(", "));
+                break;
+            case "H2":
+                statement = "MERGE INTO " + tableName + " (" + fields + ") KEY (" + String.join(", ", pkNames) + ") VALUES " +
+                        insertValuesOfOneRow(columnNames, columnMetadata);
+                break;
+            case "Oracle":
+                statement = "MERGE INTO " + tableName + " target USING (SELECT " +
+                        columnNames.stream().map(c -> questionMarkOrTypeCasting(columnMetadata.get(c.toLowerCase())) + " " + c).collect(Collectors.joining(", ")) +
+                        " FROM DUAL) src" + mergeClauses(columnNames, pkNames, nonPkColumns);
+                break;
+            case "Microsoft SQL Server":
+                statement = "MERGE INTO " + tableName + " AS target USING (VALUES (" +
+                        columnNames.stream().map(c -> questionMarkOrTypeCasting(columnMetadata.get(c.toLowerCase()))).collect(Collectors.joining(", ")) +
+                        ")) AS src (" + fields + ")" + mergeClauses(columnNames, pkNames, nonPkColumns) + ";";
+                break;
+            default:
+                return null;
+        }
+        return new SqlChangeStatement(statement, new ArrayList<>(columnNames));
+    }
+
+    /** @return true if {@link #getSqlUpsertStatement(String, String, List, List, Map)} supports the db */
+    public static boolean supportsUpsert(String dbProductName) {
+        return Set.of("PostgreSQL", "MySQL", "H2", "Oracle", "Microsoft SQL Server").contains(dbProductName);
+    }
+
+    /** the ON, WHEN MATCHED and WHEN NOT MATCHED clauses of a standard MERGE (the source is aliased src) */
+    private static String mergeClauses(List<String> columnNames, List<String> pkNames, List<String> nonPkColumns) {
+        return " ON (" + pkNames.stream().map(pk -> "target." + pk + " = src." + pk).collect(Collectors.joining(" AND ")) + ")" +
+                (nonPkColumns.isEmpty() ? "" : " WHEN MATCHED THEN UPDATE SET " +
+                        nonPkColumns.stream().map(c -> "target." + c + " = src." + c).collect(Collectors.joining(", "))) +
+                " WHEN NOT MATCHED THEN INSERT (" + String.join(", ", columnNames) + ") VALUES (" +
+                columnNames.stream().map(c -> "src." + c).collect(Collectors.joining(", ")) + ")";
+    }
+
+    /** @return <code>(?, ?, ...)</code> for an insert statement (in the order of the column positions) */
+    private static String insertValuesOfOneRow(List<String> columnNames, Map<String, ColumnMetadata> columnMetadata) {
+        Map<String, ColumnMetadata> metadataInCurrentTableAndInsert = columnMetadata.entrySet().stream().filter(e -> columnNames.contains(e.getKey().toLowerCase())).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+
+        return metadataInCurrentTableAndInsert.values().stream().sorted(Comparator.comparing(ColumnMetadata::getOrdinalPos))
+                .map(JdbcHelpers::questionMarkOrTypeCasting).collect(Collectors.joining(", ", "(", ")"));
+    }
+
     private static boolean isNoPrimaryKeyName(String fieldName, List<String> pkNames) {
         return !pkNames.stream().anyMatch(fieldName::equalsIgnoreCase);
     }
@@ -232,12 +393,7 @@ public final class JdbcHelpers {
     }
 
     private static String questionMarkOrTypeCasting(ColumnMetadata e) {
-        if (e != null && e.columnDef != null && e.columnDef.endsWith(e.type) &&
-                // todo: make this more robust (also pluggable?)
-
-                // mysql puts CURRENT_TIMESTAMP as the columnDef of Timestamp, this leads to an automatically set fields
-                // postgres text has a ::text here
-                !(e.columnDef.equals("CURRENT_TIMESTAMP") || e.type.equals("text"))){
+        if (needsTypeCasting(e)) {
             // to handle inserts e.g. for enums correctly
             return e.columnDef.replace("'G'", "?");
         }
@@ -245,6 +401,16 @@ public final class JdbcHelpers {
         return "?";
     }
 
+    /** @return true if the value of the column is inserted with a type cast (taken from its columnDef), e.g. for postgres enums */
+    static boolean needsTypeCasting(ColumnMetadata e) {
+        return e != null && e.columnDef != null && e.columnDef.endsWith(e.type) &&
+                // todo: make this more robust (also pluggable?)
+
+                // mysql puts CURRENT_TIMESTAMP as the columnDef of Timestamp, this leads to an automatically set fields
+                // postgres text has a ::text here
+                !(e.columnDef.equals("CURRENT_TIMESTAMP") || e.type.equals("text"));
+    }
+
     public static void assertTableExists(Connection connection, String tableName) throws SQLException {
         DatabaseMetaData dbm = connection.getMetaData();
 
@@ -395,6 +561,11 @@ public final class JdbcHelpers {
             }
         }
 
+        if (valueToInsert instanceof LobValue) {
+            setLobStatementField(preparedStatement, statementIndex, (LobValue) valueToInsert);
+            return;
+        }
+
         boolean isEmpty = valueToInsert == null;
         switch (columnMetadata.type.toUpperCase()) {
             case "BOOLEAN":
@@ -437,10 +608,12 @@ public final class JdbcHelpers {
                 }
                 break;
             case "UUID":
-                if (valueToInsert == null) {
-                    preparedStatement.setObject(statementIndex, valueToInsert, Types.OTHER);
-                } else {
+                if (isEmpty) {
                     preparedStatement.setNull(statementIndex, Types.OTHER);
+                } else {
+                    // JSON has the uuid as string
+                    preparedStatement.setObject(statementIndex, valueToInsert instanceof String ?
+                            UUID.fromString(((String) valueToInsert).trim()) : valueToInsert);
                 }
                 break;
             case "CLOB":
@@ -486,6 +659,29 @@ public final class JdbcHelpers {
         }
     }
 
+    /** @return is the {@link Types} a BLOB, CLOB or NCLOB */
+    public static boolean isLob(int dataType) {
+        return dataType == Types.BLOB || dataType == Types.CLOB || dataType == Types.NCLOB;
+    }
+
+    /** @return is the {@link Types} a binary type other than BLOB (e.g. BYTEA of postgres or VARBINARY) */
+    public static boolean isBinary(int dataType) {
+        return dataType == Types.BINARY || dataType == Types.VARBINARY || dataType == Types.LONGVARBINARY;
+    }
+
+    /** Set a lob as stream (without reading it into memory first) */
+    public static void setLobStatementField(PreparedStatement preparedStatement, int statementIndex, LobValue lob) throws SQLException {
+        try {
+            if (lob.isCharacter()) {
+                preparedStatement.setCharacterStream(statementIndex, lob.openCharacterStream(), lob.length());
+            } else {
+                preparedStatement.setBinaryStream(statementIndex, lob.openBinaryStream(), lob.length());
+            }
+        } catch (IOException e) {
+            throw new SQLException("Could not read lob " + lob, e);
+        }
+    }
+
     /**
      * Represents simplified JDBC metadata about a column
      */
@@ -493,7 +689,8 @@ public final class JdbcHelpers {
     @ToString
     // for jackson serialization
     @NoArgsConstructor
-    public static class ColumnMetadata {
+    public static class ColumnMetadata implements Serializable {
+        private static final long serialVersionUID = 1L;
         private static final Set<Integer> QUOTING_DATATYPES = Set.of(Types.DATE, Types.TIMESTAMP, Types.TIME, Types.TIME_WITH_TIMEZONE, Types.TIMESTAMP_WITH_TIMEZONE,
                 Types.ARRAY, Types.BLOB, Types.CHAR, Types.CLOB, Types.DATALINK, Types.LONGNVARCHAR, Types.VARCHAR, Types.SQLXML, Types.NCHAR);
         String name;
@@ -554,15 +751,190 @@ public final class JdbcHelpers {
         return exists;
     }
 
+    /**
+     * Select statement for one page of a table in the order of its primary keys (keyset pagination): <br/>
+     * <code>SELECT * FROM t WHERE (a > ?) OR (a = ? AND b > ?) ORDER BY a, b LIMIT n</code> <br/>
+     * The first page has no WHERE clause, the parameters of the next pages are the keys of the last row of the page before
+     * (refer to {@link #setKeysetValues(PreparedStatement, List, Object[], Map)}). The limit is <code>LIMIT n</code>
+     * (postgres, MySQL, H2) or <code>OFFSET 0 ROWS FETCH NEXT n ROWS ONLY</code> (Oracle, SQL Server and others).
+     */
+    public static String keysetPageSelect(String tableName, List<String> pkNames, boolean firstPage, int pageSize, String dbProductName) {
+        return keysetPageSelect(tableName, pkNames, firstPage, pageSize, dbProductName, Collections.emptyMap());
+    }
+
+    /**
+     * As {@link #keysetPageSelect(String, List, boolean, int, String)}, the placeholders of primary keys that need a type cast
+     * (e.g. postgres enums) are cast as in inserts, e.g. <code>state > ?::mood</code>
+     */
+    public static String keysetPageSelect(String tableName, List<String> pkNames, boolean firstPage, int pageSize, String dbProductName,
+                                          Map<String, ColumnMetadata> columnMetadata) {
+        if (pkNames.isEmpty()) {
+            throw new IllegalArgumentException("Keyset pagination needs primary keys, " + tableName + " has none.");
+        }
+        StringBuilder select = new StringBuilder("SELECT * FROM ").append(tableName);
+        if (!firstPage) {
+            List<String> disjunction = new ArrayList<>();
+            for (int i = 0; i < pkNames.size(); i++) {
+                List<String> conditions = new ArrayList<>();
+                pkNames.subList(0, i).forEach(pk -> conditions.add(pk + " = " + questionMarkOrTypeCasting(columnMetadata.get(pk.toLowerCase()))));
+                conditions.add(pkNames.get(i) + " > " + questionMarkOrTypeCasting(columnMetadata.get(pkNames.get(i).toLowerCase())));
+                disjunction.add("(" + String.join(" AND ", conditions) + ")");
+            }
+            select.append(" WHERE ").append(String.join(" OR ", disjunction));
+        }
+        select.append(" ORDER BY ").append(String.join(", ", pkNames));
+
+        switch (dbProductName) {
+            case "PostgreSQL":
+            case "MySQL":
+            case "H2":
+                return select.append(" LIMIT ").append(pageSize).toString();
+            default:
+                return select.append(" OFFSET 0 ROWS FETCH NEXT ").append(pageSize).append(" ROWS ONLY").toString();
+        }
+    }
+
+    /** Set the keys of the last row of the page before on a statement of {@link #keysetPageSelect(String, List, boolean, int, String, Map)}. */
+    public static void setKeysetValues(PreparedStatement statement, List<String> pkNames, Object[] lastPkValues,
+                                       Map<String, ColumnMetadata> columnMetadata) throws SQLException {
+        int index = 1;
+        for (int i = 0; i < pkNames.size(); i++) {
+            for (int j = 0; j <= i; j++) {
+                innerSetStatementField(statement, index++, columnMetadata.get(pkNames.get(j).toLowerCase()), lastPkValues[j], null);
+            }
+        }
+    }
+
+    /**
+     * Where clause (without the WHERE) that matches numberOfRows rows by their keys. <br/>
+     * Single keys use an IN list: <code>id IN (?, ?, ?)</code>, composite keys a disjunction:
+     * <code>(a = ? AND b = ?) OR (a = ? AND b = ?)</code>
+     */
+    public static String whereClauseForKeys(List<String> keyNames, int numberOfRows) {
+        return whereClauseForKeys(keyNames, numberOfRows, Collections.emptyMap());
+    }
+
+    /**
+     * Like {@link #whereClauseForKeys(List, int)}, but with the type casts of the key columns (e.g. for postgres enums,
+     * refer to {@link #needsTypeCasting(ColumnMetadata)}) instead of plain question marks
+     */
+    public static String whereClauseForKeys(List<String> keyNames, int numberOfRows, Map<String, ColumnMetadata> columnMetadata) {
+        if (numberOfRows < 1) {
+            throw new IllegalArgumentException("Need at least one row, got " + numberOfRows);
+        }
+        if (keyNames.size() == 1) {
+            String placeholder = questionMarkOrTypeCasting(columnMetadata.get(keyNames.get(0).toLowerCase()));
+            return keyNames.get(0) + " IN (" + String.join(", ", Collections.nCopies(numberOfRows, placeholder)) + ")";
+        }
+        String oneRow = keyNames.stream().map(k -> k + " = " + questionMarkOrTypeCasting(columnMetadata.get(k.toLowerCase())))
+                .collect(Collectors.joining(" AND ", "(", ")"));
+        return String.join(" OR ", Collections.nCopies(numberOfRows, oneRow));
+    }
+
+    /**
+     * Set the key values of rows on a statement created with {@link #whereClauseForKeys(List, int, Map)}
+     * @param firstIndex the statement index of the first key value (1-based)
+     * @return the next free statement index
+     */
+    public static int setKeyValues(PreparedStatement statement, int firstIndex, List<String> keyNames, List<Object[]> rows,
+                                   Map<String, ColumnMetadata> columnMetadata) throws SQLException {
+        int index = firstIndex;
+        for (Object[] row : rows) {
+            for (int i = 0; i < keyNames.size(); i++) {
+                innerSetStatementField(statement, index++, columnMetadata.get(keyNames.get(i).toLowerCase()), row[i], null);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Like {@link #whereClauseForKeys(List, int)}, but with the same SQL for different numbers of rows, so that one
+     * prepared statement (and the plan of the db) can be reused: a single key is bound as one array on postgres and H2
+     * (<code>id = ANY(?)</code>), otherwise the number of rows is padded to the next power of two (refer to
+     * {@link #paddedNumberOfRows(int, String)}). Set the values with {@link #setKeyValues(PreparedStatement, int, List, List, Map, String)}.
+     */
+    public static String whereClauseForKeys(List<String> keyNames, int numberOfRows, String dbProductName) {
+        return whereClauseForKeys(keyNames, numberOfRows, Collections.emptyMap(), dbProductName);
+    }
+
+    /** Like {@link #whereClauseForKeys(List, int, String)}, the single values with the type casts of the key columns */
+    public static String whereClauseForKeys(List<String> keyNames, int numberOfRows, Map<String, ColumnMetadata> columnMetadata, String dbProductName) {
+        if (usesArrayForKeys(keyNames, dbProductName)) {
+            if (numberOfRows < 1) {
+                throw new IllegalArgumentException("Need at least one row, got " + numberOfRows);
+            }
+            return keyNames.get(0) + " = ANY(?)";
+        }
+        return whereClauseForKeys(keyNames, paddedNumberOfRows(numberOfRows, dbProductName), columnMetadata);
+    }
+
+    /**
+     * Set the key values of rows on a statement created with {@link #whereClauseForKeys(List, int, Map, String)}: as an array
+     * or (padded with the last row) as single values
+     * @param firstIndex the statement index of the first key value (1-based)
+     * @return the next free statement index
+     */
+    public static int setKeyValues(PreparedStatement statement, int firstIndex, List<String> keyNames, List<Object[]> rows,
+                                   Map<String, ColumnMetadata> columnMetadata, String dbProductName) throws SQLException {
+        if (usesArrayForKeys(keyNames, dbProductName)) {
+            ColumnMetadata column = columnMetadata.get(keyNames.get(0).toLowerCase());
+            Object[] values = rows.stream().map(row -> arrayElement(column, row[0])).toArray();
+            statement.setArray(firstIndex, statement.getConnection().createArrayOf(arrayElementType(column), values));
+            return firstIndex + 1;
+        }
+        List<Object[]> padded = new ArrayList<>(rows);
+        while (padded.size() < paddedNumberOfRows(rows.size(), dbProductName)) {
+            padded.add(rows.get(rows.size() - 1)); // a key twice does not change the result
+        }
+        return setKeyValues(statement, firstIndex, keyNames, padded, columnMetadata);
+    }
+
+    /** @return true if {@link #whereClauseForKeys(List, int, String)} binds the keys as one array */
+    static boolean usesArrayForKeys(List<String> keyNames, String dbProductName) {
+        return keyNames.size() == 1 && ("PostgreSQL".equals(dbProductName) || "H2".equals(dbProductName));
+    }
+
+    /** @return the next power of two (so there are only log2(chunk size) different statements) */
+    static int paddedNumberOfRows(int numberOfRows) {
+        return numberOfRows <= 1 ? numberOfRows : Integer.highestOneBit(numberOfRows - 1) << 1;
+    }
+
+    /** @return like {@link #paddedNumberOfRows(int)}, but on oracle at most 1000 (its limit for IN lists) unless there are more rows */
+    static int paddedNumberOfRows(int numberOfRows, String dbProductName) {
+        int padded = paddedNumberOfRows(numberOfRows);
+        return "Oracle".equals(dbProductName) ? Math.min(padded, Math.max(numberOfRows, ORACLE_MAX_IN_LIST)) : padded;
+    }
+
+    /** the element type for {@link Connection#createArrayOf(String, Object[])}: the column type (serial types are no array types) */
+    private static String arrayElementType(ColumnMetadata column) {
+        String type = column.getType().toLowerCase();
+        switch (type) {
+            case "serial":
+                return "int4";
+            case "bigserial":
+                return "int8";
+            case "smallserial":
+                return "int2";
+            default:
+                return type;
+        }
+    }
+
+    /** keys can come as strings (e.g. from a {@link RowLink}), integer keys are converted (strings are not converted inside an array) */
+    private static Object arrayElement(ColumnMetadata column, Object value) {
+        if (value instanceof String && RowKey.isNumeric(value) && INTEGER_TYPES.contains(column.getDataType())) {
+            return Long.parseLong((String) value);
+        }
+        return value;
+    }
+
     private static String selectStatementByPks(String tableName, List<String> primaryKeys, Map<String, JdbcHelpers.ColumnMetadata> columnMetadata) {
         String whereClause = primaryKeys.stream().map(e -> e + " = " + questionMarkOrTypeCasting(columnMetadata.get(e.toLowerCase())))
                 .collect(Collectors.joining(" AND "));
         return "SELECT * FROM " + tableName + " WHERE  " + whereClause;
     }
 
-    /** not yet very optimized <br/>
-     *
-     *   takes the current default schema */
+    /** takes the current default schema */
     public static Map<String, Integer> getNumberElementsInEachTable(Connection connection) throws SQLException {
         return getNumberElementsInEachTable(connection, connection.getSchema());
     }
@@ -584,29 +956,185 @@ public final class JdbcHelpers {
         return combined;
     }
 
-    /** not yet very optimized */
+    /** counts the rows of the tables one after the other (refer to {@link #getApproximateNumberElementsInEachTable(Connection, String)}
+     *  and {@link #getNumberElementsInEachTable(DataSource, String, int, int)} for faster variants) */
     public static Map<String, Integer> getNumberElementsInEachTable(Connection connection, String schema) throws SQLException {
         Map<String, Integer> result = new HashMap<>();
         schema = adaptCaseForDb(schema, connection.getMetaData().getDatabaseProductName());
+        String schemaPrefix = getSchemaPrefix(connection, schema);
+        String dbProductName = connection.getMetaData().getDatabaseProductName();
 
         for (String tableName : getAllTableNames(connection, schema)) {
-            try (Statement statement = connection.createStatement()) {
-                String schemaPrefix = getSchemaPrefix(connection, schema);
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(countStatement(dbProductName, schemaPrefix, tableName))) {
+                while (resultSet.next()) {
+                    result.put(tableName, resultSet.getInt(1));
+                }
+            }
+        }
 
-                // mysql wants a quote around mixedcase table names
-                String optionalQuote = connection.getMetaData().getDatabaseProductName().equals("MySQL") ? "\"" : "";
-                try (ResultSet resultSet = statement.executeQuery("SELECT count(*) FROM " + optionalQuote + schemaPrefix + tableName + optionalQuote)) {
+        return result;
+    }
 
-                    while (resultSet.next()) {
-                        result.put(tableName, resultSet.getInt(1));
-                    }
+    /** Refer to {@link #getApproximateNumberElementsInEachTable(Connection, String)}, takes the current default schema */
+    public static Map<String, Long> getApproximateNumberElementsInEachTable(Connection connection) throws SQLException {
+        return getApproximateNumberElementsInEachTable(connection, connection.getSchema());
+    }
+
+    /**
+     * Estimated number of rows per table, read from the statistics of the db (one query for all tables):
+     * postgres <code>pg_class.reltuples</code>, oracle <code>ALL_TABLES.NUM_ROWS</code>, H2 and MySQL
+     * <code>INFORMATION_SCHEMA.TABLES</code>, SQL Server <code>sys.partitions</code>. The estimates are only as recent as
+     * the last ANALYZE (or statistics gathering), -1 for tables without statistics. Other dbs: exact counts.
+     */
+    public static Map<String, Long> getApproximateNumberElementsInEachTable(Connection connection, String schema) throws SQLException {
+        String dbProductName = connection.getMetaData().getDatabaseProductName();
+        schema = adaptCaseForDb(schema, dbProductName);
+        String statisticsSelect = statisticsSelect(dbProductName);
+        if (statisticsSelect == null) {
+            Map<String, Long> result = new HashMap<>();
+            getNumberElementsInEachTable(connection, schema).forEach((table, count) -> result.put(table, count.longValue()));
+            return result;
+        }
+
+        Map<String, Long> estimates = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(statisticsSelect)) {
+            // mysql has no schemas, the tables are in the catalog (the database)
+            statement.setString(1, dbProductName.equals("MySQL") && schema == null ? connection.getCatalog() : schema);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    long estimate = rs.getLong(2);
+                    estimates.put(rs.getString(1), rs.wasNull() ? -1 : Math.max(estimate, -1));
                 }
             }
         }
 
+        Map<String, Long> result = new HashMap<>();
+        for (String tableName : getAllTableNames(connection, schema)) {
+            result.put(tableName, estimates.getOrDefault(tableName, -1L));
+        }
         return result;
     }
 
+    /** @return the select of the table names and their estimated number of rows (for a schema), null if not supported */
+    private static String statisticsSelect(String dbProductName) {
+        switch (dbProductName) {
+            case "PostgreSQL":
+                return "SELECT c.relname, CAST(c.reltuples AS bigint) FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace " +
+                        "WHERE n.nspname = ? AND c.relkind IN ('r', 'p')";
+            case "Oracle":
+                return "SELECT table_name, num_rows FROM all_tables WHERE owner = ?";
+            case "H2":
+                return "SELECT table_name, row_count_estimate FROM information_schema.tables WHERE table_schema = ?";
+            case "MySQL":
+                return "SELECT table_name, table_rows FROM information_schema.tables WHERE table_schema = ?";
+            case "Microsoft SQL Server":
+                return "SELECT t.name, SUM(p.rows) FROM sys.tables t JOIN sys.schemas s ON s.schema_id = t.schema_id " +
+                        "JOIN sys.partitions p ON p.object_id = t.object_id AND p.index_id IN (0, 1) WHERE s.name = ? GROUP BY t.name";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Exact number of rows per table, the tables are counted in parallel (each thread with its own connection of the dataSource).
+     * @param connections the maximal number of connections (and threads) used
+     * @param timeoutSeconds query timeout per table (0: none), tables that are not counted in time get -1
+     */
+    public static Map<String, Long> getNumberElementsInEachTable(DataSource dataSource, String schema, int connections, int timeoutSeconds) throws SQLException {
+        if (connections < 1) {
+            throw new IllegalArgumentException("Number of connections must be positive: " + connections);
+        }
+
+        Queue<String> toCount;
+        String dbProductName;
+        String schemaPrefix;
+        try (Connection connection = dataSource.getConnection()) {
+            dbProductName = connection.getMetaData().getDatabaseProductName();
+            schema = adaptCaseForDb(schema, dbProductName);
+            schemaPrefix = getSchemaPrefix(connection, schema);
+            toCount = new ConcurrentLinkedQueue<>(getAllTableNames(connection, schema));
+        }
+        if (toCount.isEmpty()) {
+            return new HashMap<>();
+        }
+
+        Map<String, Long> result = new ConcurrentHashMap<>();
+        Set<Statement> running = ConcurrentHashMap.newKeySet();
+        int threads = Math.min(connections, toCount.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // the workers in the order they finish, so that the first failure stops the others
+            CompletionService<Void> workers = new ExecutorCompletionService<>(executor);
+            for (int i = 0; i < threads; i++) {
+                workers.submit(() -> {
+                    try (Connection connection = dataSource.getConnection();
+                         Statement statement = connection.createStatement()) {
+                        statement.setQueryTimeout(timeoutSeconds);
+                        running.add(statement);
+                        try {
+                            String tableName;
+                            while ((tableName = toCount.poll()) != null) {
+                                result.put(tableName, countRows(statement, countStatement(dbProductName, schemaPrefix, tableName)));
+                            }
+                        } finally {
+                            running.remove(statement);
+                        }
+                    }
+                    return null;
+                });
+            }
+            for (int i = 0; i < threads; i++) {
+                workers.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelCounting(toCount, running);
+            throw new IllegalStateException("Interrupted while counting the rows", e);
+        } catch (ExecutionException e) {
+            cancelCounting(toCount, running);
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new IllegalStateException("Could not count the rows", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return new HashMap<>(result);
+    }
+
+    /** stops the other workers: no more tables to count and their running count queries are cancelled */
+    private static void cancelCounting(Queue<String> toCount, Set<Statement> running) {
+        toCount.clear();
+        for (Statement statement : running) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                LOGGER.warn("Could not cancel count: {}", e.getMessage());
+            }
+        }
+    }
+
+    /** @return the number of rows, -1 if the query timed out */
+    private static long countRows(Statement statement, String countStatement) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery(countStatement)) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        } catch (SQLException e) {
+            // postgres signals a timeout only with the sql state (query_canceled)
+            if (e instanceof SQLTimeoutException || "57014".equals(e.getSQLState())) {
+                LOGGER.warn("Timeout for {}", countStatement);
+                return -1;
+            }
+            throw e;
+        }
+    }
+
+    private static String countStatement(String dbProductName, String schemaPrefix, String tableName) {
+        // mysql wants a quote around mixedcase table names
+        String optionalQuote = dbProductName.equals("MySQL") ? "\"" : "";
+        return "SELECT count(*) FROM " + optionalQuote + schemaPrefix + tableName + optionalQuote;
+    }
+
     /** system is default schema in oracle,
      dbo is the default schema in sqlserver,
      Java-null is the default schema in mysql,
@@ -645,6 +1173,12 @@ public final class JdbcHelpers {
             return (byte[])value;
         } else if (value instanceof String){
             return Base64.getDecoder().decode((String) value);
+        } else if (value instanceof LobValue) {
+            try {
+                return ((LobValue) value).getBytes();
+            } catch (SQLException | IOException e) {
+                throw new IllegalStateException("Could not read lob " + value, e);
+            }
         }
         throw new IllegalStateException("Unkown how to convert value "+value+" to byte[].");
     }
@@ -0,0 +1,121 @@
+package org.oser.tools.jdbc;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import lombok.Getter;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Lightweight graph of linked db rows: the {@link RowLink}s of all rows and the fk links between them. <p>
+ *
+ * Is built from a record that only holds the keys (refer to {@link DbExporter#keysAsTree(Connection, String, Object...)}).
+ * An edge goes from the row that holds a foreign key to the row it references.
+ */
+@Getter
+public class KeyGraph {
+    /** the record (with only the pk and fk columns) the graph was built from */
+    private final DbRecord keyRecord;
+    private final Set<RowLink> nodes;
+    private final List<Edge> edges;
+
+    KeyGraph(DbRecord keyRecord, Set<RowLink> nodes, List<Edge> edges) {
+        this.keyRecord = keyRecord;
+        this.nodes = nodes;
+        this.edges = edges;
+    }
+
+    /** Build the graph of a record (all fk links between the rows of the record are determined) */
+    public static KeyGraph of(Connection connection, DbRecord dbRecord, Cache<String, List<Fk>> fkCache) throws SQLException {
+        Map<RowLink, DbRecord> records = new LinkedHashMap<>();
+        dbRecord.visitRecords(r -> records.putIfAbsent(r.getRowLink(), r));
+
+        Map<String, List<DbRecord>> recordsPerTable = new HashMap<>();
+        records.values().forEach(r -> recordsPerTable.computeIfAbsent(r.getTableName(), t -> new ArrayList<>()).add(r));
+
+        // per referenced table and referenced columns: the rows by the values of these columns
+        Map<String, Map<List<Object>, List<RowLink>>> indexes = new HashMap<>();
+
+        List<Edge> edges = new ArrayList<>();
+        for (DbRecord from : records.values()) {
+            for (Fk fk : Fk.getFksOfTable(connection, from.getTableName(), fkCache)) {
+                if (!fk.isInverted()) {
+                    continue; // we only follow the fks from the side that holds the foreign key
+                }
+                String targetTable = fk.getPktable().toLowerCase();
+                List<DbRecord> targetRecords = recordsPerTable.get(targetTable);
+                List<Object> fkValues = valuesOf(from, fk.getFkcolumn());
+                if (targetRecords == null || fkValues == null) {
+                    continue;
+                }
+
+                Map<List<Object>, List<RowLink>> index = indexes.computeIfAbsent(targetTable + Arrays.toString(fk.getPkcolumn()).toLowerCase(),
+                        k -> indexOf(targetRecords, fk.getPkcolumn()));
+                for (RowLink to : index.getOrDefault(fkValues, List.of())) {
+                    edges.add(new Edge(from.getRowLink(), to));
+                }
+            }
+        }
+
+        return new KeyGraph(dbRecord, new LinkedHashSet<>(records.keySet()), edges);
+    }
+
+    private static Map<List<Object>, List<RowLink>> indexOf(List<DbRecord> records, String[] columns) {
+        Map<List<Object>, List<RowLink>> index = new HashMap<>();
+        for (DbRecord r : records) {
+            List<Object> values = valuesOf(r, columns);
+            if (values != null) {
+                index.computeIfAbsent(values, v -> new ArrayList<>()).add(r.getRowLink());
+            }
+        }
+        return index;
+    }
+
+    /** @return the (normalized) values of the columns or null if one is missing or null */
+    private static List<Object> valuesOf(DbRecord r, String[] columns) {
+        List<Object> values = new ArrayList<>(columns.length);
+        for (String column : columns) {
+            DbRecord.FieldAndValue field = r.findElementWithName(column);
+            if (field == null || field.getValue() == null) {
+                return null;
+            }
+            values.add(RowLink.normalizePk(field.getValue()));
+        }
+        return values;
+    }
+
+    /** count number of rows per table */
+    public Map<String, Integer> countPerTable() {
+        return DbRecord.classifyNodes(nodes);
+    }
+
+    @Override
+    public String toString() {
+        return "KeyGraph{" +
+                "nodes=" + nodes +
+                ", edges=" + edges +
+                '}';
+    }
+
+    /** fk link from the row that holds the foreign key to the row it references */
+    public record Edge(RowLink from, RowLink to) {
+        public Edge {
+            Objects.requireNonNull(from);
+            Objects.requireNonNull(to);
+        }
+
+        @Override
+        public String toString() {
+            return from + "->" + to;
+        }
+    }
+}
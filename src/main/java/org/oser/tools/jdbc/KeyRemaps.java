@@ -0,0 +1,306 @@
+package org.oser.tools.jdbc;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The remapped primary keys of an import (RowLink -> new primary key), as returned by
+ * {@link DbImporter#insertRecords(java.sql.Connection, DbRecord)}. <p>
+ *
+ * Stores the remaps per table: numeric single-column keys that are remapped to a numeric key are held in primitive
+ * long to long maps, the others (composite or string keys) in a map with compact keys. {@link #getNewPk(Map, String, Object)}
+ * looks up a remap without creating a {@link RowLink}. Is also a normal (mutable) {@link Map} (its entries are created
+ * when iterating).
+ */
+public final class KeyRemaps extends AbstractMap<RowLink, DbImporter.Remap> {
+    /** lower case table name -> remaps of numeric single-column keys */
+    private final Map<String, LongLongMap> numericRemaps = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    /** the other remaps */
+    private final RowKeyMap<DbImporter.Remap> otherRemaps = new RowKeyMap<>();
+
+    // the last looked up table (the same table name instances are looked up again and again)
+    private String lastTableName;
+    private LongLongMap lastTable;
+
+    /**
+     * @return the new primary key of the row (of a table with a single-column primary key) or null if it is not remapped
+     * (works for all maps, for {@link KeyRemaps} without allocations for numeric keys)
+     */
+    public static Object getNewPk(Map<RowLink, DbImporter.Remap> remaps, String tableName, Object pk) {
+        if (remaps instanceof KeyRemaps) {
+            return ((KeyRemaps) remaps).getNewPk(tableName, pk);
+        }
+        DbImporter.Remap remap = remaps.get(new RowLink(tableName, pk));
+        return remap != null ? remap.getPkField() : null;
+    }
+
+    /** @return the new primary key or null if the row is not remapped */
+    public Object getNewPk(String tableName, Object pk) {
+        if (RowKey.isNumeric(pk)) {
+            LongLongMap table = table(tableName, false);
+            long key = RowKey.asLong(pk);
+            if (table != null && table.containsKey(key)) {
+                return table.get(key);
+            }
+        }
+        if (otherRemaps.isEmpty()) {
+            return null;
+        }
+        DbImporter.Remap remap = otherRemaps.get(tableName, new Object[]{pk});
+        return remap != null ? remap.getPkField() : null;
+    }
+
+    @Override
+    public DbImporter.Remap get(Object key) {
+        if (!(key instanceof RowLink)) {
+            return null;
+        }
+        RowLink rowLink = (RowLink) key;
+        Object[] pks = rowLink.getPks();
+        if (isNumericKey(pks)) {
+            LongLongMap table = table(rowLink.getTableName(), false);
+            long pk = RowKey.asLong(pks[0]);
+            if (table != null && table.containsKey(pk)) {
+                return new DbImporter.Remap(table.get(pk), 0);
+            }
+        }
+        return otherRemaps.get(rowLink);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (!(key instanceof RowLink)) {
+            return false;
+        }
+        RowLink rowLink = (RowLink) key;
+        Object[] pks = rowLink.getPks();
+        if (isNumericKey(pks)) {
+            LongLongMap table = table(rowLink.getTableName(), false);
+            if (table != null && table.containsKey(RowKey.asLong(pks[0]))) {
+                return true;
+            }
+        }
+        return !otherRemaps.isEmpty() && otherRemaps.containsKey(rowLink);
+    }
+
+    @Override
+    public DbImporter.Remap put(RowLink key, DbImporter.Remap value) {
+        DbImporter.Remap previous = remove(key);
+        Object[] pks = key.getPks();
+        if (isNumericKey(pks) && value.getPosition() == 0 && value.getPkField() instanceof Long) {
+            table(key.getTableName(), true).put(RowKey.asLong(pks[0]), (Long) value.getPkField());
+        } else {
+            otherRemaps.put(key, value);
+        }
+        return previous;
+    }
+
+    @Override
+    public DbImporter.Remap remove(Object key) {
+        if (!(key instanceof RowLink)) {
+            return null;
+        }
+        RowLink rowLink = (RowLink) key;
+        Object[] pks = rowLink.getPks();
+        if (isNumericKey(pks)) {
+            LongLongMap table = table(rowLink.getTableName(), false);
+            long pk = RowKey.asLong(pks[0]);
+            if (table != null && table.containsKey(pk)) {
+                return new DbImporter.Remap(table.remove(pk), 0);
+            }
+        }
+        return otherRemaps.remove(rowLink);
+    }
+
+    @Override
+    public int size() {
+        int size = otherRemaps.size();
+        for (LongLongMap table : numericRemaps.values()) {
+            size += table.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        numericRemaps.clear();
+        otherRemaps.clear();
+        lastTableName = null;
+        lastTable = null;
+    }
+
+    @Override
+    public Set<Entry<RowLink, DbImporter.Remap>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<RowLink, DbImporter.Remap>> iterator() {
+                Iterator<Entry<RowLink, DbImporter.Remap>> entries = snapshot().iterator();
+                return new Iterator<>() {
+                    private Entry<RowLink, DbImporter.Remap> current;
+
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Entry<RowLink, DbImporter.Remap> next() {
+                        current = entries.next();
+                        return current;
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (current == null) {
+                            throw new IllegalStateException("next() not called");
+                        }
+                        KeyRemaps.this.remove(current.getKey());
+                        current = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return KeyRemaps.this.size();
+            }
+        };
+    }
+
+    /** @return a copy of the entries (the entries of the numeric remaps are created here) */
+    private List<Entry<RowLink, DbImporter.Remap>> snapshot() {
+        List<Entry<RowLink, DbImporter.Remap>> entries = new ArrayList<>(size());
+        numericRemaps.forEach((tableName, table) -> table.forEach((pk, newPk) ->
+                entries.add(new SimpleImmutableEntry<>(new RowLink(tableName, pk), new DbImporter.Remap(newPk, 0)))));
+        entries.addAll(otherRemaps.entrySet());
+        return entries;
+    }
+
+    private LongLongMap table(String tableName, boolean create) {
+        if (tableName == lastTableName) { // NOSONAR: identity on purpose (cheap check for the same instance)
+            return lastTable;
+        }
+        LongLongMap table = numericRemaps.get(tableName);
+        if (table == null && create) {
+            table = new LongLongMap();
+            numericRemaps.put(tableName.toLowerCase(), table);
+        }
+        if (table != null) {
+            lastTableName = tableName;
+            lastTable = table;
+        }
+        return table;
+    }
+
+    private static boolean isNumericKey(Object[] pks) {
+        return pks != null && pks.length == 1 && RowKey.isNumeric(pks[0]);
+    }
+
+    /** open addressing hash map from long to long (linear probing) */
+    static final class LongLongMap {
+        private long[] keys = new long[16];
+        private long[] values = new long[16];
+        private boolean[] used = new boolean[16];
+        private int size = 0;
+
+        boolean containsKey(long key) {
+            return used[indexOf(key)];
+        }
+
+        /** only call if the key is contained */
+        long get(long key) {
+            return values[indexOf(key)];
+        }
+
+        void put(long key, long value) {
+            int index = indexOf(key);
+            if (!used[index]) {
+                if (2 * (size + 1) > keys.length) {
+                    grow();
+                    index = indexOf(key);
+                }
+                used[index] = true;
+                keys[index] = key;
+                size++;
+            }
+            values[index] = value;
+        }
+
+        /** only call if the key is contained, @return the removed value */
+        long remove(long key) {
+            int index = indexOf(key);
+            long removed = values[index];
+            used[index] = false;
+            size--;
+
+            // shift back the following entries of the cluster
+            int mask = keys.length - 1;
+            int free = index;
+            for (int i = (index + 1) & mask; used[i]; i = (i + 1) & mask) {
+                int home = slot(keys[i]);
+                boolean canMove = free <= i ? (home <= free || home > i) : (home <= free && home > i);
+                if (canMove) {
+                    keys[free] = keys[i];
+                    values[free] = values[i];
+                    used[free] = true;
+                    used[i] = false;
+                    free = i;
+                }
+            }
+            return removed;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void forEach(LongLongConsumer consumer) {
+            for (int i = 0; i < keys.length; i++) {
+                if (used[i]) {
+                    consumer.accept(keys[i], values[i]);
+                }
+            }
+        }
+
+        /** @return the index of the key or of the free slot where it would be */
+        private int indexOf(long key) {
+            int mask = keys.length - 1;
+            int index = slot(key);
+            while (used[index] && keys[index] != key) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        private int slot(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & (keys.length - 1);
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            values = new long[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface LongLongConsumer {
+        void accept(long key, long value);
+    }
+}
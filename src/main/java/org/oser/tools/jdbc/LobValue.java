@@ -0,0 +1,55 @@
+package org.oser.tools.jdbc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.sql.SQLException;
+
+/**
+ * Handle to the content of a large object (BLOB or CLOB) that is read when needed (as a stream) instead of
+ * holding the whole content in memory. Refer to {@link DbExporter#setStreamLobs(boolean)}. <p>
+ *
+ * The streams must be closed after use.
+ */
+public interface LobValue {
+
+    /** @return true for character data (CLOB), false for binary data (BLOB) */
+    boolean isCharacter();
+
+    /** @return the length in bytes (for binary data) or in characters (for character data) */
+    long length() throws SQLException, IOException;
+
+    /** @return the binary content as stream (only for binary data) */
+    InputStream openBinaryStream() throws SQLException, IOException;
+
+    /** @return the character content as stream (only for character data) */
+    Reader openCharacterStream() throws SQLException, IOException;
+
+    /** @return the whole binary content (fails if it does not fit into a byte[]) */
+    default byte[] getBytes() throws SQLException, IOException {
+        long length = length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Lob too long to be read into memory: " + length + " " + this);
+        }
+        try (InputStream in = openBinaryStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) length);
+            in.transferTo(out);
+            return out.toByteArray();
+        }
+    }
+
+    /** @return the whole character content (fails if it does not fit into a String) */
+    default String getString() throws SQLException, IOException {
+        long length = length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Lob too long to be read into memory: " + length + " " + this);
+        }
+        try (Reader in = openCharacterStream()) {
+            StringWriter out = new StringWriter((int) length);
+            in.transferTo(out);
+            return out.toString();
+        }
+    }
+}
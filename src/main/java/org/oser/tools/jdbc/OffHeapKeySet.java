@@ -0,0 +1,263 @@
+package org.oser.tools.jdbc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Set of row keys (table name and primary key) that is stored outside of the heap: an open addressing hash table
+ * (linear probing) of 16 byte entries in direct {@link ByteBuffer}s. Used to remember the visited rows of exports
+ * that do not keep the rows (refer to {@link DbExporter#contentAsRowStream(java.sql.Connection, CheckedFunction, String, Object...)}). <p>
+ *
+ * A numeric single-column key is stored as (table ordinal, pk). Other keys are stored as a 127 bit hash of the table
+ * and of the string form of the pks (as in {@link RowLink}), two different keys are only considered equal if both
+ * 64 bit hashes collide (negligible even for billions of rows). <p>
+ *
+ * The table doubles when it is 3/4 full. If it would need more than maxMemoryBytes, it is stored in a memory mapped
+ * temporary file in the overflow directory (the OS pages it in and out as needed), without overflow directory an
+ * {@link IllegalStateException} is thrown. NB: direct buffers are limited by <code>-XX:MaxDirectMemorySize</code>
+ * (by default the maximal heap size). Table names are case-insensitive. Not thread safe.
+ */
+final class OffHeapKeySet implements AutoCloseable {
+    static final int ENTRY_BYTES = 16;
+    private static final int INITIAL_SLOTS = 1 << 10;
+    private static final int MAX_SEGMENT_SLOTS = 1 << 22; // 64 MB per buffer
+
+    private static final long HASH_MARKER = Long.MIN_VALUE;
+    private static final long M1 = 0x100000001B3L;
+    private static final long M2 = 0x9E3779B97F4A7C15L;
+
+    private final long maxMemoryBytes;
+    private final Path overflowDirectory;
+
+    /** lower case table name -> ordinal */
+    private final Map<String, Integer> tableOrdinals = new HashMap<>();
+    private long[] rowsPerTable = new long[8];
+
+    private ByteBuffer[] segments;
+    private int segmentShift;
+    private long capacity;
+    private long size;
+
+    /** the temporary file of the table, null while it is in memory */
+    private Path file;
+
+    /** @param overflowDirectory where the table is stored if it exceeds maxMemoryBytes, null: fail instead */
+    OffHeapKeySet(long maxMemoryBytes, Path overflowDirectory) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.overflowDirectory = overflowDirectory;
+        allocate(INITIAL_SLOTS);
+    }
+
+    /** @return true if the row was not yet contained */
+    boolean add(String tableName, Object[] pks) {
+        int ordinal = ordinal(tableName, true);
+        long a = firstWord(ordinal, pks);
+        long b = secondWord(ordinal, pks);
+
+        long slot = find(a, b);
+        if (getLong(slot, 0) != 0) {
+            return false;
+        }
+        if (size + 1 > capacity - capacity / 4) {
+            grow();
+            slot = find(a, b);
+        }
+        putLong(slot, 0, a);
+        putLong(slot, 8, b);
+        size++;
+        rowsPerTable[ordinal]++;
+        return true;
+    }
+
+    boolean contains(String tableName, Object[] pks) {
+        int ordinal = ordinal(tableName, false);
+        return ordinal >= 0 && getLong(find(firstWord(ordinal, pks), secondWord(ordinal, pks)), 0) != 0;
+    }
+
+    /** @return true if a row of the table is contained */
+    boolean containsTable(String tableName) {
+        int ordinal = ordinal(tableName, false);
+        return ordinal >= 0 && rowsPerTable[ordinal] > 0;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /** @return the bytes used by the table */
+    long byteSize() {
+        return capacity * ENTRY_BYTES;
+    }
+
+    /** @return true if the table was moved to the overflow directory */
+    boolean isOnDisk() {
+        return file != null;
+    }
+
+    /** releases the buffers and deletes the temporary file (the set cannot be used afterwards) */
+    @Override
+    public void close() {
+        segments = null;
+        deleteFile(file);
+        file = null;
+    }
+
+    private static boolean isNumericKey(Object[] pks) {
+        return pks != null && pks.length == 1 && RowKey.isNumeric(pks[0]);
+    }
+
+    /** (is never 0, the empty slot) */
+    private static long firstWord(int ordinal, Object[] pks) {
+        if (isNumericKey(pks)) {
+            return ordinal + 1L;
+        }
+        return HASH_MARKER | mix(hash(ordinal, pks, M1));
+    }
+
+    private static long secondWord(int ordinal, Object[] pks) {
+        if (isNumericKey(pks)) {
+            return RowKey.asLong(pks[0]);
+        }
+        return mix(hash(ordinal, pks, M2));
+    }
+
+    private static long hash(int ordinal, Object[] pks, long multiplier) {
+        long h = (multiplier ^ ordinal) * multiplier;
+        if (pks == null || Arrays.stream(pks).anyMatch(Objects::isNull)) {
+            return (h ^ -1) * multiplier; // like RowLink: tableName/null
+        }
+        for (Object pk : pks) {
+            String s = Objects.toString(RowLink.normalizePk(pk));
+            h = (h ^ s.length()) * multiplier; // the length separates the pks
+            for (int i = 0; i < s.length(); i++) {
+                h = (h ^ s.charAt(i)) * multiplier;
+            }
+        }
+        return h;
+    }
+
+    /** finalizer of murmur3 */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    /** @return the slot of the entry or the empty slot where it would be */
+    private long find(long a, long b) {
+        long mask = capacity - 1;
+        long slot = mix(a * M2 ^ b) & mask;
+        long current;
+        while ((current = getLong(slot, 0)) != 0 && (current != a || getLong(slot, 8) != b)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private long getLong(long slot, int offset) {
+        return segments[(int) (slot >>> segmentShift)].getLong((int) ((slot & ((1L << segmentShift) - 1)) * ENTRY_BYTES) + offset);
+    }
+
+    private void putLong(long slot, int offset, long value) {
+        segments[(int) (slot >>> segmentShift)].putLong((int) ((slot & ((1L << segmentShift) - 1)) * ENTRY_BYTES) + offset, value);
+    }
+
+    private void grow() {
+        ByteBuffer[] oldSegments = segments;
+        Path oldFile = file;
+
+        allocate(capacity * 2);
+        for (ByteBuffer segment : oldSegments) {
+            for (int position = 0; position < segment.capacity(); position += ENTRY_BYTES) {
+                long a = segment.getLong(position);
+                if (a != 0) {
+                    long b = segment.getLong(position + 8);
+                    long slot = find(a, b);
+                    putLong(slot, 0, a);
+                    putLong(slot, 8, b);
+                }
+            }
+        }
+        if (oldFile != null && oldFile != file) {
+            deleteFile(oldFile);
+        }
+    }
+
+    private void allocate(long slots) {
+        long bytes = slots * ENTRY_BYTES;
+        boolean toDisk = file != null || bytes > maxMemoryBytes;
+        if (toDisk && overflowDirectory == null) {
+            throw new IllegalStateException("The visited rows (" + size + ") need more than " + maxMemoryBytes +
+                    " bytes, increase the memory cap or set an overflow directory");
+        }
+
+        int segmentSlots = (int) Math.min(slots, MAX_SEGMENT_SLOTS);
+        ByteBuffer[] newSegments = new ByteBuffer[(int) (slots / segmentSlots)];
+        if (toDisk) {
+            file = mapFile(newSegments, segmentSlots);
+        } else {
+            for (int i = 0; i < newSegments.length; i++) {
+                newSegments[i] = ByteBuffer.allocateDirect(segmentSlots * ENTRY_BYTES);
+            }
+        }
+        segments = newSegments;
+        segmentShift = Integer.numberOfTrailingZeros(segmentSlots);
+        capacity = slots;
+    }
+
+    /** @return the new file, the segments are mapped to it (a new file is zero filled, i.e. empty) */
+    private Path mapFile(ByteBuffer[] newSegments, int segmentSlots) {
+        try {
+            Path newFile = TempFiles.create(overflowDirectory, "linked-db-rows-visited");
+            try (FileChannel channel = FileChannel.open(newFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long segmentBytes = (long) segmentSlots * ENTRY_BYTES;
+                for (int i = 0; i < newSegments.length; i++) {
+                    newSegments[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * segmentBytes, segmentBytes);
+                }
+            }
+            return newFile;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not store the visited rows in " + overflowDirectory, e);
+        }
+    }
+
+    private static void deleteFile(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            TempFiles.delete(file);
+        } catch (IOException e) {
+            Loggers.LOGGER_WARNING.warn("Could not delete {}, it is deleted on exit", file);
+        }
+    }
+
+    /** @return the ordinal or -1 if the table is not known (and create is false) */
+    private int ordinal(String tableName, boolean create) {
+        String lowerCase = tableName.toLowerCase();
+        Integer ordinal = tableOrdinals.get(lowerCase);
+        if (ordinal == null) {
+            if (!create) {
+                return -1;
+            }
+            ordinal = tableOrdinals.size();
+            tableOrdinals.put(lowerCase, ordinal);
+            if (ordinal >= rowsPerTable.length) {
+                long[] larger = new long[rowsPerTable.length * 2];
+                System.arraycopy(rowsPerTable, 0, larger, 0, rowsPerTable.length);
+                rowsPerTable = larger;
+            }
+        }
+        return ordinal;
+    }
+}
@@ -0,0 +1,145 @@
+package org.oser.tools.jdbc;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inserts rows with the postgres <code>COPY ... FROM STDIN</code> command (in CSV format), for
+ * {@link ImportStrategy#POSTGRES_COPY}. The postgres JDBC driver is an optional dependency: it is only needed if this
+ * strategy is used with a postgres db.
+ */
+class PostgresCopy {
+    private static final Set<Integer> BINARY_DATATYPES = Set.of(Types.BINARY, Types.VARBINARY, Types.LONGVARBINARY, Types.BLOB, Types.ARRAY);
+
+    private PostgresCopy() {}
+
+    /** @return true if the connection is a postgres connection of the postgres JDBC driver */
+    static boolean isAvailable(Connection connection) throws SQLException {
+        if (!connection.getMetaData().getDatabaseProductName().equals("PostgreSQL")) {
+            return false;
+        }
+        try {
+            return connection.isWrapperFor(PGConnection.class);
+        } catch (LinkageError e) {
+            Loggers.LOGGER_WARNING.info("No postgres JDBC driver to use COPY, falling back to batched inserts");
+            return false;
+        }
+    }
+
+    /**
+     * COPY cannot do everything an insert statement does: it has no type casts (e.g. for enums, refer to
+     * {@link JdbcHelpers#needsTypeCasting(JdbcHelpers.ColumnMetadata)}) and does not call {@link FieldImporter}s
+     * (except that it replaces the default one of BYTEA: byte arrays are written in the hex format of bytea).
+     * @return true if the rows (that all have the same statement) can be inserted with COPY
+     */
+    static boolean canCopy(DbImporter importer, List<DbImporter.RowToInsert> rows) {
+        DbImporter.RowToInsert first = rows.get(0);
+        if (!first.isInsert()) {
+            return false;
+        }
+
+        String tableName = first.getDbRecord().getTableName();
+        Set<String> byteaFields = new HashSet<>();
+        for (String fieldName : first.getValues().keySet()) {
+            JdbcHelpers.ColumnMetadata metadata = first.getDbRecord().findElementWithName(fieldName).getMetadata();
+            if (metadata == null || JdbcHelpers.needsTypeCasting(metadata) || importer.getFieldImporter(tableName, fieldName) != null) {
+                return false;
+            }
+            FieldImporter typeFieldImporter = importer.getTypeFieldImporters().get(metadata.getType().toUpperCase());
+            if (typeFieldImporter == DbImporter.BYTEA_IMPORTER) {
+                byteaFields.add(fieldName);
+            } else if (typeFieldImporter != null || BINARY_DATATYPES.contains(metadata.getDataType())) {
+                return false;
+            }
+        }
+
+        for (DbImporter.RowToInsert row : rows) {
+            for (Map.Entry<String, Object> field : row.getValues().entrySet()) {
+                Object value = field.getValue();
+                boolean bytea = byteaFields.contains(field.getKey());
+                // other bytea values (e.g. spilled ones) are streamed by the batches
+                if ((bytea && value != null && !(value instanceof byte[])) || (!bytea && value instanceof byte[]) ||
+                        (value instanceof LobValue && !((LobValue) value).isCharacter())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** @return the number of inserted rows */
+    static long copy(Connection connection, List<DbImporter.RowToInsert> rows) throws SQLException {
+        DbImporter.RowToInsert first = rows.get(0);
+        List<String> fieldNames = List.copyOf(first.getValues().keySet());
+        List<Object[]> values = new ArrayList<>(rows.size());
+        rows.forEach(row -> values.add(row.getValues().values().toArray()));
+        return copy(connection, first.getDbRecord().getTableName(), fieldNames, values);
+    }
+
+    /**
+     * @param rows the values of the rows (in the order of the columnNames)
+     * @return the number of inserted rows
+     */
+    static long copy(Connection connection, String tableName, List<String> columnNames, List<Object[]> rows) throws SQLException {
+        String sql = "COPY " + tableName + " (" + String.join(", ", columnNames) + ") FROM STDIN WITH (FORMAT csv)";
+
+        CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+        try {
+            StringBuilder line = new StringBuilder();
+            for (Object[] row : rows) {
+                line.setLength(0);
+                for (Object value : row) {
+                    if (line.length() > 0) {
+                        line.append(',');
+                    }
+                    line.append(csvValue(value));
+                }
+                line.append('\n');
+                byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+                copyIn.writeToCopy(bytes, 0, bytes.length);
+            }
+            long copied = copyIn.endCopy();
+            Loggers.LOGGER_CHANGE.info("{} ({} rows)", sql, copied);
+            return copied;
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    /**
+     * @return the value as CSV field: null is an empty (unquoted) field, all other values are quoted,
+     *  byte arrays use the hex format of bytea (e.g. \x01ff)
+     */
+    static String csvValue(Object value) throws SQLException {
+        if (value == null) {
+            return "";
+        }
+        String text;
+        if (value instanceof byte[]) {
+            text = "\\x" + HexFormat.of().formatHex((byte[]) value);
+        } else if (value instanceof LobValue) {
+            try {
+                text = ((LobValue) value).getString();
+            } catch (IOException e) {
+                throw new SQLException("Could not read lob " + value, e);
+            }
+        } else {
+            text = value.toString();
+        }
+        return "\"" + text.replace("\"", "\"\"") + "\"";
+    }
+}
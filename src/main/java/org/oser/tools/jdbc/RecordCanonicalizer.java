@@ -47,9 +47,49 @@ public class RecordCanonicalizer {
                                                              DbRecord dbRecord,
                                                              Cache<String, List<Fk>> fkCache,
                                                              Cache<String, List<String>> pkCache) throws Exception {
+        return canonicalizeIds(connection, connection.getMetaData(), dbRecord, fkCache, pkCache);
+    }
+
+    /**
+     * Like {@link RecordCanonicalizer#canonicalizeIds(Connection, DbRecord)} but without a db connection:
+     * the fk and pk metadata is taken from the schemaSnapshot
+     * @throws IllegalArgumentException if a table of the records is not in the schemaSnapshot
+     */
+    public static Map<RowLink, List<Object>> canonicalizeIds(SchemaSnapshot schemaSnapshot, DbRecord dbRecord) throws Exception {
+        for (RowLink node : dbRecord.getAllNodes()) {
+            schemaSnapshot.assertContainsTable(node.getTableName());
+        }
+        return canonicalizeIds(null, null, dbRecord, schemaSnapshot.newFkCache(), schemaSnapshot.newPkCache());
+    }
+
+    /**
+     * Like {@link RecordCanonicalizer#canonicalizeIds(Connection, DbRecord, Cache, Cache)} but for the records of a store
+     * (they are read per table and stored again with the canonical keys)
+     */
+    public static Map<RowLink, List<Object>> canonicalizeIds(Connection connection,
+                                                             DiskRecordStore store,
+                                                             Cache<String, List<Fk>> fkCache,
+                                                             Cache<String, List<String>> pkCache) throws SQLException {
         Map<RowLink, List<Object>> newKeys = new HashMap<>();
+        Map<String, Integer> counterPerTableName = new HashMap<>();
         DatabaseMetaData metaData = connection.getMetaData();
 
+        store.updateRecordsInInsertionOrder(connection, (DbRecord r) -> {
+            canonicalizeOneRecord(connection, r, newKeys, metaData, counterPerTableName, fkCache, pkCache);
+            return null;
+        }, false, fkCache);
+
+        return newKeys;
+    }
+
+    /** connection and metaData can be null if the caches hold the metadata of all tables */
+    private static Map<RowLink, List<Object>> canonicalizeIds(Connection connection,
+                                                              DatabaseMetaData metaData,
+                                                              DbRecord dbRecord,
+                                                              Cache<String, List<Fk>> fkCache,
+                                                              Cache<String, List<String>> pkCache) throws Exception {
+        Map<RowLink, List<Object>> newKeys = new HashMap<>();
+
         Map<String, Integer> counterPerTableName = new HashMap<>();
 
         CheckedFunction<DbRecord, Void> canonicalizeOneRecord = (DbRecord r) -> {
@@ -57,7 +97,7 @@ public class RecordCanonicalizer {
             return null; // strange that we need this hack
         };
 
-        dbRecord.visitRecordsInInsertionOrder(connection, canonicalizeOneRecord, false);
+        dbRecord.visitRecordsInInsertionOrder(connection, canonicalizeOneRecord, false, fkCache);
 
         return newKeys;
     }
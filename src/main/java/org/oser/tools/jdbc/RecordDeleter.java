@@ -0,0 +1,211 @@
+package org.oser.tools.jdbc;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Deletes a graph of records with set-based statements: the records are grouped per table (in reverse insertion order)
+ * and deleted with chunked <code>DELETE FROM t WHERE pk IN (...)</code> (postgres and H2: <code>pk = ANY(?)</code>)
+ * prepared statements. Groups with many rows are deleted with one statement joining a temporary table of their
+ * keys (refer to {@link DbExporter#setTempTableKeyThreshold(int)}). <p>
+ *
+ * Records of tables with a link to themselves are deleted in dependency layers (the rows that nobody else
+ * of the same table points to first). <p>
+ *
+ * CAVEAT: really deletes data, check the data first!
+ */
+public final class RecordDeleter {
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private RecordDeleter() {}
+
+    /**
+     * Delete all records contained in dbRecord (needs to be exported before)
+     * @return the number of deleted rows
+     * @throws IllegalStateException if a chunk deleted not exactly the expected number of rows
+     */
+    public static int deleteRecords(Connection connection, DbRecord dbRecord, Cache<String, List<Fk>> fkCache, int chunkSize) throws SQLException {
+        return deleteRecords(connection, dbRecord, fkCache, chunkSize, TempKeyTable.DEFAULT_THRESHOLD);
+    }
+
+    /** Like {@link #deleteRecords(Connection, DbRecord, Cache, int)}, groups with more than tempTableKeyThreshold rows
+     *  are deleted via a temporary table of their keys (if the db supports it) */
+    public static int deleteRecords(Connection connection, DbRecord dbRecord, Cache<String, List<Fk>> fkCache, int chunkSize,
+                                    int tempTableKeyThreshold) throws SQLException {
+        return deleteGroups(connection, getDeletionGroups(connection, dbRecord, fkCache), chunkSize, tempTableKeyThreshold);
+    }
+
+    /** Delete the rows of the groups (in the order of the list), verifying the number of deleted rows per chunk
+     * @return the number of deleted rows */
+    public static int deleteGroups(Connection connection, List<DeletionGroup> groups, int chunkSize) throws SQLException {
+        return deleteGroups(connection, groups, chunkSize, TempKeyTable.DEFAULT_THRESHOLD);
+    }
+
+    /** Like {@link #deleteGroups(Connection, List, int)}, groups with more than tempTableKeyThreshold rows
+     *  are deleted via a temporary table of their keys (if the db supports it) */
+    public static int deleteGroups(Connection connection, List<DeletionGroup> groups, int chunkSize, int tempTableKeyThreshold) throws SQLException {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+
+        int deleted = 0;
+        for (DeletionGroup group : groups) {
+            deleted += deleteOneGroup(connection, group, chunkSize, tempTableKeyThreshold);
+        }
+        return deleted;
+    }
+
+    /**
+     * Determine the groups of rows (of one table each) in the order in which they can be deleted.
+     * Self-linked tables are split in several groups (one per dependency layer).
+     */
+    public static List<DeletionGroup> getDeletionGroups(Connection connection, DbRecord dbRecord, Cache<String, List<Fk>> fkCache) throws SQLException {
+        List<DbRecord> inInsertionOrder = new ArrayList<>();
+        dbRecord.visitRecordsInInsertionOrder(connection, r -> {
+            inInsertionOrder.add(r);
+            return null;
+        }, false, fkCache);
+
+        List<DeletionGroup> insertionGroups = new ArrayList<>();
+        for (List<DbRecord> sameTable : splitBySameTable(inInsertionOrder)) {
+            String tableName = sameTable.get(0).getTableName();
+            if (Fk.hasSelfLink(Fk.getFksOfTable(connection, tableName, fkCache))) {
+                for (List<DbRecord> layer : layersOfSelfLinkedRecords(connection, sameTable, fkCache)) {
+                    insertionGroups.add(toGroup(layer));
+                }
+            } else {
+                insertionGroups.add(toGroup(sameTable));
+            }
+        }
+
+        Collections.reverse(insertionGroups);
+        return insertionGroups;
+    }
+
+    /** consecutive records of the same table form one list */
+    private static List<List<DbRecord>> splitBySameTable(List<DbRecord> records) {
+        List<List<DbRecord>> result = new ArrayList<>();
+        List<DbRecord> current = null;
+        for (DbRecord r : records) {
+            if (current == null || !current.get(0).getTableName().equals(r.getTableName())) {
+                current = new ArrayList<>();
+                result.add(current);
+            }
+            current.add(r);
+        }
+        return result;
+    }
+
+    /** @return the layers in insertion order (the first layer does not depend on other records of the list) */
+    private static List<List<DbRecord>> layersOfSelfLinkedRecords(Connection connection, List<DbRecord> records, Cache<String, List<Fk>> fkCache) throws SQLException {
+        Map<DbRecord, Set<DbRecord>> dependencies = DbRecord.determineRowDependencies(connection, records, fkCache);
+        Set<DbRecord> all = new HashSet<>(records);
+        List<Set<DbRecord>> layers = JdbcHelpers.topologicalSortInLayers(dependencies, all, false);
+
+        List<List<DbRecord>> result = new ArrayList<>();
+        Set<DbRecord> layered = new HashSet<>();
+        for (Set<DbRecord> layer : layers) {
+            // keep the original order within a layer
+            List<DbRecord> ordered = records.stream().filter(layer::contains).toList();
+            result.add(ordered);
+            layered.addAll(ordered);
+        }
+
+        // rows in cycles: we try them one by one in the original order
+        records.stream().filter(r -> !layered.contains(r)).forEach(r -> result.add(List.of(r)));
+        return result;
+    }
+
+    private static DeletionGroup toGroup(List<DbRecord> records) {
+        DbRecord first = records.get(0);
+        Map<RowLink, Object[]> uniqueRows = new LinkedHashMap<>();
+        records.forEach(r -> uniqueRows.put(r.getRowLink(), r.getRowLink().getPks()));
+
+        return new DeletionGroup(first.getTableName(), first.getPkNames(), first.getColumnMetadata(), new ArrayList<>(uniqueRows.values()));
+    }
+
+    private static int deleteOneGroup(Connection connection, DeletionGroup group, int chunkSize, int tempTableKeyThreshold) throws SQLException {
+        List<Object[]> pkValues = group.getPkValues();
+        String dbProductName = connection.getMetaData().getDatabaseProductName();
+        if (pkValues.size() > tempTableKeyThreshold && TempKeyTable.isSupported(dbProductName)) {
+            return deleteViaTempTable(connection, group);
+        }
+
+        // chunks with the same statement (refer to JdbcHelpers#whereClauseForKeys) share one prepared statement
+        Map<String, PreparedStatement> statements = new HashMap<>();
+        int deleted = 0;
+        try {
+            for (int start = 0; start < pkValues.size(); start += chunkSize) {
+                List<Object[]> chunk = pkValues.subList(start, Math.min(start + chunkSize, pkValues.size()));
+                String sql = deleteStatement(group, chunk.size(), dbProductName);
+
+                PreparedStatement statement = statements.get(sql);
+                if (statement == null) {
+                    statement = connection.prepareStatement(sql); // NOSONAR: values all via prepared statement
+                    statements.put(sql, statement);
+                }
+
+                JdbcHelpers.setKeyValues(statement, 1, group.getPkNames(), chunk, group.getColumnMetadata(), dbProductName);
+                Loggers.LOGGER_DELETE.info("{} {}", sql, chunk.stream().map(Arrays::toString).toList());
+
+                int count = statement.executeUpdate();
+                if (count != chunk.size()) {
+                    throw new IllegalStateException("Deletion not successful " + sql + " expected: " + chunk.size() + " result: " + count);
+                }
+                deleted += count;
+            }
+        } finally {
+            for (PreparedStatement statement : statements.values()) {
+                statement.close();
+            }
+        }
+        return deleted;
+    }
+
+    private static int deleteViaTempTable(Connection connection, DeletionGroup group) throws SQLException {
+        try (TempKeyTable keyTable = TempKeyTable.of(connection, group.getPkNames(), group.getColumnMetadata(), group.getPkValues());
+             Statement statement = connection.createStatement()) {
+            String sql = "DELETE FROM " + group.getTableName() + " WHERE " + keyTable.existsCondition(group.getTableName());
+            Loggers.LOGGER_DELETE.info("{} ({} rows)", sql, group.getPkValues().size());
+
+            int count = statement.executeUpdate(sql); // NOSONAR: no values
+            if (count != group.getPkValues().size()) {
+                throw new IllegalStateException("Deletion not successful " + sql + " expected: " + group.getPkValues().size() + " result: " + count);
+            }
+            return count;
+        }
+    }
+
+    static String deleteStatement(DeletionGroup group, int numberOfRows, String dbProductName) {
+        return "DELETE FROM " + group.getTableName() + " WHERE " + JdbcHelpers.whereClauseForKeys(group.getPkNames(), numberOfRows, group.getColumnMetadata(), dbProductName);
+    }
+
+    /** Rows of one table that can be deleted together */
+    @Getter
+    @AllArgsConstructor
+    @ToString
+    public static class DeletionGroup {
+        private final String tableName;
+        private final List<String> pkNames;
+        @ToString.Exclude
+        private final Map<String, JdbcHelpers.ColumnMetadata> columnMetadata;
+        @ToString.Exclude
+        private final List<Object[]> pkValues;
+    }
+}
@@ -0,0 +1,74 @@
+package org.oser.tools.jdbc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.Getter;
+
+import java.sql.Connection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Delta of a graph of rows compared to an earlier export of it (refer to {@link DbExporter#contentAsDelta(Connection, DbRecord, Map)}).
+ */
+@Getter
+public class RecordDelta {
+    /** the current graph (unchanged rows are taken from the earlier export, the others are read again) */
+    private final DbRecord patchedRecord;
+    /** rows that are new in the graph */
+    private final Set<RowLink> added;
+    /** rows whose content changed */
+    private final Set<RowLink> changed;
+    /** rows that are no longer in the graph */
+    private final Set<RowLink> removed;
+
+    RecordDelta(DbRecord patchedRecord, Set<RowLink> added, Set<RowLink> changed, Set<RowLink> removed) {
+        this.patchedRecord = patchedRecord;
+        this.added = added;
+        this.changed = changed;
+        this.removed = removed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+
+    /**
+     * The delta as document: the content of the added and changed rows (without sub records) and the removed rows. Example:
+     * <code>{"rootTable":"blogpost", "added":{"ccomment/5":{...}}, "changed":{"blogpost/2":{...}}, "removed":["ccomment/1"]}</code>
+     */
+    public JsonNode asJsonNode() {
+        ObjectMapper mapper = DbRecord.getObjectMapper();
+        Map<RowLink, DbRecord> rows = new HashMap<>();
+        patchedRecord.visitRecords(r -> rows.putIfAbsent(r.getRowLink(), r));
+
+        ObjectNode delta = mapper.createObjectNode();
+        delta.put("rootTable", patchedRecord.getRowLink().getTableName());
+        ObjectNode addedNode = delta.putObject("added");
+        added.forEach(rowLink -> addedNode.set(rowLink.toString(), fieldsAsJson(rows.get(rowLink))));
+        ObjectNode changedNode = delta.putObject("changed");
+        changed.forEach(rowLink -> changedNode.set(rowLink.toString(), fieldsAsJson(rows.get(rowLink))));
+        ArrayNode removedNode = delta.putArray("removed");
+        removed.forEach(rowLink -> removedNode.add(rowLink.toString()));
+        return delta;
+    }
+
+    /** @return the fields of a record (without sub records) */
+    static ObjectNode fieldsAsJson(DbRecord dbRecord) {
+        ObjectNode node = DbRecord.getObjectMapper().createObjectNode();
+        dbRecord.getContent().forEach(field -> field.putFieldToJsonNode(node));
+        return node;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordDelta{" +
+                "added=" + added +
+                ", changed=" + changed +
+                ", removed=" + removed +
+                '}';
+    }
+}
@@ -0,0 +1,277 @@
+package org.oser.tools.jdbc;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares 2 graphs of db rows. Each subtree gets a (Merkle) hash that is computed bottom-up from the fields of its row and
+ * the hashes of its sub rows. The comparison only descends into subtrees whose hashes differ, so graphs that are mostly
+ * equal are compared with hash comparisons. <p>
+ *
+ * To be comparable, the primary keys of the graphs should be canonicalized first
+ * (refer to {@link RecordCanonicalizer#canonicalizeIds(Connection, DbRecord)}). Sub rows are matched by their hash
+ * (so equal sub rows match even if their order differs) and then by their {@link RowLink}.
+ */
+public class RecordDiff {
+
+    public enum Kind {
+        /** the row (with its sub rows) is only in the left graph */
+        ROW_ONLY_LEFT,
+        /** the row (with its sub rows) is only in the right graph */
+        ROW_ONLY_RIGHT,
+        /** a field of a row differs */
+        FIELD_CHANGED
+    }
+
+    /**
+     * One difference. For {@link Kind#ROW_ONLY_LEFT} right is null (and vice versa), fieldName and the values are
+     * only set for {@link Kind#FIELD_CHANGED}.
+     */
+    public record Difference(Kind kind, RowLink left, RowLink right, String fieldName, Object leftValue, Object rightValue) {
+        @Override
+        public String toString() {
+            switch (kind) {
+                case ROW_ONLY_LEFT:
+                    return "only left: " + left;
+                case ROW_ONLY_RIGHT:
+                    return "only right: " + right;
+                default:
+                    return left + "." + fieldName + ": " + leftValue + " <> " + rightValue;
+            }
+        }
+    }
+
+    /** hash of a subtree (the first 128 bits of a SHA-256) */
+    private record Hash(long high, long low) implements Comparable<Hash> {
+        @Override
+        public int compareTo(Hash other) {
+            int result = Long.compare(high, other.high);
+            return result != 0 ? result : Long.compare(low, other.low);
+        }
+    }
+
+    private final Map<DbRecord, Hash> hashes = new IdentityHashMap<>();
+    private final Map<DbRecord, ObjectNode> fields = new IdentityHashMap<>();
+    private final List<Difference> differences = new ArrayList<>();
+
+    private RecordDiff() { }
+
+    /** @return the differences between the 2 graphs (empty if they are equal) */
+    public static List<Difference> compare(DbRecord left, DbRecord right) {
+        RecordDiff diff = new RecordDiff();
+        diff.diff(left, right);
+        return diff.differences;
+    }
+
+    /** @return true if the 2 graphs are equal (compares their hashes) */
+    public static boolean isEqual(DbRecord left, DbRecord right) {
+        RecordDiff diff = new RecordDiff();
+        return diff.hashOf(left).equals(diff.hashOf(right));
+    }
+
+    /**
+     * Compare the records of 2 stores (e.g. 2 canonicalized graphs that do not fit into memory). Other than
+     * {@link #compare(DbRecord, DbRecord)} the rows are matched by their {@link RowLink} (without the tree structure),
+     * only 1 record per store is read at a time.
+     * @return the differences (empty if the stores have the same records)
+     */
+    public static List<Difference> compare(DiskRecordStore left, DiskRecordStore right) throws SQLException {
+        RecordDiff diff = new RecordDiff();
+        left.visitRecords(l -> {
+            DbRecord r = right.get(l.getRowLink());
+            if (r == null) {
+                diff.differences.add(new Difference(Kind.ROW_ONLY_LEFT, l.getRowLink(), null, null, null, null));
+            } else {
+                diff.diffFields(l, RecordDelta.fieldsAsJson(l), r, RecordDelta.fieldsAsJson(r));
+            }
+            return null;
+        });
+        right.visitRecords(r -> {
+            if (!left.contains(r.getRowLink())) {
+                diff.differences.add(new Difference(Kind.ROW_ONLY_RIGHT, null, r.getRowLink(), null, null, null));
+            }
+            return null;
+        });
+        return diff.differences;
+    }
+
+    /**
+     * Compare the graphs of the given root rows in 2 dbs (e.g. production and staging). Each graph is exported and
+     * canonicalized (with the exporter of its side) before it is compared.
+     * @return per root row that differs: its differences (a root row that only exists in one db is ROW_ONLY_LEFT/ROW_ONLY_RIGHT)
+     */
+    public static Map<RowLink, List<Difference>> compare(Connection left, DbExporter leftExporter,
+                                                         Connection right, DbExporter rightExporter,
+                                                         String tableName, List<Object[]> pkValues) throws Exception {
+        Map<RowLink, List<Difference>> result = new LinkedHashMap<>();
+        for (Object[] pks : pkValues) {
+            RowLink root = new RowLink(tableName, pks);
+            DbRecord leftRecord = canonicalRecord(left, leftExporter, tableName, pks);
+            DbRecord rightRecord = canonicalRecord(right, rightExporter, tableName, pks);
+
+            List<Difference> differences;
+            if (leftRecord == null && rightRecord == null) {
+                continue;
+            } else if (leftRecord == null) {
+                differences = List.of(new Difference(Kind.ROW_ONLY_RIGHT, null, root, null, null, null));
+            } else if (rightRecord == null) {
+                differences = List.of(new Difference(Kind.ROW_ONLY_LEFT, root, null, null, null, null));
+            } else {
+                differences = compare(leftRecord, rightRecord);
+            }
+
+            if (!differences.isEmpty()) {
+                result.put(root, differences);
+            }
+        }
+        return result;
+    }
+
+    /** refer to {@link #compare(Connection, DbExporter, Connection, DbExporter, String, List)} (with default exporters) */
+    public static Map<RowLink, List<Difference>> compare(Connection left, Connection right,
+                                                         String tableName, List<Object[]> pkValues) throws Exception {
+        return compare(left, new DbExporter(), right, new DbExporter(), tableName, pkValues);
+    }
+
+    /** @return the canonicalized graph or null if the root row does not exist */
+    private static DbRecord canonicalRecord(Connection connection, DbExporter dbExporter, String tableName, Object[] pks) throws Exception {
+        DbRecord dbRecord;
+        try {
+            dbRecord = dbExporter.contentAsTree(connection, tableName, pks);
+        } catch (IllegalArgumentException e) {
+            return null; // root row not found
+        }
+        RecordCanonicalizer.canonicalizeIds(connection, dbRecord, dbExporter.getFkCache(), dbExporter.getPkCache());
+        return dbRecord;
+    }
+
+    private void diff(DbRecord left, DbRecord right) {
+        if (hashOf(left).equals(hashOf(right))) {
+            return;
+        }
+
+        diffFields(left, fieldsOf(left), right, fieldsOf(right));
+
+        Map<String, List<DbRecord>> leftSubRows = subRowsOf(left);
+        Map<String, List<DbRecord>> rightSubRows = subRowsOf(right);
+        Set<String> subRowNames = new LinkedHashSet<>(leftSubRows.keySet());
+        subRowNames.addAll(rightSubRows.keySet());
+        for (String subRowName : subRowNames) {
+            diffSubRows(leftSubRows.getOrDefault(subRowName, List.of()), rightSubRows.getOrDefault(subRowName, List.of()));
+        }
+    }
+
+    private void diffFields(DbRecord left, ObjectNode leftFields, DbRecord right, ObjectNode rightFields) {
+        Set<String> fieldNames = new LinkedHashSet<>(left.getFieldNames());
+        fieldNames.addAll(right.getFieldNames());
+        for (String fieldName : fieldNames) {
+            // compared as text (like for the hash), e.g. an int and a long with the same value are equal
+            if (!String.valueOf(leftFields.get(fieldName)).equals(String.valueOf(rightFields.get(fieldName)))) {
+                differences.add(new Difference(Kind.FIELD_CHANGED, left.getRowLink(), right.getRowLink(), fieldName,
+                        valueOf(left, fieldName), valueOf(right, fieldName)));
+            }
+        }
+    }
+
+    /** match the sub rows by hash (these are equal), then by RowLink (these are compared) */
+    private void diffSubRows(List<DbRecord> left, List<DbRecord> right) {
+        Map<Hash, Deque<DbRecord>> rightByHash = new HashMap<>();
+        right.forEach(r -> rightByHash.computeIfAbsent(hashOf(r), h -> new ArrayDeque<>()).add(r));
+
+        List<DbRecord> unmatchedLeft = new ArrayList<>();
+        for (DbRecord l : left) {
+            Deque<DbRecord> sameHash = rightByHash.get(hashOf(l));
+            if (sameHash != null && !sameHash.isEmpty()) {
+                sameHash.poll();
+            } else {
+                unmatchedLeft.add(l);
+            }
+        }
+        Map<RowLink, DbRecord> unmatchedRight = new LinkedHashMap<>();
+        rightByHash.values().forEach(d -> d.forEach(r -> unmatchedRight.put(r.getRowLink(), r)));
+
+        for (DbRecord l : unmatchedLeft) {
+            DbRecord r = unmatchedRight.remove(l.getRowLink());
+            if (r != null) {
+                diff(l, r);
+            } else {
+                l.visitRecords(row -> differences.add(new Difference(Kind.ROW_ONLY_LEFT, row.getRowLink(), null, null, null, null)));
+            }
+        }
+        unmatchedRight.values().forEach(r ->
+                r.visitRecords(row -> differences.add(new Difference(Kind.ROW_ONLY_RIGHT, null, row.getRowLink(), null, null, null))));
+    }
+
+    private Hash hashOf(DbRecord dbRecord) {
+        Hash hash = hashes.get(dbRecord);
+        if (hash != null) {
+            return hash;
+        }
+
+        MessageDigest digest = newDigest();
+        update(digest, dbRecord.getRowLink().getTableName());
+        ObjectNode values = fieldsOf(dbRecord);
+        for (String fieldName : dbRecord.getFieldNames()) {
+            update(digest, fieldName);
+            update(digest, String.valueOf(values.get(fieldName)));
+        }
+        for (Map.Entry<String, List<DbRecord>> subRows : subRowsOf(dbRecord).entrySet()) {
+            update(digest, subRows.getKey());
+            // sorted: the order of the sub rows does not matter
+            subRows.getValue().stream().map(this::hashOf).sorted()
+                    .forEach(h -> digest.update(ByteBuffer.allocate(16).putLong(h.high).putLong(h.low).array()));
+        }
+
+        ByteBuffer result = ByteBuffer.wrap(digest.digest());
+        hash = new Hash(result.getLong(), result.getLong());
+        hashes.put(dbRecord, hash);
+        return hash;
+    }
+
+    private ObjectNode fieldsOf(DbRecord dbRecord) {
+        return fields.computeIfAbsent(dbRecord, RecordDelta::fieldsAsJson);
+    }
+
+    private static Object valueOf(DbRecord dbRecord, String fieldName) {
+        DbRecord.FieldAndValue field = dbRecord.findElementWithName(fieldName);
+        return field != null ? field.getValue() : null;
+    }
+
+    /** @return the sub rows per field and sub table (key is fieldName/subTable) */
+    private static Map<String, List<DbRecord>> subRowsOf(DbRecord dbRecord) {
+        Map<String, List<DbRecord>> result = new LinkedHashMap<>();
+        for (DbRecord.FieldAndValue field : dbRecord.getContent()) {
+            field.getSubRow().forEach((subTable, subRows) -> result.put(field.getName() + "/" + subTable.toLowerCase(), subRows));
+        }
+        return result;
+    }
+
+    private static void update(MessageDigest digest, String text) {
+        digest.update(text.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
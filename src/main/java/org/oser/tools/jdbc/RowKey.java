@@ -0,0 +1,137 @@
+package org.oser.tools.jdbc;
+
+import java.util.Arrays;
+
+/**
+ * Compact internal form of a {@link RowLink}: a table ordinal (refer to {@link RowKeyMap}) and the primary key.
+ * A numeric single-column key is a primitive long, numeric composite keys are a long[], other keys an Object[]. <p>
+ *
+ * Is equal if the {@link RowLink}s are equal (numbers and their string form are the same key).
+ */
+final class RowKey {
+    private static final Object NULL_PKS = new Object();
+
+    private final int table;
+    private final long numericPk;
+    /** null for a numeric single-column key, else a long[], an Object[] or NULL_PKS */
+    private final Object packedPks;
+
+    private RowKey(int table, long numericPk, Object packedPks) {
+        this.table = table;
+        this.numericPk = numericPk;
+        this.packedPks = packedPks;
+    }
+
+    static RowKey of(int table, Object[] pks) {
+        if (pks == null || Arrays.stream(pks).anyMatch(pk -> pk == null)) {
+            return new RowKey(table, 0, NULL_PKS); // like RowLink: tableName/null
+        }
+        if (pks.length == 1 && isNumeric(pks[0])) {
+            return new RowKey(table, asLong(pks[0]), null);
+        }
+
+        boolean allNumeric = true;
+        for (Object pk : pks) {
+            allNumeric &= isNumeric(pk);
+        }
+        if (allNumeric) {
+            long[] numericPks = new long[pks.length];
+            for (int i = 0; i < pks.length; i++) {
+                numericPks[i] = asLong(pks[i]);
+            }
+            return new RowKey(table, 0, numericPks);
+        }
+
+        Object[] normalized = new Object[pks.length];
+        for (int i = 0; i < pks.length; i++) {
+            normalized[i] = RowLink.normalizePk(pks[i]);
+        }
+        return new RowKey(table, 0, normalized);
+    }
+
+    int getTable() {
+        return table;
+    }
+
+    /** @return the primary key values as in a {@link RowLink} */
+    Object[] getPks() {
+        if (packedPks == null) {
+            return new Object[]{numericPk};
+        } else if (packedPks instanceof long[]) {
+            return Arrays.stream((long[]) packedPks).boxed().toArray();
+        } else if (packedPks == NULL_PKS) {
+            return null;
+        }
+        return ((Object[]) packedPks).clone();
+    }
+
+    /** @return true for numbers and for strings that are the string form of a long (as {@link RowLink}s with them are equal) */
+    static boolean isNumeric(Object pk) {
+        if (pk instanceof Number) {
+            return true; // like RowLink#normalizePk
+        }
+        if (!(pk instanceof String)) {
+            return false;
+        }
+        String s = (String) pk;
+        int start = s.startsWith("-") ? 1 : 0;
+        int digits = s.length() - start;
+        if (digits < 1 || digits > 19 || (s.charAt(start) == '0' && (digits > 1 || start == 1))) {
+            return false;
+        }
+        for (int i = start; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        try {
+            Long.parseLong(s);
+            return true;
+        } catch (NumberFormatException e) {
+            return false; // overflow
+        }
+    }
+
+    /** only for {@link #isNumeric(Object)} values */
+    static long asLong(Object pk) {
+        return pk instanceof Number ? ((Number) pk).longValue() : Long.parseLong((String) pk);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RowKey)) return false;
+        RowKey other = (RowKey) o;
+        if (table != other.table || numericPk != other.numericPk) {
+            return false;
+        }
+        if (packedPks == null || other.packedPks == null || packedPks == NULL_PKS || other.packedPks == NULL_PKS) {
+            return packedPks == other.packedPks;
+        }
+        if (packedPks instanceof long[] && other.packedPks instanceof long[]) {
+            return Arrays.equals((long[]) packedPks, (long[]) other.packedPks);
+        }
+        if (packedPks instanceof Object[] && other.packedPks instanceof Object[]) {
+            return RowLink.samePks((Object[]) packedPks, (Object[]) other.packedPks);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 31 * table + Long.hashCode(numericPk);
+        if (packedPks instanceof long[]) {
+            hash = 31 * hash + Arrays.hashCode((long[]) packedPks);
+        } else if (packedPks instanceof Object[]) {
+            for (Object pk : (Object[]) packedPks) {
+                hash = 31 * hash + RowLink.pkHash(pk);
+            }
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return table + "/" + (packedPks == null ? Long.toString(numericPk) : Arrays.toString(getPks()));
+    }
+}
@@ -0,0 +1,152 @@
+package org.oser.tools.jdbc;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Map with {@link RowLink} keys that stores them as {@link RowKey}s (with table ordinals instead of table names).
+ * {@link #get(String, Object[])} and {@link #containsKey(String, Object[])} look up rows without creating a
+ * {@link RowLink}, {@link #containsTable(String)} does not iterate over the rows. <p>
+ *
+ * The {@link RowLink}s of the keys are only created when iterating. Table names are case-insensitive (as in RowLink).
+ */
+final class RowKeyMap<V> extends AbstractMap<RowLink, V> {
+    /** lower case table name -> ordinal */
+    private final Map<String, Integer> tableOrdinals = new HashMap<>();
+    private final List<String> tableNames = new ArrayList<>();
+    private int[] rowsPerTable = new int[8];
+
+    private final Map<RowKey, V> entries = new HashMap<>();
+
+    V get(String tableName, Object[] pks) {
+        RowKey key = keyOf(tableName, pks, false);
+        return key != null ? entries.get(key) : null;
+    }
+
+    boolean containsKey(String tableName, Object[] pks) {
+        RowKey key = keyOf(tableName, pks, false);
+        return key != null && entries.containsKey(key);
+    }
+
+    /** @return true if there is a row of the table */
+    boolean containsTable(String tableName) {
+        Integer ordinal = tableOrdinals.get(tableName.toLowerCase());
+        return ordinal != null && rowsPerTable[ordinal] > 0;
+    }
+
+    V put(String tableName, Object[] pks, V value) {
+        RowKey key = keyOf(tableName, pks, true);
+        V previous = entries.put(key, value);
+        if (previous == null) {
+            rowsPerTable[key.getTable()]++;
+        }
+        return previous;
+    }
+
+    @Override
+    public V get(Object key) {
+        return key instanceof RowLink ? get(((RowLink) key).getTableName(), ((RowLink) key).getPks()) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof RowLink && containsKey(((RowLink) key).getTableName(), ((RowLink) key).getPks());
+    }
+
+    @Override
+    public V put(RowLink key, V value) {
+        return put(key.getTableName(), key.getPks(), value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (!(key instanceof RowLink)) {
+            return null;
+        }
+        RowKey rowKey = keyOf(((RowLink) key).getTableName(), ((RowLink) key).getPks(), false);
+        if (rowKey == null || !entries.containsKey(rowKey)) {
+            return null;
+        }
+        rowsPerTable[rowKey.getTable()]--;
+        return entries.remove(rowKey);
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        rowsPerTable = new int[rowsPerTable.length];
+    }
+
+    @Override
+    public Set<Entry<RowLink, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<RowLink, V>> iterator() {
+                Iterator<Entry<RowKey, V>> iterator = entries.entrySet().iterator();
+                return new Iterator<>() {
+                    private RowKey current;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<RowLink, V> next() {
+                        Entry<RowKey, V> entry = iterator.next();
+                        current = entry.getKey();
+                        return new SimpleEntry<>(new RowLink(tableNames.get(current.getTable()), current.getPks()), entry.getValue()) {
+                            @Override
+                            public V setValue(V value) {
+                                super.setValue(value);
+                                return entry.setValue(value);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        iterator.remove();
+                        rowsPerTable[current.getTable()]--;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+        };
+    }
+
+    /** @return the key or null if the table is not known (and create is false) */
+    private RowKey keyOf(String tableName, Object[] pks, boolean create) {
+        String lowerCase = tableName.toLowerCase();
+        Integer ordinal = tableOrdinals.get(lowerCase);
+        if (ordinal == null) {
+            if (!create) {
+                return null;
+            }
+            ordinal = tableNames.size();
+            tableOrdinals.put(lowerCase, ordinal);
+            tableNames.add(lowerCase);
+            if (ordinal >= rowsPerTable.length) {
+                int[] larger = new int[rowsPerTable.length * 2];
+                System.arraycopy(rowsPerTable, 0, larger, 0, rowsPerTable.length);
+                rowsPerTable = larger;
+            }
+        }
+        return RowKey.of(ordinal, pks);
+    }
+}
@@ -66,17 +66,65 @@ public class RowLink {
     @Setter
     private Object[] pks;
 
+    /** equal if the string representations are equal (but without creating them) */
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
-        String asString = o.toString();
-        return asString.equals(this.toString());
+        RowLink other = (RowLink) o;
+        return Objects.equals(tableName, other.tableName) && samePks(pks, other.pks);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(this.toString());
+        int hash = Objects.hashCode(tableName);
+        if (notNull(pks)) {
+            for (Object pk : pks) {
+                hash = 31 * hash + pkHash(pk);
+            }
+        }
+        return hash;
+    }
+
+    /** @return true if the pks have the same string representation (a pk that is null makes all pks "null") */
+    static boolean samePks(Object[] pks, Object[] otherPks) {
+        boolean isNull = !notNull(pks);
+        boolean otherIsNull = !notNull(otherPks);
+        if (isNull || otherIsNull) {
+            return isNull == otherIsNull;
+        }
+        if (pks.length != otherPks.length) {
+            return false;
+        }
+        for (int i = 0; i < pks.length; i++) {
+            if (!pks[i].equals(otherPks[i]) && !pks[i].toString().equals(otherPks[i].toString())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return the hash code of the string representation of the pk (for longs without creating the string) */
+    static int pkHash(Object pk) {
+        if (!(pk instanceof Long) || (Long) pk == Long.MIN_VALUE) {
+            return pk.toString().hashCode();
+        }
+
+        // String#hashCode of the decimal digits
+        long value = (Long) pk;
+        int hash = 0;
+        if (value < 0) {
+            hash = '-';
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            hash = 31 * hash + ('0' + (int) (value / divisor % 10));
+        }
+        return hash;
     }
 
     @Override
@@ -84,7 +132,7 @@ public class RowLink {
         return tableName + "/" + (notNull(pks) ? Stream.of(pks).map(Object::toString).collect(Collectors.joining("/")): "null");
     }
 
-    private boolean notNull(Object[] pks) {
+    private static boolean notNull(Object[] pks) {
         return pks != null && Arrays.stream(pks).allMatch(e -> e != null);
     }
 
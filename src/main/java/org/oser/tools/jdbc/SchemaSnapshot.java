@@ -0,0 +1,149 @@
+package org.oser.tools.jdbc;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * Captured FK, PK and column metadata of the tables that are reachable (via fks) from some root tables. Allows
+ * canonicalizing and ordering records without a db connection (refer to
+ * {@link RecordCanonicalizer#canonicalizeIds(SchemaSnapshot, DbRecord)},
+ * {@link DbRecord#visitRecordsInInsertionOrder(SchemaSnapshot, CheckedFunction, boolean)} and
+ * {@link DbImporter#jsonToRecord(SchemaSnapshot, String, String)}) and pre-filling the metadata caches of
+ * {@link DbImporter} and {@link DbExporter} (to avoid the round trips to the db catalog). <p>
+ *
+ * Is serializable (and can be stored as JSON with {@link #asJson()}).
+ */
+@Getter
+public class SchemaSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String dbProductName;
+    /** table name -> fks of the table (as {@link Fk#getFksOfTable(Connection, String)}), case-insensitive */
+    private final TreeMap<String, List<Fk>> fks = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    /** table name -> primary key names, case-insensitive */
+    private final TreeMap<String, List<String>> pks = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    /** table name -> column metadata, case-insensitive */
+    private final TreeMap<String, SortedMap<String, JdbcHelpers.ColumnMetadata>> columns = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    private SchemaSnapshot() { }
+
+    /** Capture the metadata of the root tables and all tables that are reachable from them via fks */
+    public static SchemaSnapshot capture(Connection connection, String... rootTables) throws SQLException {
+        SchemaSnapshot snapshot = new SchemaSnapshot();
+        DatabaseMetaData metaData = connection.getMetaData();
+        snapshot.dbProductName = metaData.getDatabaseProductName();
+
+        Set<String> seen = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        Deque<String> toTreat = new ArrayDeque<>();
+        Stream.of(rootTables).filter(seen::add).forEach(toTreat::add);
+        while (!toTreat.isEmpty()) {
+            String table = toTreat.poll();
+            List<Fk> fksOfTable = Fk.getFksOfTable(connection, table);
+            snapshot.fks.put(table, fksOfTable);
+            snapshot.pks.put(table, JdbcHelpers.getPrimaryKeys(metaData, table));
+            snapshot.columns.put(table, JdbcHelpers.getColumnMetadata(metaData, table));
+
+            for (Fk fk : fksOfTable) {
+                Stream.of(fk.getPktable(), fk.getFktable()).filter(seen::add).forEach(toTreat::add);
+            }
+        }
+        return snapshot;
+    }
+
+    public boolean containsTable(String tableName) {
+        return fks.containsKey(tableName);
+    }
+
+    /** @throws IllegalArgumentException if the table is not part of the snapshot */
+    void assertContainsTable(String tableName) {
+        if (!containsTable(tableName)) {
+            throw new IllegalArgumentException("Table " + tableName + " is not in the schema snapshot " + fks.keySet());
+        }
+    }
+
+    /** @return a new fk cache that holds all fks of the snapshot */
+    public Cache<String, List<Fk>> newFkCache() {
+        Cache<String, List<Fk>> fkCache = Caffeine.newBuilder().build();
+        fillCaches(fkCache, null, null);
+        return fkCache;
+    }
+
+    /** @return a new primary key cache that holds all primary keys of the snapshot */
+    public Cache<String, List<String>> newPkCache() {
+        Cache<String, List<String>> pkCache = Caffeine.newBuilder().build();
+        fillCaches(null, pkCache, null);
+        return pkCache;
+    }
+
+    /** put the metadata into the caches (the caches that are null are left out) */
+    void fillCaches(Cache<String, List<Fk>> fkCache, Cache<String, List<String>> pkCache,
+                    Cache<String, SortedMap<String, JdbcHelpers.ColumnMetadata>> metadataCache) {
+        for (String table : fks.keySet()) {
+            // the caches are case-sensitive, table names are looked up as they are in the db or in lower case
+            for (String name : new HashSet<>(List.of(table, table.toLowerCase(), table.toUpperCase()))) {
+                if (fkCache != null) {
+                    fkCache.put(name, fks.get(table));
+                }
+                if (pkCache != null) {
+                    pkCache.put(name, pks.get(table));
+                }
+                if (metadataCache != null) {
+                    metadataCache.put(name, columns.get(table));
+                }
+            }
+        }
+    }
+
+    public String asJson() throws IOException {
+        return getMapper().writeValueAsString(this);
+    }
+
+    public static SchemaSnapshot fromJson(String json) throws IOException {
+        SchemaSnapshot read = getMapper().readValue(json, SchemaSnapshot.class);
+
+        // the maps must be case-insensitive again
+        SchemaSnapshot snapshot = new SchemaSnapshot();
+        snapshot.dbProductName = read.dbProductName;
+        snapshot.fks.putAll(read.fks);
+        snapshot.pks.putAll(read.pks);
+        read.columns.forEach((table, columnsOfTable) -> {
+            SortedMap<String, JdbcHelpers.ColumnMetadata> caseInsensitive = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            caseInsensitive.putAll(columnsOfTable);
+            snapshot.columns.put(table, caseInsensitive);
+        });
+        return snapshot;
+    }
+
+    private static ObjectMapper getMapper() {
+        // fields only (Fk has convenience getters that are not properties)
+        return new ObjectMapper()
+                .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
+                .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+                .enable(SerializationFeature.INDENT_OUTPUT);
+    }
+
+    @Override
+    public String toString() {
+        return "SchemaSnapshot{" + dbProductName + ", tables=" + fks.keySet() + "}";
+    }
+}
@@ -0,0 +1,167 @@
+package org.oser.tools.jdbc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link LobValue} whose content is stored in a temporary file (instead of on the heap), it is read via memory mapping.
+ * Character data is stored UTF-8 encoded. <p>
+ *
+ * The file is not deleted automatically: the owner of the record with the value (the caller of the export or of
+ * {@link BinaryRecordReader#read()}) deletes it with {@link #delete()} or {@link DbRecord#deleteSpilledLobs()} once it is
+ * no longer needed. The files that are left are deleted when the JVM exits.
+ */
+public class SpilledLob implements LobValue {
+    /** how much of the file is mapped at a time */
+    private static final int MAPPED_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final Path file;
+    private final boolean character;
+    /** in bytes or characters */
+    private final long length;
+    private final long byteLength;
+
+    private SpilledLob(Path file, boolean character, long length, long byteLength) {
+        this.file = file;
+        this.character = character;
+        this.length = length;
+        this.byteLength = byteLength;
+    }
+
+    /** Store binary data (the stream is read to its end, but not closed) */
+    public static SpilledLob ofBinary(InputStream inputStream) throws IOException {
+        Path file = createTempFile();
+        long byteLength;
+        try (OutputStream out = Files.newOutputStream(file)) {
+            byteLength = inputStream.transferTo(out);
+        }
+        return new SpilledLob(file, false, byteLength, byteLength);
+    }
+
+    /** Store character data (the reader is read to its end, but not closed) */
+    public static SpilledLob ofCharacter(Reader reader) throws IOException {
+        Path file = createTempFile();
+        long length;
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            length = reader.transferTo(out);
+        }
+        return new SpilledLob(file, true, length, Files.size(file));
+    }
+
+    private static Path createTempFile() throws IOException {
+        return TempFiles.create(null, "linked-db-rows-lob");
+    }
+
+    @Override
+    public boolean isCharacter() {
+        return character;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /** @return the length of the file (for character data the length of its UTF-8 encoding) */
+    public long byteLength() {
+        return byteLength;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /** the file content as stream (for character data UTF-8 encoded), does not need to be closed */
+    InputStream openFileStream() {
+        return new MappedInputStream(file, byteLength);
+    }
+
+    @Override
+    public InputStream openBinaryStream() {
+        if (character) {
+            throw new IllegalStateException("Character data cannot be read as binary stream " + this);
+        }
+        return openFileStream();
+    }
+
+    @Override
+    public Reader openCharacterStream() {
+        if (!character) {
+            throw new IllegalStateException("Binary data cannot be read as character stream " + this);
+        }
+        return new InputStreamReader(openFileStream(), StandardCharsets.UTF_8);
+    }
+
+    /** delete the temporary file (the value cannot be read anymore) */
+    public void delete() throws IOException {
+        TempFiles.delete(file);
+    }
+
+    @Override
+    public String toString() {
+        return "SpilledLob{" + file + ", length=" + length + (character ? ", character" : "") + "}";
+    }
+
+    /** reads a file by mapping one window of it after the other */
+    private static class MappedInputStream extends InputStream {
+        private final Path file;
+        private final long size;
+        private long windowStart = 0;
+        private MappedByteBuffer window;
+
+        MappedInputStream(Path file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+
+        /** @return false at the end of the file */
+        private boolean ensureWindow() throws IOException {
+            if (window != null && window.hasRemaining()) {
+                return true;
+            }
+            long nextStart = window == null ? 0 : windowStart + window.capacity();
+            if (nextStart >= size) {
+                return false;
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                // the mapping stays valid after the channel is closed
+                window = channel.map(FileChannel.MapMode.READ_ONLY, nextStart, Math.min(MAPPED_WINDOW_SIZE, size - nextStart));
+            }
+            windowStart = nextStart;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return ensureWindow() ? (window.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureWindow()) {
+                return -1;
+            }
+            int toRead = Math.min(len, window.remaining());
+            window.get(b, off, toRead);
+            return toRead;
+        }
+
+        @Override
+        public int available() {
+            return window == null ? (int) Math.min(size, Integer.MAX_VALUE) : window.remaining();
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package org.oser.tools.jdbc;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static org.oser.tools.jdbc.DbImporter.JSON_SUBTABLE_SUFFIX;
+
+/**
+ * Inserts a JSON document (as exported with {@link DbExporter}) while parsing it with Jackson's {@link JsonParser}.
+ * Used by {@link DbImporter#insertJsonStream(Connection, String, InputStream, Map)}. <p>
+ *
+ * Each JSON object becomes a record (without sub records) when its end is reached. The record is inserted right away
+ * if the rows it links to (via its fks) are inserted already or are not part of the document. Otherwise it waits for them.
+ * If more than {@link DbImporter#setMaxPendingRecords(int)} records wait, they are written to a {@link DiskRecordStore}
+ * and inserted at the end in the insertion order of the tables (as with {@link DbImporter#insertRecords(Connection, DbRecord, Map)}),
+ * one record at a time. <p>
+ *
+ * CAVEAT: Rows that are referenced before they occur in the document are treated as already existing rows
+ *  (this does not happen with the documents that {@link DbExporter} writes: referenced rows are nested or come before).
+ */
+class StreamingJsonImport {
+    static final int DEFAULT_MAX_PENDING_RECORDS = 10_000;
+
+    private final DbImporter importer;
+    private final Connection connection;
+    private final Map<RowLink, DbImporter.Remap> newKeys;
+    private final Set<RowLink> rowLinksNotToInsert;
+    private final ObjectMapper mapper = DbRecord.getObjectMapper();
+    private final String dbProductName;
+
+    /** rows of the document that are not inserted yet: the open JSON objects (if their pk is known already) and the pending ones */
+    private final Map<RowLink, Node> notInserted = new HashMap<>();
+    /** complete records that wait for other rows */
+    private final Set<Node> pending = new LinkedHashSet<>();
+
+    private final Set<RowLink> spilledRowLinks = new HashSet<>();
+    /** the spilled records (created with the first one) */
+    private DiskRecordStore spilled;
+
+    StreamingJsonImport(DbImporter importer, Connection connection, Map<RowLink, DbImporter.Remap> newKeys) throws SQLException {
+        this.importer = importer;
+        this.connection = connection;
+        this.newKeys = newKeys;
+        this.rowLinksNotToInsert = newKeys.keySet();
+        this.dbProductName = connection.getMetaData().getDatabaseProductName();
+    }
+
+    Map<RowLink, DbImporter.Remap> importJson(String rootTable, InputStream json) throws IOException, SQLException {
+        try (JsonParser parser = mapper.getFactory().createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("JSON does not start with an object.");
+            }
+            readRecord(parser, rootTable, null);
+
+            insertRemaining(rootTable);
+        } finally {
+            if (spilled != null) {
+                spilled.close();
+            }
+        }
+        return newKeys;
+    }
+
+    /** the parser is on the start of the object */
+    private void readRecord(JsonParser parser, String tableName, Node parent) throws IOException, SQLException {
+        Node node = new Node(tableName, parent);
+        ObjectNode fields = mapper.createObjectNode();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.currentName();
+            JsonToken token = parser.nextToken();
+
+            if (token.isScalarValue()) {
+                fields.set(key, mapper.readTree(parser));
+            } else {
+                String subTableName = getSubTableName(tableName, key);
+                if (subTableName != null) {
+                    identifyOpenNode(node, fields);
+                    readSubRecords(parser, subTableName, node);
+                } else {
+                    parser.skipChildren(); // e.g. _metadata
+                }
+            }
+        }
+
+        node.dbRecord = importer.jsonFieldsToRecord(connection, tableName, fields);
+        node.rowLink = node.dbRecord.getRowLink();
+        complete(node);
+    }
+
+    private void readSubRecords(JsonParser parser, String subTableName, Node parent) throws IOException, SQLException {
+        if (parser.currentToken() == JsonToken.START_OBJECT) {
+            readRecord(parser, subTableName, parent);
+            return;
+        }
+
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+            if (token == JsonToken.START_OBJECT) {
+                readRecord(parser, subTableName, parent);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /** @return the name of the subtable if the key is a subtable entry (e.g. author_id*author*) of an fk of the table, otherwise null */
+    private String getSubTableName(String tableName, String key) throws SQLException {
+        int firstSuffix = key.indexOf(JSON_SUBTABLE_SUFFIX);
+        if (firstSuffix < 1 || firstSuffix == key.length() - 1 || !key.endsWith(JSON_SUBTABLE_SUFFIX)) {
+            return null;
+        }
+        String fieldName = key.substring(0, firstSuffix);
+        String subTableInKey = key.substring(firstSuffix + 1, key.length() - 1);
+
+        for (Fk fk : Fk.getFksOfTable(connection, tableName, importer.getFkCache())) {
+            String[] elementPkName = fk.isInverted() ? fk.getFkcolumn() : fk.getPkcolumn();
+            String subTableName = Fk.getSubtableName(fk, dbProductName);
+            if (elementPkName[0].equalsIgnoreCase(fieldName) && subTableName.equalsIgnoreCase(subTableInKey)) {
+                return subTableName;
+            }
+        }
+        return null;
+    }
+
+    /** register a node whose sub records we read (so they can wait for it), once we know its primary key */
+    private void identifyOpenNode(Node node, ObjectNode fieldsSoFar) throws SQLException {
+        if (node.rowLink != null) {
+            return;
+        }
+        RowLink rowLink = importer.jsonFieldsToRecord(connection, node.tableName, fieldsSoFar).getRowLink();
+        if (isComplete(rowLink)) {
+            node.rowLink = rowLink;
+            notInserted.putIfAbsent(rowLink, node);
+        }
+    }
+
+    private void complete(Node node) throws SQLException, IOException {
+        Set<Node> dependencies = new LinkedHashSet<>();
+
+        for (Fk fk : Fk.getFksOfTable(connection, node.tableName, importer.getFkCache())) {
+            if (!fk.isInverted()) {
+                continue; // only the side with the foreign key depends on the other one
+            }
+            RowLink target = getReferencedRowLink(node.dbRecord, fk);
+            if (target == null) {
+                continue;
+            }
+            if (spilledRowLinks.contains(target)) {
+                spill(node);
+                return;
+            }
+
+            Node dependency = notInserted.get(target);
+            if (dependency != null) {
+                dependencies.add(dependency);
+            } else {
+                // the referenced row could be an enclosing object whose primary key we do not know yet
+                for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+                    if (ancestor.rowLink == null && ancestor.tableName.equalsIgnoreCase(fk.getPktable())) {
+                        dependencies.add(ancestor);
+                    }
+                }
+            }
+        }
+        dependencies.remove(node);
+
+        if (dependencies.isEmpty()) {
+            insert(node);
+            return;
+        }
+
+        node.missing = dependencies.size();
+        dependencies.forEach(d -> d.dependents.add(node));
+        pending.add(node);
+        if (isComplete(node.rowLink)) {
+            notInserted.put(node.rowLink, node);
+        }
+
+        if (pending.size() > importer.getMaxPendingRecords()) {
+            spillPending();
+        }
+    }
+
+    /** @return the row the fk of the record points to (null if the fk is null or does not point to the primary key) */
+    private RowLink getReferencedRowLink(DbRecord dbRecord, Fk fk) throws SQLException {
+        List<String> targetPks = JdbcHelpers.getPrimaryKeys(connection.getMetaData(), fk.getPktable(), importer.getPkCache());
+        if (targetPks.size() != fk.getPkcolumn().length) {
+            return null;
+        }
+
+        Object[] pkValues = new Object[targetPks.size()];
+        for (int i = 0; i < fk.getPkcolumn().length; i++) {
+            int position = indexOfIgnoreCase(targetPks, fk.getPkcolumn()[i]);
+            DbRecord.FieldAndValue field = dbRecord.findElementWithName(fk.getFkcolumn()[i]);
+            if (position < 0 || field == null || field.getValue() == null) {
+                return null;
+            }
+            pkValues[position] = field.getValue();
+        }
+        return new RowLink(fk.getPktable(), pkValues);
+    }
+
+    private static int indexOfIgnoreCase(List<String> list, String element) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).equalsIgnoreCase(element)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isComplete(RowLink rowLink) {
+        return rowLink.getPks() != null && rowLink.getPks().length > 0 && Arrays.stream(rowLink.getPks()).allMatch(Objects::nonNull);
+    }
+
+    /** insert the node and all nodes that only waited for it */
+    private void insert(Node first) throws SQLException {
+        Deque<Node> toInsert = new ArrayDeque<>();
+        toInsert.add(first);
+
+        while (!toInsert.isEmpty()) {
+            Node node = toInsert.poll();
+            if (!rowLinksNotToInsert.contains(node.rowLink)) {
+                importer.insertOneRecord(connection, node.dbRecord, newKeys);
+            }
+
+            node.inserted = true;
+            node.dbRecord = null;
+            pending.remove(node);
+            notInserted.remove(node.rowLink, node);
+
+            for (Node dependent : node.dependents) {
+                dependent.missing--;
+                if (dependent.missing == 0 && dependent.dbRecord != null && !dependent.spilled && !dependent.inserted) {
+                    toInsert.add(dependent);
+                }
+            }
+            node.dependents.clear();
+        }
+    }
+
+    private void spillPending() throws IOException, SQLException {
+        Loggers.LOGGER_INFO.info("spilling {} records that cannot be inserted yet", pending.size());
+        for (Node node : new ArrayList<>(pending)) {
+            spill(node);
+        }
+    }
+
+    private void spill(Node node) throws IOException, SQLException {
+        if (spilled == null) {
+            spilled = new DiskRecordStore();
+        }
+        // not indexed: the records are only visited at the end (and their keys can be incomplete)
+        spilled.addUnindexed(node.dbRecord);
+
+        node.spilled = true;
+        if (isComplete(node.rowLink)) {
+            spilledRowLinks.add(node.rowLink);
+        }
+        pending.remove(node);
+        notInserted.remove(node.rowLink, node);
+        node.dbRecord = null;
+        node.dependents.clear();
+    }
+
+    /** insert the records that are still pending or were spilled (in the insertion order of the tables, one record at a time) */
+    private void insertRemaining(String rootTable) throws IOException, SQLException {
+        if (pending.isEmpty() && spilled == null) {
+            return;
+        }
+        // the pending records are ordered together with the spilled ones
+        if (!pending.isEmpty()) {
+            spillPending();
+        }
+
+        spilled.visitRecordsInInsertionOrder(connection, rootTable, r -> {
+                    if (!rowLinksNotToInsert.contains(r.getRowLink())) {
+                        importer.insertOneRecord(connection, r, newKeys);
+                    }
+                    return null;
+                },
+                !importer.isIgnoreFkCycles(), importer.getFkCache());
+    }
+
+    /** one JSON object of the document */
+    private static class Node {
+        final String tableName;
+        final Node parent;
+        RowLink rowLink;
+        /** set when the end of the JSON object is reached (until it is inserted or spilled) */
+        DbRecord dbRecord;
+        /** number of rows this one waits for */
+        int missing;
+        final List<Node> dependents = new ArrayList<>();
+        boolean inserted;
+        boolean spilled;
+
+        Node(String tableName, Node parent) {
+            this.tableName = tableName;
+            this.parent = parent;
+        }
+    }
+}
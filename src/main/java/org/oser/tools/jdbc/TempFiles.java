@@ -0,0 +1,36 @@
+package org.oser.tools.jdbc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The temporary files of this library. Their owners delete them with {@link #delete(Path)}, the files that are left
+ * are deleted when the JVM exits. Other than {@link java.io.File#deleteOnExit()} (whose registry grows for the life
+ * of the JVM) one shutdown hook is used for all files and deleted files are forgotten.
+ */
+final class TempFiles {
+    /** the files that are not deleted yet */
+    private static final Set<Path> LIVE_FILES = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> LIVE_FILES.forEach(file -> file.toFile().delete())));
+    }
+
+    private TempFiles() {}
+
+    /** @param directory the directory of the file, null for the default temporary directory */
+    static Path create(Path directory, String prefix) throws IOException {
+        Path file = directory == null ? Files.createTempFile(prefix, ".tmp") : Files.createTempFile(directory, prefix, ".tmp");
+        LIVE_FILES.add(file);
+        return file;
+    }
+
+    /** delete the file now, if that fails it is still deleted on exit */
+    static void delete(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        LIVE_FILES.remove(file);
+    }
+}
@@ -0,0 +1,134 @@
+package org.oser.tools.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Session temporary table with a large set of keys (e.g. the primary keys of the rows to read or delete), so that the
+ * rows are selected with one (semi) join instead of many chunked IN lists (refer to {@link DbExporter#setTempTableKeyThreshold(int)}). <p>
+ *
+ * There is one table per connection and key column types: it is created if it does not exist yet (it disappears with
+ * the session) and only emptied on {@link #close()}, as a DROP TABLE commits an open transaction on some dbs (e.g. H2).
+ * It is loaded with COPY on postgres, otherwise with JDBC batches. Supported dbs: refer to {@link #isSupported(String)}.
+ */
+final class TempKeyTable implements AutoCloseable {
+    /** above how many keys a temporary table is used by default */
+    static final int DEFAULT_THRESHOLD = 10_000;
+    private static final int LOAD_BATCH_SIZE = 1000;
+    private static final Set<String> SUPPORTED_DBS = Set.of("PostgreSQL", "H2", "MySQL", "Microsoft SQL Server");
+
+    private final Connection connection;
+    private final String name;
+    private final List<String> keyNames;
+
+    private TempKeyTable(Connection connection, String name, List<String> keyNames) {
+        this.connection = connection;
+        this.name = name;
+        this.keyNames = keyNames;
+    }
+
+    static boolean isSupported(String dbProductName) {
+        return SUPPORTED_DBS.contains(dbProductName);
+    }
+
+    /** @return a temporary table (created if needed) with the keys */
+    static TempKeyTable of(Connection connection, List<String> keyNames, Map<String, JdbcHelpers.ColumnMetadata> columnMetadata,
+                           List<Object[]> keys) throws SQLException {
+        String dbProductName = connection.getMetaData().getDatabaseProductName();
+        if (!isSupported(dbProductName)) {
+            throw new IllegalArgumentException("No temporary key tables for " + dbProductName);
+        }
+
+        List<JdbcHelpers.ColumnMetadata> columns = keyNames.stream().map(k -> columnMetadata.get(k.toLowerCase())).collect(Collectors.toList());
+        List<String> columnDefinitions = new ArrayList<>();
+        for (int i = 0; i < keyNames.size(); i++) {
+            columnDefinitions.add(keyNames.get(i) + " " + columnType(columns.get(i)));
+        }
+        String name = (dbProductName.equals("Microsoft SQL Server") ? "#" : "") + "ldr_keys_" +
+                Integer.toHexString(String.join(",", columnDefinitions).toLowerCase().hashCode());
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(createStatement(dbProductName, name, String.join(", ", columnDefinitions)));
+            statement.executeUpdate("DELETE FROM " + name); // rows left over by an earlier failure
+        }
+
+        TempKeyTable table = new TempKeyTable(connection, name, keyNames);
+        table.load(keys, columns);
+        return table;
+    }
+
+    /** @return a condition (for the WHERE clause of a statement on the table) that the row has one of the keys */
+    String existsCondition(String tableName) {
+        return "EXISTS (SELECT 1 FROM " + name + " k WHERE " +
+                keyNames.stream().map(k -> tableName + "." + k + " = k." + k).collect(Collectors.joining(" AND ")) + ")";
+    }
+
+    /** empties the table (it stays for the next keys of the session) */
+    @Override
+    public void close() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM " + name);
+        }
+    }
+
+    private void load(List<Object[]> keys, List<JdbcHelpers.ColumnMetadata> columns) throws SQLException {
+        if (PostgresCopy.isAvailable(connection)) {
+            PostgresCopy.copy(connection, name, keyNames, keys);
+            return;
+        }
+
+        String insert = "INSERT INTO " + name + " (" + String.join(", ", keyNames) + ") VALUES (" +
+                String.join(", ", Collections.nCopies(keyNames.size(), "?")) + ")";
+        try (PreparedStatement statement = connection.prepareStatement(insert)) { // NOSONAR: values all via prepared statement
+            int inBatch = 0;
+            for (Object[] key : keys) {
+                for (int i = 0; i < keyNames.size(); i++) {
+                    JdbcHelpers.innerSetStatementField(statement, i + 1, columns.get(i), key[i], null);
+                }
+                statement.addBatch();
+                if (++inBatch == LOAD_BATCH_SIZE) {
+                    statement.executeBatch();
+                    inBatch = 0;
+                }
+            }
+            if (inBatch > 0) {
+                statement.executeBatch();
+            }
+        }
+        Loggers.LOGGER_CHANGE.info("{} ({} rows)", insert, keys.size());
+    }
+
+    private static String createStatement(String dbProductName, String name, String columnDefinitions) {
+        switch (dbProductName) {
+            case "H2":
+                return "CREATE LOCAL TEMPORARY TABLE IF NOT EXISTS " + name + " (" + columnDefinitions + ") TRANSACTIONAL";
+            case "Microsoft SQL Server":
+                return "IF OBJECT_ID('tempdb.." + name + "') IS NULL CREATE TABLE " + name + " (" + columnDefinitions + ")";
+            default:
+                return "CREATE TEMPORARY TABLE IF NOT EXISTS " + name + " (" + columnDefinitions + ")";
+        }
+    }
+
+    /** the type of a key column (serial and identity columns get their plain type) */
+    private static String columnType(JdbcHelpers.ColumnMetadata column) {
+        String type = column.getType().toLowerCase().replace(" identity", "");
+        switch (type) {
+            case "serial":
+                return "integer";
+            case "bigserial":
+                return "bigint";
+            case "smallserial":
+                return "smallint";
+            default:
+                return type.contains("char") && !type.contains("(") && column.getSize() > 0 ? type + "(" + column.getSize() + ")" : type;
+        }
+    }
+}
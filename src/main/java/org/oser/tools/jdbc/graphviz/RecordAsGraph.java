@@ -8,17 +8,18 @@ import guru.nidi.graphviz.engine.Format;
 import guru.nidi.graphviz.engine.Graphviz;
 import guru.nidi.graphviz.model.MutableGraph;
 import guru.nidi.graphviz.model.MutableNode;
+import org.oser.tools.jdbc.DbExporter;
 import org.oser.tools.jdbc.DbRecord;
 import org.oser.tools.jdbc.Fk;
 import org.oser.tools.jdbc.FkCacheAccessor;
 import org.oser.tools.jdbc.JdbcHelpers;
+import org.oser.tools.jdbc.KeyGraph;
 import org.oser.tools.jdbc.RowLink;
 
 import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -62,13 +63,23 @@ public class RecordAsGraph implements FkCacheAccessor {
         if (mapper == null) {
             mapper = TableToFieldMapper.DEFAULT_TABLE_TO_FIELD_MAPPER;
         }
-        Map<DbRecord, MutableNode> nodes = new HashMap<>();
+        Map<RowLink, MutableNode> nodes = new HashMap<>();
         TableToFieldMapper finalMapper = mapper;
-        r.getAllRecords().forEach(record -> nodes.put(record, recordAsNode(record, finalMapper)));
+        r.getAllRecords().forEach(record -> nodes.put(record.getRowLink(), recordAsNode(record, finalMapper)));
         MutableNode[] nodesAsArray = nodes.values().toArray(new MutableNode[0]);
 
-        Map<DbRecord, Set<DbRecord>> fkLinks = DbRecord.determineRowDependencies(connection, new ArrayList<>(r.getAllRecords()), fkCache);
-        addFkLinksToNodes(fkLinks, nodes);
+        addFkLinksToNodes(KeyGraph.of(connection, r, fkCache).getEdges(), nodes);
+
+        return mutGraph().setDirected(true).add(nodesAsArray);
+    }
+
+    /** Graph of the keys only (refer to {@link DbExporter#keyGraph(Connection, String, Object...)}), the nodes show the RowLinks */
+    public MutableGraph keyGraphAsGraph(KeyGraph keyGraph) {
+        Map<RowLink, MutableNode> nodes = new HashMap<>();
+        keyGraph.getNodes().forEach(rowLink -> nodes.put(rowLink, mutNode(rowLink.toString()).add(Label.html("<b>" + rowLink + "</b>"))));
+        MutableNode[] nodesAsArray = nodes.values().toArray(new MutableNode[0]);
+
+        addFkLinksToNodes(keyGraph.getEdges(), nodes);
 
         return mutGraph().setDirected(true).add(nodesAsArray);
     }
@@ -88,11 +99,9 @@ public class RecordAsGraph implements FkCacheAccessor {
                 .collect(Collectors.joining(" <br/>", "<br/>", ""));
     }
 
-    private void addFkLinksToNodes(Map<DbRecord, Set<DbRecord>> fkLinks, Map<DbRecord, MutableNode> nodes) {
-        for (Map.Entry<DbRecord, Set<DbRecord>> entries : fkLinks.entrySet()) {
-            for (DbRecord targetDbRecord : entries.getValue()){
-                nodes.get(targetDbRecord).addLink(nodes.get(entries.getKey()));
-            }
+    private void addFkLinksToNodes(List<KeyGraph.Edge> edges, Map<RowLink, MutableNode> nodes) {
+        for (KeyGraph.Edge edge : edges) {
+            nodes.get(edge.from()).addLink(nodes.get(edge.to()));
         }
     }
 
@@ -0,0 +1,85 @@
+package org.oser.tools.jdbc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledIfSystemProperty;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryFormatTest {
+
+    @Test
+    void roundTrip() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+
+        DbRecord book = dbExporter.contentAsTree(demo, "book", 1);
+        DbRecord blogpost = dbExporter.contentAsTree(demo, "blogpost", 2);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryRecordWriter writer = new BinaryRecordWriter(bytes)) {
+            writer.write(book);
+            writer.write(blogpost);
+        }
+
+        // without and with connection we get the same records again
+        for (Connection connection : new Connection[]{null, demo}) {
+            try (BinaryRecordReader reader = new BinaryRecordReader(new ByteArrayInputStream(bytes.toByteArray()), connection)) {
+                DbRecord bookAgain = reader.read();
+                assertEquals(book.asJsonNode().toString(), bookAgain.asJsonNode().toString());
+                assertEquals(book.getRowLink(), bookAgain.getRowLink());
+                assertEquals(book.getAllNodes(), bookAgain.getAllNodes());
+
+                DbRecord blogpostAgain = reader.read();
+                assertEquals(blogpost.asJsonNode().toString(), blogpostAgain.asJsonNode().toString());
+                assertNull(reader.read());
+            }
+        }
+
+        // the dictionary pays off as soon as tables repeat
+        ByteArrayOutputStream manyBlogposts = new ByteArrayOutputStream();
+        try (BinaryRecordWriter writer = new BinaryRecordWriter(manyBlogposts)) {
+            for (int i = 0; i < 10; i++) {
+                writer.write(blogpost);
+            }
+        }
+        int jsonLength = blogpost.asJsonNode().toString().getBytes(StandardCharsets.UTF_8).length;
+        assertTrue(manyBlogposts.size() < 10 * jsonLength);
+    }
+
+    @Test
+    @DisabledIfSystemProperty(named = "mixedCaseTableNames", matches = "false")
+    void insertReadRecords() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+
+        DbRecord nodes = dbExporter.contentAsTree(demo, "Nodes", 1);
+        byte[] asBytes = BinaryRecordWriter.toBytes(nodes);
+
+        DbImporter dbImporter = new DbImporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbImporter.getFkCache());
+        Map<RowLink, DbImporter.Remap> newKeys = dbImporter.insertRecords(demo, BinaryRecordReader.fromBytes(asBytes, demo));
+
+        Object newPk = newKeys.get(nodes.getRowLink()).getPkField();
+        DbRecord copy = dbExporter.contentAsTree(demo, "Nodes", newPk);
+        assertEquals(DbRecord.classifyNodes(nodes.getAllNodes()), DbRecord.classifyNodes(copy.getAllNodes()));
+
+        dbExporter.deleteRecursively(demo, "Nodes", newPk);
+    }
+
+    @Test
+    void wrongHeader() {
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryRecordReader.fromBytes("{\"id\":1}".getBytes(StandardCharsets.UTF_8), null));
+    }
+}
@@ -0,0 +1,228 @@
+package org.oser.tools.jdbc;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledIfSystemProperty;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkImportTest {
+
+    @Test
+    @DisabledIfSystemProperty(named = "mixedCaseTableNames", matches = "false")
+    void jdbcBatch() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+        DbRecord nodes = dbExporter.contentAsTree(demo, "Nodes", 1);
+
+        DbImporter dbImporter = new DbImporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbImporter.getFkCache());
+        dbImporter.setImportStrategy(ImportStrategy.JDBC_BATCH);
+        dbImporter.setBatchSize(2); // several batches per table
+        Map<RowLink, DbImporter.Remap> newKeys = dbImporter.insertRecords(demo, nodes);
+
+        Object newPk = newKeys.get(nodes.getRowLink()).getPkField();
+        DbRecord copy = dbExporter.contentAsTree(demo, "Nodes", newPk);
+        assertEquals(DbRecord.classifyNodes(nodes.getAllNodes()), DbRecord.classifyNodes(copy.getAllNodes()));
+
+        dbExporter.deleteRecursively(demo, "Nodes", newPk);
+    }
+
+    @Test
+    @DisabledIfSystemProperty(named = "mixedCaseTableNames", matches = "false")
+    void multiRowValues() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+        DbRecord nodes = dbExporter.contentAsTree(demo, "Nodes", 1);
+
+        DbImporter dbImporter = new DbImporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbImporter.getFkCache());
+        dbImporter.setImportStrategy(ImportStrategy.MULTI_ROW_VALUES);
+        dbImporter.setBatchSize(3);
+        Map<RowLink, DbImporter.Remap> newKeys = dbImporter.insertRecords(demo, nodes);
+
+        Object newPk = newKeys.get(nodes.getRowLink()).getPkField();
+        DbRecord copy = dbExporter.contentAsTree(demo, "Nodes", newPk);
+        assertEquals(DbRecord.classifyNodes(nodes.getAllNodes()), DbRecord.classifyNodes(copy.getAllNodes()));
+
+        dbExporter.deleteRecursively(demo, "Nodes", newPk);
+    }
+
+    @Test
+    void postgresCopyFallsBackToBatches() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        dbExporter.getStopTablesExcluded().add("user_table");
+        DbRecord blogpost = dbExporter.contentAsTree(demo, "blogpost", 2);
+
+        DbImporter dbImporter = new DbImporter();
+        dbImporter.setImportStrategy(ImportStrategy.POSTGRES_COPY); // not postgres: batched inserts
+        Map<RowLink, DbImporter.Remap> newKeys = dbImporter.insertRecords(demo, blogpost);
+
+        Object newPk = newKeys.get(blogpost.getRowLink()).getPkField();
+        assertNotEquals(2L, newPk);
+        DbRecord copy = dbExporter.contentAsTree(demo, "blogpost", newPk);
+        assertEquals(blogpost.findElementWithName("title").getValue(), copy.findElementWithName("title").getValue());
+        assertEquals(DbRecord.classifyNodes(blogpost.getAllNodes()), DbRecord.classifyNodes(copy.getAllNodes()));
+
+        dbExporter.deleteRecursively(demo, "blogpost", newPk);
+    }
+
+    @Test
+    void postgresCopyCsvValues() throws Exception {
+        assertEquals("", PostgresCopy.csvValue(null));
+        assertEquals("\"a \"\"quoted\"\", text\"", PostgresCopy.csvValue("a \"quoted\", text"));
+        assertEquals("\"\\x00ff7f\"", PostgresCopy.csvValue(new byte[]{0, (byte) 0xff, 0x7f}));
+    }
+
+    @Test
+    void postgresCopyRoundTrip() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        Assumptions.assumeTrue(PostgresCopy.isAvailable(demo), "postgres only");
+
+        List<Object[]> rows = List.of(
+                new Object[]{1001L, null, null},
+                new Object[]{1002L, new byte[]{0, (byte) 0xff, '"', ',', '\n'}, "a \"quoted\", text"},
+                new Object[]{1003L, new byte[0], "line1\nline2\r\nback\\slash,"},
+                new Object[]{1004L, null, ""});
+        try {
+            assertEquals(rows.size(), PostgresCopy.copy(demo, "postgres_test", List.of("id", "file", "delta"), rows));
+
+            try (PreparedStatement select = demo.prepareStatement("select id, file, delta from postgres_test where id between 1001 and 1004 order by id");
+                 ResultSet rs = select.executeQuery()) {
+                for (Object[] row : rows) {
+                    assertTrue(rs.next());
+                    assertEquals(row[0], rs.getLong(1));
+                    assertArrayEquals((byte[]) row[1], rs.getBytes(2));
+                    assertEquals(row[2], rs.getString(3));
+                }
+                assertFalse(rs.next());
+            }
+        } finally {
+            try (Statement statement = demo.createStatement()) {
+                statement.execute("delete from postgres_test where id between 1001 and 1004");
+            }
+        }
+    }
+
+    @Test
+    void postgresCopyOfBytea() throws Exception {
+        JdbcHelpers.ColumnMetadata id = new JdbcHelpers.ColumnMetadata("id", "int8", Types.BIGINT, 0, 19, null, 1);
+        JdbcHelpers.ColumnMetadata file = new JdbcHelpers.ColumnMetadata("file", "bytea", Types.BINARY, 0, Integer.MAX_VALUE, null, 2);
+        DbImporter dbImporter = new DbImporter();
+        assertTrue(PostgresCopy.canCopy(dbImporter, List.of(byteaRow(id, file, new byte[]{1, 2}), byteaRow(id, file, null))));
+        // not yet converted values and own importers go through the batches
+        assertFalse(PostgresCopy.canCopy(dbImporter, List.of(byteaRow(id, file, "AQI="))));
+        dbImporter.getTypeFieldImporters().put("BYTEA", (tableName, metadata, statement, insertIndex, value) -> false);
+        assertFalse(PostgresCopy.canCopy(dbImporter, List.of(byteaRow(id, file, new byte[]{1, 2}))));
+
+        Connection demo = TestHelpers.getConnection("demo");
+        Assumptions.assumeTrue(PostgresCopy.isAvailable(demo), "postgres only");
+
+        DbExporter dbExporter = new DbExporter();
+        DbRecord original = dbExporter.contentAsTree(demo, "postgres_test", 10);
+        DbImporter copyImporter = new DbImporter();
+        copyImporter.setImportStrategy(ImportStrategy.POSTGRES_COPY);
+        Map<RowLink, DbImporter.Remap> newKeys = copyImporter.insertRecords(demo, original);
+
+        Object newPk = newKeys.get(original.getRowLink()).getPkField();
+        DbRecord copy = dbExporter.contentAsTree(demo, "postgres_test", newPk);
+        assertArrayEquals((byte[]) original.findElementWithName("file").getValue(), (byte[]) copy.findElementWithName("file").getValue());
+        dbExporter.deleteRecursively(demo, "postgres_test", newPk);
+    }
+
+    private static DbImporter.RowToInsert byteaRow(JdbcHelpers.ColumnMetadata id, JdbcHelpers.ColumnMetadata file, Object value) {
+        DbRecord dbRecord = new DbRecord("postgres_test", new Object[]{1L});
+        dbRecord.getContent().add(new DbRecord.FieldAndValue("id", id, 1L));
+        dbRecord.getContent().add(new DbRecord.FieldAndValue("file", file, value));
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("id", 1L);
+        values.put("file", value);
+        return new DbImporter.RowToInsert(dbRecord, List.of(1L), true, null, values);
+    }
+
+    @Test
+    @DisabledIfSystemProperty(named = "mixedCaseTableNames", matches = "false")
+    void graphWithBatches() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+        DbRecord nodes = dbExporter.contentAsTree(demo, "Nodes", 1);
+        StringWriter graph = new StringWriter();
+        dbExporter.contentAsGraph(demo, graph, "Nodes", 1);
+
+        DbImporter dbImporter = new DbImporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbImporter.getFkCache());
+        dbImporter.setImportStrategy(ImportStrategy.JDBC_BATCH);
+        Map<RowLink, DbImporter.Remap> newKeys = dbImporter.insertGraph(demo, new StringReader(graph.toString()));
+
+        Object newPk = newKeys.get(nodes.getRowLink()).getPkField();
+        DbRecord copy = dbExporter.contentAsTree(demo, "Nodes", newPk);
+        assertEquals(DbRecord.classifyNodes(nodes.getAllNodes()), DbRecord.classifyNodes(copy.getAllNodes()));
+
+        dbExporter.deleteRecursively(demo, "Nodes", newPk);
+    }
+
+    @Test
+    void upsert() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        dbExporter.getStopTablesExcluded().add("user_table");
+        DbRecord blogpost = dbExporter.contentAsTree(demo, "blogpost", 2);
+        String title = (String) blogpost.findElementWithName("title").getValue();
+
+        DbImporter dbImporter = new DbImporter();
+        dbImporter.setForceInsert(false);
+        dbImporter.setImportStrategy(ImportStrategy.UPSERT);
+        DbRecord changed = dbImporter.jsonToRecord(demo, "blogpost", blogpost.asJsonNode());
+        changed.findElementWithName("title").setValue("upserted title");
+        DbRecord comment = changed.findElementWithName("id").getSubRow().get("ccomment").get(0);
+        String author = (String) comment.findElementWithName("author").getValue();
+        comment.findElementWithName("author").setValue("upserted author");
+
+        try {
+            Map<RowLink, DbImporter.Remap> newKeys = dbImporter.insertRecords(demo, changed);
+            assertTrue(newKeys.isEmpty());
+
+            DbRecord updated = dbExporter.contentAsTree(demo, "blogpost", 2);
+            assertEquals("upserted title", updated.findElementWithName("title").getValue());
+            assertEquals("upserted author", updated.findElementWithName("id").getSubRow().get("ccomment").get(0).findElementWithName("author").getValue());
+        } finally {
+            try (Statement statement = demo.createStatement()) {
+                statement.executeUpdate("update blogpost set title = '" + title + "' where id = 2");
+                statement.executeUpdate("update ccomment set author = '" + author + "' where id = 1");
+            }
+        }
+    }
+
+    @Test
+    void csvValue() throws Exception {
+        assertEquals("", PostgresCopy.csvValue(null));
+        assertEquals("\"\"", PostgresCopy.csvValue(""));
+        assertEquals("\"12\"", PostgresCopy.csvValue(12L));
+        assertEquals("\"a \"\"quoted\"\", text\nwith newline\"", PostgresCopy.csvValue("a \"quoted\", text\nwith newline"));
+    }
+
+    @Test
+    void wrongBatchSize() {
+        assertThrows(IllegalArgumentException.class, () -> new DbImporter().setBatchSize(0));
+    }
+}
@@ -11,6 +11,7 @@ import org.oser.tools.jdbc.graphviz.RecordAsGraph;
 import java.io.File;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
@@ -216,6 +217,29 @@ public class DbExporterBasicTests {
         asGraph.renderGraph(graph, 900, Format.SVG_STANDALONE, new File( "graph_exported.svg"));
     }
 
+    @Test
+    @DisabledIfSystemProperty(named = "mixedCaseTableNames", matches = "false")
+    void keyGraph() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+
+        DbRecord fullRecord = dbExporter.contentAsTree(demo, "Nodes", 1);
+        KeyGraph keyGraph = dbExporter.keyGraph(demo, "Nodes", 1);
+
+        assertEquals(fullRecord.getAllNodes(), keyGraph.getNodes());
+        assertNull(keyGraph.getKeyRecord().findElementWithName("name")); // only keys are read
+        assertEquals(DbRecord.classifyNodes(fullRecord.getAllNodes()), dbExporter.countReachableRows(demo, "Nodes", 1));
+
+        // each edge row links to its 2 nodes
+        long edgeRows = keyGraph.getNodes().stream().filter(r -> r.getTableName().equals("edge")).count();
+        assertEquals(2 * edgeRows, keyGraph.getEdges().size());
+        keyGraph.getEdges().forEach(e -> assertEquals("nodes", e.to().getTableName()));
+
+        RecordAsGraph asGraph = new RecordAsGraph();
+        MutableGraph graph = asGraph.keyGraphAsGraph(keyGraph);
+        assertEquals(keyGraph.getNodes().size(), graph.nodes().size());
+    }
+
 
     @Test
     void testJsonToRecord() throws Exception {
@@ -354,6 +378,41 @@ public class DbExporterBasicTests {
         assertNull(asDbRecord.findElementWithName("text_type").getValue());
     }
 
+    @Test
+    void referenceRowCache() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        dbExporter.getReferenceTables().add("user_table");
+
+        DbRecord first = dbExporter.contentAsTree(demo, "blogpost", 2);
+        assertEquals(1, dbExporter.getReferenceRowCache().estimatedSize());
+        assertEquals("poser", userNameOfBlogpost(first));
+
+        try (Statement statement = demo.createStatement()) {
+            statement.executeUpdate("update user_table set username = 'changed' where id = 2");
+        }
+        try {
+            // the cached row is used until it is invalidated
+            DbRecord second = dbExporter.contentAsTree(demo, "blogpost", 2);
+            assertEquals(first.asJsonNode().toString(), second.asJsonNode().toString());
+
+            // exports get copies
+            second.findElementWithName("user_id").getSubRow().get("user_table").get(0).findElementWithName("username").setValue("x");
+            assertEquals("poser", userNameOfBlogpost(dbExporter.contentAsTree(demo, "blogpost", 2)));
+
+            dbExporter.invalidateReferenceRows("user_table");
+            assertEquals("changed", userNameOfBlogpost(dbExporter.contentAsTree(demo, "blogpost", 2)));
+        } finally {
+            try (Statement statement = demo.createStatement()) {
+                statement.executeUpdate("update user_table set username = 'poser' where id = 2");
+            }
+        }
+    }
+
+    private static Object userNameOfBlogpost(DbRecord blogpost) {
+        return blogpost.findElementWithName("user_id").getSubRow().get("user_table").get(0).findElementWithName("username").getValue();
+    }
+
     @Test
     void testFieldExporter() {
         DbExporter dbExporter = new DbExporter();
@@ -7,10 +7,16 @@ import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.DisabledIfSystemProperty;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.sql.Connection;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class DbRecordCanonicalizerTest {
@@ -72,6 +78,36 @@ class DbRecordCanonicalizerTest {
                 objectWriter.writeValueAsString(basicChecksResult.getAsDbRecord().asJsonNode()));
     }
 
+    @Test
+    void withSchemaSnapshot() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        String blogpost = new DbExporter().contentAsTree(demo, "blogpost", 2).asJsonNode().toString();
+
+        DbRecord online = new DbImporter().jsonToRecord(demo, "blogpost", blogpost);
+        RecordCanonicalizer.canonicalizeIds(demo, online);
+
+        // serialized and read again: no connection is needed anymore
+        SchemaSnapshot snapshot = SchemaSnapshot.fromJson(SchemaSnapshot.capture(demo, "blogpost").asJson());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(snapshot);
+        }
+        snapshot = (SchemaSnapshot) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertTrue(snapshot.containsTable("ccomment"));
+
+        DbRecord offline = new DbImporter().jsonToRecord(snapshot, "blogpost", blogpost);
+        List<RowLink> order = new ArrayList<>();
+        offline.visitRecordsInInsertionOrder(snapshot, r -> { order.add(r.getRowLink()); return null; }, false);
+        assertEquals(offline.getAllNodes().size(), order.size());
+        assertTrue(order.indexOf(new RowLink("user_table/2")) < order.indexOf(new RowLink("blogpost/2")));
+
+        RecordCanonicalizer.canonicalizeIds(snapshot, offline);
+        assertEquals(online.asJsonNode(), offline.asJsonNode());
+
+        SchemaSnapshot blogpostOnly = snapshot;
+        assertThrows(IllegalArgumentException.class, () -> new DbImporter().jsonToRecord(blogpostOnly, "book", "{\"id\": 1}"));
+    }
+
     @Test
     @Disabled
     void charForInteger() {
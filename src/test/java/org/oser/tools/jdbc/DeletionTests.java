@@ -4,10 +4,15 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.DisabledIfSystemProperty;
 
 import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class DeletionTests {
 
@@ -34,4 +39,88 @@ public class DeletionTests {
         System.out.println(deletionStatements);
         assertEquals(10, deletionStatements.size());
     }
+
+    @Test
+    void setBasedDelete_selfLinkedTable() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        // own rows (to not destroy data of other tests): a chain 1000 <- 1001 <- 1002
+        try (Statement statement = demo.createStatement()) {
+            statement.executeUpdate("insert into link2self values (1000, null, null)");
+            statement.executeUpdate("insert into link2self values (1001, 1000, null)");
+            statement.executeUpdate("insert into link2self values (1002, 1001, null)");
+        }
+
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+
+        DbRecord toDelete = dbExporter.contentAsTree(demo, "link2self", 1001);
+        assertEquals(3, toDelete.getAllNodes().size());
+
+        List<RecordDeleter.DeletionGroup> groups = RecordDeleter.getDeletionGroups(demo, toDelete, dbExporter.getFkCache());
+        // one layer per row of the chain, the last row first
+        assertEquals(3, groups.size());
+        assertEquals(1002L, groups.get(0).getPkValues().get(0)[0]);
+
+        dbExporter.setDeleteChunkSize(2);
+        dbExporter.deleteRecursively(demo, "link2self", 1001);
+
+        Map<String, JdbcHelpers.ColumnMetadata> columnMetadata = JdbcHelpers.getColumnMetadata(demo.getMetaData(), "link2self");
+        for (long id = 1000; id <= 1002; id++) {
+            assertFalse(JdbcHelpers.doesRowWithPrimaryKeysExist(demo, "link2self", List.of("id"), List.of(id), columnMetadata));
+        }
+    }
+
+    @Test
+    void deleteViaTempTable_inTransaction() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        try (Statement statement = demo.createStatement()) {
+            statement.executeUpdate("insert into link2self values (2000, null, null)");
+            statement.executeUpdate("insert into link2self values (2001, 2000, null)");
+        }
+
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+        dbExporter.setTempTableKeyThreshold(0);
+        Map<String, JdbcHelpers.ColumnMetadata> columnMetadata = JdbcHelpers.getColumnMetadata(demo.getMetaData(), "link2self");
+
+        // the temporary table does not commit the transaction
+        demo.setAutoCommit(false);
+        try {
+            dbExporter.deleteRecursively(demo, "link2self", 2000);
+            assertFalse(JdbcHelpers.doesRowWithPrimaryKeysExist(demo, "link2self", List.of("id"), List.of(2001L), columnMetadata));
+            demo.rollback();
+            assertTrue(JdbcHelpers.doesRowWithPrimaryKeysExist(demo, "link2self", List.of("id"), List.of(2001L), columnMetadata));
+
+            dbExporter.deleteRecursively(demo, "link2self", 2000);
+            demo.commit();
+        } finally {
+            demo.setAutoCommit(true);
+        }
+        for (long id = 2000; id <= 2001; id++) {
+            assertFalse(JdbcHelpers.doesRowWithPrimaryKeysExist(demo, "link2self", List.of("id"), List.of(id), columnMetadata));
+        }
+    }
+
+    @Test
+    void whereClauseForKeys() {
+        assertEquals("id IN (?, ?)", JdbcHelpers.whereClauseForKeys(List.of("id"), 2));
+        assertEquals("(a = ? AND b = ?) OR (a = ? AND b = ?)", JdbcHelpers.whereClauseForKeys(List.of("a", "b"), 2));
+
+        // one statement for all numbers of rows: an array or a padded IN list
+        assertEquals("id = ANY(?)", JdbcHelpers.whereClauseForKeys(List.of("id"), 3, "PostgreSQL"));
+        assertEquals("id = ANY(?)", JdbcHelpers.whereClauseForKeys(List.of("id"), 1000, "H2"));
+        assertEquals("id IN (?, ?, ?, ?)", JdbcHelpers.whereClauseForKeys(List.of("id"), 3, "Oracle"));
+        assertEquals(JdbcHelpers.whereClauseForKeys(List.of("a", "b"), 16), JdbcHelpers.whereClauseForKeys(List.of("a", "b"), 9, "H2"));
+
+        // keys that need a type cast (e.g. postgres enums) keep it in the IN list and the disjunction
+        Map<String, JdbcHelpers.ColumnMetadata> enumKey = Map.of("state", new JdbcHelpers.ColumnMetadata("state", "mood", Types.VARCHAR, Types.VARCHAR, 10, "'G'::mood", 1));
+        assertEquals("state IN (?::mood, ?::mood)", JdbcHelpers.whereClauseForKeys(List.of("state"), 2, enumKey, "MySQL"));
+        assertEquals("(state = ?::mood AND b = ?)", JdbcHelpers.whereClauseForKeys(List.of("state", "b"), 1, enumKey, "PostgreSQL"));
+        assertEquals(1, JdbcHelpers.paddedNumberOfRows(1));
+        assertEquals(1024, JdbcHelpers.paddedNumberOfRows(1000));
+        // oracle: IN lists of at most 1000 elements
+        assertEquals(1000, JdbcHelpers.paddedNumberOfRows(600, "Oracle"));
+        assertEquals(512, JdbcHelpers.paddedNumberOfRows(300, "Oracle"));
+        assertEquals(1024, JdbcHelpers.paddedNumberOfRows(600, "MySQL"));
+    }
 }
@@ -0,0 +1,69 @@
+package org.oser.tools.jdbc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeltaExportTest {
+
+    @Test
+    void delta() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        dbExporter.getStopTablesExcluded().add("user_table");
+        DbImporter dbImporter = new DbImporter();
+
+        // work on a copy of blogpost/2 (with its comment)
+        DbRecord original = dbExporter.contentAsTree(demo, "blogpost", 2);
+        Map<RowLink, DbImporter.Remap> newKeys = dbImporter.insertRecords(demo,
+                dbImporter.jsonToRecord(demo, "blogpost", original.asJsonNode()));
+        long copyId = ((Number) newKeys.get(new RowLink("blogpost/2")).getPkField()).longValue();
+        long commentId = ((Number) newKeys.get(new RowLink("ccomment/1")).getPkField()).longValue();
+
+        try {
+            DbRecord previous = dbImporter.jsonToRecord(demo, "blogpost",
+                    dbExporter.contentAsTree(demo, "blogpost", copyId).asJsonNode());
+            Map<String, String> changeColumns = Map.of("blogpost", "update_time", "ccomment", "create_time");
+
+            RecordDelta unchanged = dbExporter.contentAsDelta(demo, previous, changeColumns);
+            assertTrue(unchanged.isEmpty(), unchanged.toString());
+
+            try (Statement statement = demo.createStatement()) {
+                statement.executeUpdate("update blogpost set title = 'changed', update_time = 42 where id = " + copyId);
+                statement.executeUpdate("insert into ccomment (id, content, status, create_time, author, email, post_id) " +
+                        "values (5000, 'new comment', 1, 1, 'me', 'me@example.com', " + copyId + ")");
+                statement.executeUpdate("delete from ccomment where id = " + commentId);
+            }
+
+            RecordDelta delta = dbExporter.contentAsDelta(demo, previous, changeColumns);
+            assertEquals(Set.of(new RowLink("ccomment/5000")), delta.getAdded());
+            assertEquals(Set.of(new RowLink("blogpost", copyId)), delta.getChanged());
+            assertEquals(Set.of(new RowLink("ccomment", commentId)), delta.getRemoved());
+
+            JsonNode deltaDocument = delta.asJsonNode();
+            assertEquals("changed", deltaDocument.get("changed").get("blogpost/" + copyId).get("title").asText());
+            assertEquals("new comment", deltaDocument.get("added").get("ccomment/5000").get("content").asText());
+
+            assertEquals(dbExporter.contentAsTree(demo, "blogpost", copyId).asJsonNode(), delta.getPatchedRecord().asJsonNode());
+
+            // the same with the keys in a temporary table
+            dbExporter.setTempTableKeyThreshold(0);
+            RecordDelta viaTempTable = dbExporter.contentAsDelta(demo, previous, changeColumns);
+            assertEquals(delta.getAdded(), viaTempTable.getAdded());
+            assertEquals(delta.getChanged(), viaTempTable.getChanged());
+            assertEquals(delta.getRemoved(), viaTempTable.getRemoved());
+        } finally {
+            try (Statement statement = demo.createStatement()) {
+                statement.executeUpdate("delete from ccomment where post_id = " + copyId);
+                statement.executeUpdate("delete from blogpost where id = " + copyId);
+            }
+        }
+    }
+}
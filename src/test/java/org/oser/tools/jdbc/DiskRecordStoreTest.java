@@ -0,0 +1,157 @@
+package org.oser.tools.jdbc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiskRecordStoreTest {
+
+    @Test
+    @DisabledIfSystemProperty(named = "mixedCaseTableNames", matches = "false")
+    void exportCanonicalizeAndCompare(@TempDir Path directory) throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+
+        DbRecord tree = dbExporter.contentAsTree(demo, "Nodes", 1);
+        try (DiskRecordStore store = new DiskRecordStore(directory);
+             DiskRecordStore other = new DiskRecordStore(directory)) {
+            assertEquals(10, dbExporter.contentToStore(demo, store, "Nodes", 1));
+            assertEquals(tree.getAllNodes().size(), store.size());
+            assertEquals(Set.of("nodes", "edge"), Set.of(store.getTables().stream().map(String::toLowerCase).toArray()));
+
+            DbRecord stored = store.get(new RowLink("nodes", 2));
+            assertEquals("Bern", stored.findElementWithName("name").getValue());
+            assertTrue(stored.getContent().stream().allMatch(field -> field.getSubRow().isEmpty()));
+            assertNull(store.get(new RowLink("nodes", 20)));
+
+            // the nodes are visited before the edges between them
+            Set<RowLink> visited = new HashSet<>();
+            store.visitRecordsInInsertionOrder(demo, r -> {
+                if (r.getTableName().equalsIgnoreCase("edge")) {
+                    assertTrue(visited.contains(new RowLink("nodes", r.findElementWithName("begin_id").getValue())));
+                    assertTrue(visited.contains(new RowLink("nodes", r.findElementWithName("end_id").getValue())));
+                }
+                visited.add(r.getRowLink());
+                return null;
+            }, false, dbExporter.getFkCache());
+            assertEquals(store.size(), visited.size());
+
+            // the same rows as a tree
+            other.addAll(tree);
+            assertTrue(RecordDiff.compare(store, other).isEmpty());
+
+            other.add(withName(other.get(new RowLink("nodes", 3)), "Bâle"));
+            List<RecordDiff.Difference> differences = RecordDiff.compare(store, other);
+            assertEquals(1, differences.size());
+            assertEquals(RecordDiff.Kind.FIELD_CHANGED, differences.get(0).kind());
+            assertEquals("Bâle", differences.get(0).rightValue());
+
+            // canonical keys
+            Map<RowLink, List<Object>> newKeys = RecordCanonicalizer.canonicalizeIds(demo, store, dbExporter.getFkCache(), dbExporter.getPkCache());
+            assertEquals(store.size(), newKeys.size());
+            assertEquals(10, store.size());
+            List<DbRecord> edges = store.getRecordsOfTable("edge");
+            for (DbRecord edge : edges) {
+                assertNotNull(store.get(new RowLink("nodes", edge.findElementWithName("begin_id").getValue())));
+                assertNotNull(store.get(new RowLink("nodes", edge.findElementWithName("end_id").getValue())));
+            }
+            Set<RowLink> canonicalNodes = new HashSet<>();
+            store.getRecordsOfTable("nodes").forEach(r -> canonicalNodes.add(r.getRowLink()));
+            assertEquals(Set.of(new RowLink("nodes/1"), new RowLink("nodes/2"), new RowLink("nodes/3"),
+                    new RowLink("nodes/4"), new RowLink("nodes/5")), canonicalNodes);
+        }
+        assertEquals(0, TestHelpers.numberOfFiles(directory));
+    }
+
+    @Test
+    void selfLinkedRowsInInsertionOrder(@TempDir Path directory) throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        // own rows: a chain 4000 <- 4001 <- 4002, added to the store children first
+        try (Statement statement = demo.createStatement()) {
+            statement.executeUpdate("insert into link2self values (4000, null, null)");
+            statement.executeUpdate("insert into link2self values (4001, 4000, null)");
+            statement.executeUpdate("insert into link2self values (4002, 4001, null)");
+        }
+        try {
+            DbExporter dbExporter = new DbExporter();
+            Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+            try (DiskRecordStore store = new DiskRecordStore(directory)) {
+                for (int id = 4002; id >= 4000; id--) {
+                    store.add(dbExporter.readOneRecord(demo, "link2self", new Object[]{id}, new DbExporter.ExportContext(demo)));
+                }
+
+                List<Object> added = new ArrayList<>();
+                store.visitRecordsOfTable("link2self", r -> {
+                    added.add(r.getRowLink().getPks()[0]);
+                    return null;
+                });
+                assertEquals(List.of(4002L, 4001L, 4000L), added);
+
+                List<Object> visited = new ArrayList<>();
+                store.visitRecordsInInsertionOrder(demo, r -> {
+                    assertEquals(3, r.getContent().size()); // the whole record, not only its keys
+                    visited.add(r.getRowLink().getPks()[0]);
+                    return null;
+                }, false, dbExporter.getFkCache());
+                assertEquals(List.of(4000L, 4001L, 4002L), visited);
+            }
+        } finally {
+            try (Statement statement = demo.createStatement()) {
+                statement.executeUpdate("delete from link2self where id = 4002");
+                statement.executeUpdate("delete from link2self where id = 4001");
+                statement.executeUpdate("delete from link2self where id = 4000");
+            }
+        }
+    }
+
+    @Test
+    void manySegments(@TempDir Path directory) throws Exception {
+        JdbcHelpers.ColumnMetadata id = new JdbcHelpers.ColumnMetadata("id", "BIGINT", Types.BIGINT, Types.BIGINT, 19, null, 1);
+        JdbcHelpers.ColumnMetadata text = new JdbcHelpers.ColumnMetadata("text", "VARCHAR", Types.VARCHAR, Types.VARCHAR, 1000, null, 2);
+        String filler = "x".repeat(500);
+
+        try (DiskRecordStore store = new DiskRecordStore(directory)) {
+            for (long i = 0; i < 10_000; i++) { // 5 MB: several segments
+                DbRecord dbRecord = new DbRecord("book", new Object[]{i});
+                dbRecord.setPkNames(List.of("id"));
+                dbRecord.getContent().add(new DbRecord.FieldAndValue("id", id, i));
+                dbRecord.getContent().add(new DbRecord.FieldAndValue("text", text, filler + i));
+                store.add(dbRecord);
+            }
+            assertEquals(10_000, store.size());
+            assertEquals(filler + 7777, store.get(new RowLink("book", 7777)).findElementWithName("text").getValue());
+            assertEquals(List.of("id"), store.get(new RowLink("BOOK", "0")).getPkNames());
+            assertFalse(store.contains(new RowLink("book", 10_000)));
+
+            List<Object> ids = new ArrayList<>();
+            store.visitRecords(r -> {
+                ids.add(r.findElementWithName("id").getValue());
+                return null;
+            });
+            assertEquals(10_000, ids.size());
+            assertEquals(9999L, ids.get(9999));
+        }
+    }
+
+    private static DbRecord withName(DbRecord dbRecord, String name) {
+        dbRecord.findElementWithName("name").setValue(name);
+        return dbRecord;
+    }
+}
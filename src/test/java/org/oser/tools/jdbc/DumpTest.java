@@ -0,0 +1,144 @@
+package org.oser.tools.jdbc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledIfSystemProperty;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DumpTest {
+
+    @Test
+    @DisabledIfSystemProperty(named = "mixedCaseTableNames", matches = "false")
+    void dumpAndReplay() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+        dbExporter.setDumpPageSize(2); // several pages per table
+
+        Map<String, Integer> before = JdbcHelpers.getNumberElementsInEachTable(demo);
+        int nodes = count(before, "nodes");
+        int edges = count(before, "edge");
+
+        // the nodes come before the edges (that reference them), the rows of a table in the order of the pks
+        List<DbRecord> rows = new ArrayList<>();
+        assertEquals(nodes + edges, dbExporter.dumpTables(demo, List.of("Edge", "Nodes"), r -> {
+            rows.add(r);
+            return null;
+        }));
+        List<RowLink> nodeRows = rows.subList(0, nodes).stream().map(DbRecord::getRowLink).toList();
+        List<RowLink> edgeRows = rows.subList(nodes, rows.size()).stream().map(DbRecord::getRowLink).toList();
+        assertTrue(nodeRows.stream().allMatch(r -> r.getTableName().equalsIgnoreCase("nodes")));
+        assertTrue(edgeRows.stream().allMatch(r -> r.getTableName().equalsIgnoreCase("edge")));
+        Comparator<RowLink> byPks = Comparator.comparingLong((RowLink r) -> ((Number) r.getPks()[0]).longValue())
+                .thenComparingLong(r -> r.getPks().length > 1 ? ((Number) r.getPks()[1]).longValue() : 0);
+        assertEquals(nodeRows.stream().sorted(byPks).distinct().toList(), nodeRows);
+        assertEquals(edgeRows.stream().sorted(byPks).distinct().toList(), edgeRows);
+
+        // graph format
+        StringWriter graph = new StringWriter();
+        assertEquals(nodes + edges, dbExporter.dumpAsGraph(demo, graph, List.of("Edge", "Nodes")));
+        JsonNode json = DbRecord.getObjectMapper().readTree(graph.toString());
+        assertEquals(2, json.get("_metadata").get("dump").size());
+        assertEquals("nodes", json.get("tables").get(0).get("table").asText().toLowerCase());
+        assertEquals(edges, json.get("tables").get(1).get("rows").size());
+
+        DbImporter dbImporter = new DbImporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbImporter.getFkCache());
+
+        // NDJSON: replayed with new keys
+        StringWriter ndjson = new StringWriter();
+        assertEquals(nodes + edges, dbExporter.dumpAsNdjson(demo, ndjson, List.of("Edge", "Nodes")));
+        assertEquals(nodes + edges, ndjson.toString().lines().count());
+        Map<RowLink, DbImporter.Remap> newKeys = dbImporter.insertDump(demo, new StringReader(ndjson.toString()));
+        assertReplayed(demo, before, nodeRows, edgeRows, newKeys);
+
+        // binary
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        assertEquals(nodes + edges, dbExporter.dumpAsBinary(demo, binary, List.of("Nodes", "Edge")));
+        newKeys = dbImporter.insertDump(demo, new ByteArrayInputStream(binary.toByteArray()));
+        assertReplayed(demo, before, nodeRows, edgeRows, newKeys);
+    }
+
+    @Test
+    void dumpUuidKeyedTable() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        String dbProductName = demo.getMetaData().getDatabaseProductName();
+        Assumptions.assumeTrue(dbProductName.equals("H2") || dbProductName.equals("PostgreSQL"), "uuid type");
+
+        Set<UUID> ids = new HashSet<>();
+        try (Statement statement = demo.createStatement()) {
+            statement.execute("create table uuid_dump (id uuid primary key, name varchar(50))");
+        }
+        try {
+            try (PreparedStatement insert = demo.prepareStatement("insert into uuid_dump values (?, ?)")) {
+                for (int i = 0; i < 5; i++) {
+                    UUID id = UUID.randomUUID();
+                    ids.add(id);
+                    insert.setObject(1, id);
+                    insert.setString(2, "row " + i);
+                    insert.executeUpdate();
+                }
+            }
+
+            DbExporter dbExporter = new DbExporter();
+            dbExporter.setDumpPageSize(2); // 3 pages
+            Set<UUID> dumped = new HashSet<>();
+            assertEquals(5, dbExporter.dumpTables(demo, List.of("uuid_dump"), r -> {
+                dumped.add(UUID.fromString(r.findElementWithName("id").getValue().toString()));
+                return null;
+            }));
+            assertEquals(ids, dumped);
+        } finally {
+            try (Statement statement = demo.createStatement()) {
+                statement.execute("drop table uuid_dump");
+            }
+        }
+    }
+
+    /** checks the new rows (and deletes them again) */
+    private static void assertReplayed(Connection demo, Map<String, Integer> before, List<RowLink> nodeRows, List<RowLink> edgeRows,
+                                       Map<RowLink, DbImporter.Remap> newKeys) throws Exception {
+        Map<String, Integer> after = JdbcHelpers.getNumberElementsInEachTable(demo);
+        assertEquals(2 * count(before, "nodes"), count(after, "nodes"));
+        assertEquals(2 * count(before, "edge"), count(after, "edge"));
+        for (RowLink edge : edgeRows) {
+            assertNotNull(newKeys.get(new RowLink("nodes", edge.getPks()[0])));
+        }
+
+        try (PreparedStatement deleteEdges = demo.prepareStatement("DELETE FROM Edge WHERE begin_id = ?");
+             PreparedStatement deleteNode = demo.prepareStatement("DELETE FROM Nodes WHERE node_id = ?")) {
+            for (RowLink node : nodeRows) {
+                Object newPk = newKeys.get(node).getPkField();
+                deleteEdges.setObject(1, newPk);
+                deleteEdges.executeUpdate();
+                deleteNode.setObject(1, newPk);
+                deleteNode.executeUpdate();
+            }
+        }
+        assertEquals(before, JdbcHelpers.getNumberElementsInEachTable(demo));
+    }
+
+    private static int count(Map<String, Integer> rowsPerTable, String table) {
+        return rowsPerTable.entrySet().stream().filter(e -> e.getKey().equalsIgnoreCase(table))
+                .mapToInt(Map.Entry::getValue).sum();
+    }
+}
@@ -0,0 +1,141 @@
+package org.oser.tools.jdbc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledIfSystemProperty;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GraphFormatTest {
+
+    @Test
+    void eachRowOnce() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+
+        StringWriter graph = new StringWriter();
+        dbExporter.contentAsGraph(demo, graph, "blogpost", 2);
+        JsonNode json = DbRecord.getObjectMapper().readTree(graph.toString());
+
+        assertEquals("blogpost/2", json.get("_metadata").get("root").asText());
+        List<String> tables = new ArrayList<>();
+        Set<RowLink> rows = new HashSet<>();
+        int rowCount = 0;
+        for (JsonNode block : json.get("tables")) {
+            tables.add(block.get("table").asText());
+            for (JsonNode row : block.get("rows")) {
+                rows.add(new RowLink(block.get("table").asText(), row.get("id").asLong()));
+                rowCount++;
+                row.fieldNames().forEachRemaining(name -> assertFalse(name.contains(DbImporter.JSON_SUBTABLE_SUFFIX)));
+            }
+        }
+        assertEquals(rows.size(), rowCount);
+        assertEquals(dbExporter.contentAsTree(demo, "blogpost", 2).getAllNodes(), rows);
+        assertTrue(tables.indexOf("user_table") < tables.indexOf("blogpost"));
+        assertTrue(tables.indexOf("blogpost") < tables.indexOf("ccomment"));
+
+        List<String> edge = List.of("ccomment/1", "blogpost/2");
+        boolean hasEdge = false;
+        for (JsonNode e : json.get("edges")) {
+            hasEdge |= edge.equals(List.of(e.get(0).asText(), e.get(1).asText()));
+        }
+        assertTrue(hasEdge);
+    }
+
+    @Test
+    @DisabledIfSystemProperty(named = "mixedCaseTableNames", matches = "false")
+    void insertGraph() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+
+        DbRecord nodes = dbExporter.contentAsTree(demo, "Nodes", 1);
+        StringWriter graph = new StringWriter();
+        dbExporter.contentAsGraph(demo, graph, "Nodes", 1);
+
+        DbImporter dbImporter = new DbImporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbImporter.getFkCache());
+        Map<RowLink, DbImporter.Remap> newKeys = dbImporter.insertGraph(demo, new StringReader(graph.toString()));
+
+        Object newPk = newKeys.get(nodes.getRowLink()).getPkField();
+        DbRecord copy = dbExporter.contentAsTree(demo, "Nodes", newPk);
+        assertEquals(DbRecord.classifyNodes(nodes.getAllNodes()), DbRecord.classifyNodes(copy.getAllNodes()));
+
+        dbExporter.deleteRecursively(demo, "Nodes", newPk);
+    }
+
+    @Test
+    @DisabledIfSystemProperty(named = "mixedCaseTableNames", matches = "false")
+    void subset() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+
+        // nodes/2 is linked to nodes/1 (10 rows), nodes/20 is a separate graph (3 rows)
+        Set<RowLink> expectedRows = new HashSet<>(dbExporter.contentAsTree(demo, "Nodes", 1).getAllNodes());
+        expectedRows.addAll(dbExporter.contentAsTree(demo, "Nodes", 20).getAllNodes());
+        Set<List<String>> expectedEdges = new HashSet<>();
+        for (Object root : List.of(1, 20)) {
+            dbExporter.keyGraph(demo, "Nodes", root).getEdges().forEach(e -> expectedEdges.add(List.of(e.from().toString(), e.to().toString())));
+        }
+
+        StringWriter graph = new StringWriter();
+        assertEquals(13, dbExporter.subsetAsGraph(demo, graph, "Nodes", List.of(new Object[]{1}, new Object[]{2}, new Object[]{20})));
+        JsonNode json = DbRecord.getObjectMapper().readTree(graph.toString());
+
+        assertEquals(3, json.get("_metadata").get("roots").size());
+        List<RowLink> rows = new ArrayList<>();
+        List<String> tables = new ArrayList<>();
+        for (JsonNode block : json.get("tables")) {
+            tables.add(block.get("table").asText().toLowerCase());
+            for (JsonNode row : block.get("rows")) {
+                rows.add(block.get("table").asText().equalsIgnoreCase("edge") ?
+                        new RowLink("edge", row.get("begin_id").asLong(), row.get("end_id").asLong()) :
+                        new RowLink("nodes", row.get("node_id").asLong()));
+            }
+        }
+        assertEquals(expectedRows.size(), rows.size()); // each row once
+        assertEquals(expectedRows, new HashSet<>(rows));
+        assertEquals(List.of("nodes", "edge"), tables);
+        Set<List<String>> edges = new HashSet<>();
+        json.get("edges").forEach(e -> edges.add(List.of(e.get(0).asText(), e.get(1).asText())));
+        assertEquals(expectedEdges, edges);
+
+        // the same roots with a sampling predicate
+        StringWriter sampled = new StringWriter();
+        assertEquals(13, dbExporter.subsetAsGraph(demo, sampled, "Nodes", "node_id in (1, 2, 20)"));
+        assertEquals(json.get("tables"), DbRecord.getObjectMapper().readTree(sampled.toString()).get("tables"));
+
+        // import it in one pass
+        DbImporter dbImporter = new DbImporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbImporter.getFkCache());
+        Map<String, Integer> before = JdbcHelpers.getNumberElementsInEachTable(demo);
+        Map<RowLink, DbImporter.Remap> newKeys = dbImporter.insertGraph(demo, new StringReader(graph.toString()));
+        Map<String, Integer> after = JdbcHelpers.getNumberElementsInEachTable(demo);
+        assertEquals(13, after.values().stream().mapToInt(Integer::intValue).sum() - before.values().stream().mapToInt(Integer::intValue).sum());
+
+        dbExporter.deleteRecursively(demo, "Nodes", newKeys.get(new RowLink("nodes/1")).getPkField());
+        dbExporter.deleteRecursively(demo, "Nodes", newKeys.get(new RowLink("nodes/20")).getPkField());
+        assertEquals(before, JdbcHelpers.getNumberElementsInEachTable(demo));
+    }
+
+    @Test
+    void wrongFormat() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        assertThrows(IllegalArgumentException.class, () -> new DbImporter().insertGraph(demo,
+                new StringReader("{\"_metadata\":{\"rootTable\":\"blogpost\"},\"id\":1}")));
+    }
+}
@@ -3,16 +3,26 @@ package org.oser.tools.jdbc;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import javax.sql.DataSource;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -81,6 +91,108 @@ class JdbcHelpersTest {
         assertTrue(allTableNames.size() >= 10);
     }
 
+    @Test
+    void approximateAndParallelCounts() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        Map<String, Integer> counts = JdbcHelpers.getNumberElementsInEachTable(demo);
+
+        Map<String, Long> estimates = JdbcHelpers.getApproximateNumberElementsInEachTable(demo);
+        assertEquals(counts.keySet(), estimates.keySet());
+        String blogpost = counts.keySet().stream().filter("blogpost"::equalsIgnoreCase).findFirst().orElseThrow();
+        assertTrue(counts.get(blogpost) > 0);
+        if (demo.getMetaData().getDatabaseProductName().equals("H2")) {
+            // the estimates of h2 are maintained with each change
+            counts.forEach((table, count) -> assertEquals(count.longValue(), estimates.get(table), table));
+        }
+
+        Map<String, Long> parallelCounts = JdbcHelpers.getNumberElementsInEachTable(TestHelpers.getDataSource("demo"), demo.getSchema(), 4, 60);
+        assertEquals(counts.keySet(), parallelCounts.keySet());
+        counts.forEach((table, count) -> assertEquals(count.longValue(), parallelCounts.get(table), table));
+
+        // a count that times out (simulated, the db's own timeout is not triggered here)
+        DataSource blogpostTimesOut = interceptQueries(TestHelpers.getDataSource("demo"), (statement, sql) -> {
+            if (sql.endsWith(blogpost) || sql.endsWith(blogpost + "\"")) {
+                throw new SQLTimeoutException("Query timed out");
+            }
+            return null;
+        }, () -> {});
+        Map<String, Long> withTimeout = JdbcHelpers.getNumberElementsInEachTable(blogpostTimesOut, demo.getSchema(), 2, 1);
+        assertEquals(-1L, withTimeout.get(blogpost));
+        counts.forEach((table, count) -> assertEquals(table.equals(blogpost) ? -1L : count.longValue(), withTimeout.get(table), table));
+    }
+
+    @Test
+    void parallelCountsCancelOtherWorkersOnFailure() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        AtomicBoolean first = new AtomicBoolean(true);
+        CountDownLatch othersCounting = new CountDownLatch(2);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        // the first count fails (once the 2 other workers count), the others wait until they are cancelled
+        DataSource failing = interceptQueries(TestHelpers.getDataSource("demo"), (statement, sql) -> {
+            if (first.getAndSet(false)) {
+                assertTrue(othersCounting.await(10, TimeUnit.SECONDS));
+                throw new SQLException("Count failed");
+            }
+            othersCounting.countDown();
+            assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+            throw new SQLException("Count cancelled");
+        }, cancelled::countDown);
+
+        SQLException exception = assertThrows(SQLException.class,
+                () -> JdbcHelpers.getNumberElementsInEachTable(failing, demo.getSchema(), 3, 60));
+        assertEquals("Count failed", exception.getMessage());
+        assertEquals(0, cancelled.getCount());
+    }
+
+    private interface QueryInterceptor {
+        /** @return the result set of the query, null to execute it on the db */
+        ResultSet executeQuery(Statement statement, String sql) throws Exception;
+    }
+
+    /** @return the dataSource, its statements' queries go first to the interceptor, onCancel runs for each Statement.cancel() */
+    private static DataSource interceptQueries(DataSource dataSource, QueryInterceptor interceptor, Runnable onCancel) {
+        return delegatingProxy(DataSource.class, dataSource, (dataSourceMethod, dataSourceArgs) -> {
+            if (!dataSourceMethod.equals("getConnection")) {
+                return null;
+            }
+            Connection connection = dataSource.getConnection();
+            return delegatingProxy(Connection.class, connection, (connectionMethod, connectionArgs) -> {
+                if (!connectionMethod.equals("createStatement")) {
+                    return null;
+                }
+                Statement statement = connection.createStatement();
+                return delegatingProxy(Statement.class, statement, (statementMethod, statementArgs) -> {
+                    if (statementMethod.equals("executeQuery")) {
+                        return interceptor.executeQuery(statement, (String) statementArgs[0]);
+                    } else if (statementMethod.equals("cancel")) {
+                        onCancel.run();
+                    }
+                    return null;
+                });
+            });
+        });
+    }
+
+    private interface MethodInterceptor {
+        /** @return the result of the method, null to call the delegate */
+        Object invoke(String methodName, Object[] args) throws Exception;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T delegatingProxy(Class<T> type, T delegate, MethodInterceptor interceptor) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Object result = interceptor.invoke(method.getName(), args);
+            if (result != null) {
+                return result;
+            }
+            try {
+                return method.invoke(delegate, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
     @Test
     void getPrimaryKeys_notExistingTable() throws SQLException, IOException, ClassNotFoundException {
         Connection demo1 = TestHelpers.getConnection("demo");
@@ -161,6 +273,73 @@ class JdbcHelpersTest {
         compareWithoutWhitespace(r3.getStatement(), "UPDATE T SET a = ?, b = ?  WHERE pk1 = ? AND pk2 = ?");
     }
 
+    @Test
+    void getSqlMultiRowInsertStatement() {
+        Map<String, JdbcHelpers.ColumnMetadata> columnMetadata =
+                Map.of("a", new JdbcHelpers.ColumnMetadata("a", "varchar", 1, 1, 1, "1", 1),
+                       "b", new JdbcHelpers.ColumnMetadata("b", "varchar", 1, 1, 1, "1", 2));
+
+        JdbcHelpers.SqlChangeStatement r1 = JdbcHelpers.getSqlMultiRowInsertStatement("T", List.of("a", "b"), 3, columnMetadata);
+        compareWithoutWhitespace(r1.getStatement(), "INSERT INTO T (a, b) VALUES (?, ?), (?, ?), (?, ?)");
+        assertEquals(List.of("a", "b", "a", "b", "a", "b"), r1.getFields());
+
+        assertEquals(1000, JdbcHelpers.maxRowsPerInsertStatement("Microsoft SQL Server", 2));
+        assertEquals(209, JdbcHelpers.maxRowsPerInsertStatement("Microsoft SQL Server", 10));
+        assertEquals(699, JdbcHelpers.maxRowsPerInsertStatement("Microsoft SQL Server", 3)); // 2097 parameters, not 2100
+        assertEquals(6553, JdbcHelpers.maxRowsPerInsertStatement("PostgreSQL", 10));
+        assertEquals(0, JdbcHelpers.maxRowsPerInsertStatement("Oracle", 10));
+    }
+
+    @Test
+    void keysetPageSelect() {
+        assertEquals("SELECT * FROM edge ORDER BY begin_id, end_id LIMIT 100",
+                JdbcHelpers.keysetPageSelect("edge", List.of("begin_id", "end_id"), true, 100, "H2"));
+        assertEquals("SELECT * FROM edge WHERE (begin_id > ?) OR (begin_id = ? AND end_id > ?) ORDER BY begin_id, end_id LIMIT 100",
+                JdbcHelpers.keysetPageSelect("edge", List.of("begin_id", "end_id"), false, 100, "PostgreSQL"));
+        assertEquals("SELECT * FROM T WHERE (id > ?) ORDER BY id OFFSET 0 ROWS FETCH NEXT 5 ROWS ONLY",
+                JdbcHelpers.keysetPageSelect("T", List.of("id"), false, 5, "Oracle"));
+        assertThrows(IllegalArgumentException.class, () -> JdbcHelpers.keysetPageSelect("T", List.of(), true, 5, "H2"));
+
+        // postgres enum as pk: cast as in inserts
+        Map<String, JdbcHelpers.ColumnMetadata> columns = Map.of("state",
+                new JdbcHelpers.ColumnMetadata("state", "mood", Types.VARCHAR, Types.VARCHAR, 10, "'G'::mood", 1));
+        assertEquals("SELECT * FROM T WHERE (state > ?::mood) OR (state = ?::mood AND id > ?) ORDER BY state, id LIMIT 5",
+                JdbcHelpers.keysetPageSelect("T", List.of("state", "id"), false, 5, "PostgreSQL", columns));
+    }
+
+    @Test
+    void determineOrderOfSeveralTables() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+        assertEquals(List.of("user_table", "blogpost", "ccomment"),
+                JdbcHelpers.determineOrder(demo, List.of("ccomment", "user_table", "blogpost"), false, dbExporter.getFkCache()));
+        // blogpost is not in the list, but ccomment still comes after user_table
+        assertEquals(List.of("user_table", "ccomment"),
+                JdbcHelpers.determineOrder(demo, List.of("CCOMMENT", "user_table"), false, dbExporter.getFkCache()));
+    }
+
+    @Test
+    void getSqlUpsertStatement() {
+        Map<String, JdbcHelpers.ColumnMetadata> columnMetadata =
+                Map.of("pk", new JdbcHelpers.ColumnMetadata("pk", "int", 4, 1, 1, null, 1),
+                       "a", new JdbcHelpers.ColumnMetadata("a", "varchar", 1, 1, 1, null, 2));
+        List<String> columns = List.of("pk", "a");
+
+        compareWithoutWhitespace(JdbcHelpers.getSqlUpsertStatement("PostgreSQL", "T", columns, List.of("pk"), columnMetadata).getStatement(),
+                "INSERT INTO T (pk, a) VALUES (?, ?) ON CONFLICT (pk) DO UPDATE SET a = EXCLUDED.a");
+        compareWithoutWhitespace(JdbcHelpers.getSqlUpsertStatement("MySQL", "T", columns, List.of("pk"), columnMetadata).getStatement(),
+                "INSERT INTO T (pk, a) VALUES (?, ?) ON DUPLICATE KEY UPDATE a = VALUES(a)");
+        compareWithoutWhitespace(JdbcHelpers.getSqlUpsertStatement("H2", "T", columns, List.of("pk"), columnMetadata).getStatement(),
+                "MERGE INTO T (pk, a) KEY (pk) VALUES (?, ?)");
+        compareWithoutWhitespace(JdbcHelpers.getSqlUpsertStatement("Microsoft SQL Server", "T", columns, List.of("pk"), columnMetadata).getStatement(),
+                "MERGE INTO T AS target USING (VALUES (?, ?)) AS src (pk, a) ON (target.pk = src.pk) WHEN MATCHED THEN UPDATE SET target.a = src.a " +
+                        "WHEN NOT MATCHED THEN INSERT (pk, a) VALUES (src.pk, src.a);");
+        compareWithoutWhitespace(JdbcHelpers.getSqlUpsertStatement("PostgreSQL", "T", List.of("pk"), List.of("pk"), columnMetadata).getStatement(),
+                "INSERT INTO T (pk) VALUES (?) ON CONFLICT (pk) DO NOTHING");
+        assertEquals(null, JdbcHelpers.getSqlUpsertStatement("SQLite", "T", columns, List.of("pk"), columnMetadata));
+    }
+
     private void compareWithoutWhitespace(String r1, String s) {
         assertEquals(r1.replaceAll("\\s+",""), s.replaceAll("\\s+",""));
     }
@@ -0,0 +1,100 @@
+package org.oser.tools.jdbc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeyRemapsTest {
+
+    @Test
+    void sameAsHashMap() {
+        KeyRemaps remaps = new KeyRemaps();
+        Map<RowLink, DbImporter.Remap> expected = new HashMap<>();
+        for (long i = 0; i < 1000; i++) {
+            put(remaps, expected, new RowLink("Nodes", i), new DbImporter.Remap(i + 10_000, 0));
+        }
+        put(remaps, expected, new RowLink("edge", 1, 6), new DbImporter.Remap(7L, 1));
+        put(remaps, expected, new RowLink("country", "CH"), new DbImporter.Remap("LI", 0));
+        put(remaps, expected, new RowLink("nodes", 5), new DbImporter.Remap(5, 0)); // an Integer as new pk
+
+        assertSameRemaps(expected, remaps);
+        assertEquals(1002, remaps.size());
+
+        for (long i = 0; i < 1000; i += 2) {
+            assertEquals(expected.remove(new RowLink("nodes", i)).getPkField(), remaps.remove(new RowLink("NODES", i)).getPkField());
+        }
+        assertSameRemaps(expected, remaps);
+
+        remaps.keySet().removeIf(r -> r.getTableName().equals("edge"));
+        assertFalse(remaps.containsKey(new RowLink("edge/1/6")));
+        assertEquals(501, remaps.size());
+    }
+
+    @Test
+    void getNewPk() {
+        KeyRemaps remaps = new KeyRemaps();
+        remaps.put(new RowLink("Nodes", 3), new DbImporter.Remap(33L, 0));
+        remaps.put(new RowLink("country", "CH"), new DbImporter.Remap("LI", 0));
+
+        // like RowLink equality: keys with the same string are equal
+        assertEquals(33L, KeyRemaps.getNewPk(remaps, "nodes", 3));
+        assertEquals(33L, KeyRemaps.getNewPk(remaps, "NODES", "3"));
+        assertEquals(33L, remaps.get(new RowLink("nodes/3")).getPkField());
+        assertTrue(remaps.containsKey(new RowLink("nodes", "3")));
+        assertNull(KeyRemaps.getNewPk(remaps, "nodes", "03"));
+        assertNull(KeyRemaps.getNewPk(remaps, "nodes", 4));
+        assertNull(KeyRemaps.getNewPk(remaps, "other", 3));
+        assertEquals("LI", KeyRemaps.getNewPk(remaps, "country", "CH"));
+
+        Map<RowLink, DbImporter.Remap> hashMap = new HashMap<>(remaps);
+        assertEquals(33L, KeyRemaps.getNewPk(hashMap, "nodes", 3));
+    }
+
+    @Test
+    void compactKeys() {
+        // equal RowLinks (same string representation) have the same hash code
+        assertEquals(new RowLink("nodes", 5L), new RowLink("Nodes", "5"));
+        assertEquals(new RowLink("nodes", 5L).hashCode(), new RowLink("Nodes", "5").hashCode());
+        assertEquals(new RowLink("edge", -12L, 6L).hashCode(), new RowLink("edge/-12/6").hashCode());
+        assertFalse(new RowLink("nodes", 5L).equals(new RowLink("nodes", "05")));
+
+        RowKeyMap<String> rows = new RowKeyMap<>();
+        rows.put(new RowLink("Nodes", 5L), "a");
+        rows.put("edge", new Object[]{1, 6}, "b");
+        rows.put("country", new Object[]{"CH"}, "c");
+        rows.put("mixed", new Object[]{"CH", 3}, "d");
+
+        assertEquals("a", rows.get("NODES", new Object[]{"5"}));
+        assertEquals("b", rows.get(new RowLink("edge/1/6")));
+        assertEquals("c", rows.get("country", new Object[]{"CH"}));
+        assertEquals("d", rows.get(new RowLink("mixed", "CH", "3")));
+        assertNull(rows.get("nodes", new Object[]{6}));
+        assertTrue(rows.containsTable("nodes"));
+        assertTrue(rows.keySet().contains(new RowLink("edge", 1L, 6L)));
+        assertEquals(4, rows.keySet().size());
+
+        rows.remove(new RowLink("nodes/5"));
+        assertFalse(rows.containsTable("Nodes"));
+        assertEquals(3, rows.size());
+    }
+
+    private static void assertSameRemaps(Map<RowLink, DbImporter.Remap> expected, KeyRemaps remaps) {
+        assertEquals(expected.keySet(), remaps.keySet());
+        assertEquals(expected.size(), remaps.size());
+        remaps.forEach((rowLink, remap) -> {
+            assertEquals(expected.get(rowLink).getPkField(), remap.getPkField());
+            assertEquals(expected.get(rowLink).getPosition(), remap.getPosition());
+        });
+    }
+
+    private static void put(KeyRemaps remaps, Map<RowLink, DbImporter.Remap> expected, RowLink rowLink, DbImporter.Remap remap) {
+        remaps.put(rowLink, remap);
+        expected.put(rowLink, remap);
+    }
+}
@@ -0,0 +1,111 @@
+package org.oser.tools.jdbc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledIfSystemProperty;
+
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LevelWiseExportTest {
+
+    @Test
+    @DisabledIfSystemProperty(named = "mixedCaseTableNames", matches = "false")
+    void sameRowsAsDepthFirst() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        Set<RowLink> depthFirst = rowsOf(demo, new DbExporter(), "Nodes", 1);
+        assertEquals(10, depthFirst.size());
+
+        DbExporter levelWise = new DbExporter();
+        levelWise.setLevelWise(true);
+        assertEquals(depthFirst, rowsOf(demo, levelWise, "Nodes", 1));
+
+        // the linked rows of each level via temporary tables
+        levelWise.setTempTableKeyThreshold(0);
+        assertEquals(depthFirst, rowsOf(demo, levelWise, "Nodes", 1));
+        assertEquals(rowsOf(demo, new DbExporter(), "blogpost", 2), rowsOf(demo, levelWise, "blogpost", 2));
+
+        assertThrows(IllegalArgumentException.class, () -> rowsOf(demo, levelWise, "Nodes", 999));
+    }
+
+    @Test
+    @DisabledIfSystemProperty(named = "mixedCaseTableNames", matches = "false")
+    void subsetOfSeveralRoots() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        List<Object[]> roots = List.of(new Object[]{1}, new Object[]{3}, new Object[]{20});
+
+        StringWriter depthFirst = new StringWriter();
+        long rows = new DbExporter().subsetAsGraph(demo, depthFirst, "Nodes", roots);
+
+        DbExporter dbExporter = new DbExporter();
+        dbExporter.setLevelWise(true);
+        dbExporter.setTempTableKeyThreshold(1);
+        StringWriter levelWise = new StringWriter();
+        assertEquals(rows, dbExporter.subsetAsGraph(demo, levelWise, "Nodes", roots));
+        assertEquals(tableSizes(depthFirst.toString()), tableSizes(levelWise.toString()));
+    }
+
+    @Test
+    void tempKeyTableWithUuids() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        String dbProductName = demo.getMetaData().getDatabaseProductName();
+        Assumptions.assumeTrue(dbProductName.equals("H2") || dbProductName.equals("PostgreSQL"), "uuid type");
+
+        try (Statement statement = demo.createStatement()) {
+            statement.execute("create table uuid_keys (id uuid primary key)");
+        }
+        try {
+            List<Object[]> keys = new ArrayList<>();
+            try (PreparedStatement insert = demo.prepareStatement("insert into uuid_keys values (?)")) {
+                for (int i = 0; i < 3; i++) {
+                    UUID id = UUID.randomUUID();
+                    keys.add(new Object[]{id});
+                    insert.setObject(1, id);
+                    insert.executeUpdate();
+                }
+            }
+
+            try (TempKeyTable keyTable = TempKeyTable.of(demo, List.of("id"), JdbcHelpers.getColumnMetadata(demo.getMetaData(), "uuid_keys"), keys);
+                 Statement statement = demo.createStatement();
+                 ResultSet rs = statement.executeQuery("select count(*) from uuid_keys where " + keyTable.existsCondition("uuid_keys"))) {
+                assertTrue(rs.next());
+                assertEquals(3, rs.getInt(1));
+            }
+        } finally {
+            try (Statement statement = demo.createStatement()) {
+                statement.execute("drop table uuid_keys");
+            }
+        }
+    }
+
+    private static Set<RowLink> rowsOf(Connection connection, DbExporter dbExporter, String tableName, Object... pkValue) throws Exception {
+        Fk.initFkCacheForMysql_LogException(connection, dbExporter.getFkCache());
+        Set<RowLink> rows = new HashSet<>();
+        dbExporter.contentAsRowStream(connection, r -> {
+            assertTrue(rows.add(r.getRowLink()));
+            return null;
+        }, tableName, pkValue);
+        return rows;
+    }
+
+    private static List<Integer> tableSizes(String graph) throws Exception {
+        List<Integer> result = new ArrayList<>();
+        for (JsonNode table : DbRecord.getObjectMapper().readTree(graph).get("tables")) {
+            result.add(table.get("rows").size());
+        }
+        return result;
+    }
+}
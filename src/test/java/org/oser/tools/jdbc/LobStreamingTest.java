@@ -0,0 +1,273 @@
+package org.oser.tools.jdbc;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LobStreamingTest {
+
+    @Test
+    void writeJsonIsLikeJsonNode() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        ObjectMapper mapper = DbRecord.getObjectMapper();
+        DbRecord blogpost = new DbExporter().contentAsTree(demo, "blogpost", 2);
+
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = mapper.createGenerator(json)) {
+            blogpost.writeJson(generator, true);
+        }
+        assertEquals(mapper.writeValueAsString(blogpost.asJsonNode()), json.toString());
+    }
+
+    @Test
+    void streamedLobsAreExportedAsBefore() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        // the other dbs have other lob types in special_datatypes
+        Assumptions.assumeTrue(demo.getMetaData().getDatabaseProductName().equals("H2"), "lob types of H2");
+
+        byte[] bytes = randomBytes();
+        String text = "a multi megabyte text ".repeat(100_000);
+        insertLobRow(demo, 3000, text, bytes);
+
+        try {
+            DbExporter dbExporter = new DbExporter();
+            dbExporter.setStreamLobs(true);
+            DbRecord streamed = dbExporter.contentAsTree(demo, "special_datatypes", 3000);
+            LobValue blob = (LobValue) streamed.findElementWithName("a_blob").getValue();
+            LobValue clob = (LobValue) streamed.findElementWithName("additional_text").getValue();
+            assertEquals(bytes.length, blob.length());
+            assertTrue(clob.isCharacter());
+
+            ObjectMapper mapper = DbRecord.getObjectMapper();
+            StringWriter json = new StringWriter();
+            try (JsonGenerator generator = mapper.createGenerator(json)) {
+                streamed.writeJson(generator, true);
+            }
+            JsonNode parsed = mapper.readTree(json.toString());
+            assertArrayEquals(bytes, Base64.getDecoder().decode(parsed.get("a_blob").asText()));
+            assertEquals(text, parsed.get("additional_text").asText());
+            assertEquals(3000, parsed.get("id").asInt());
+
+            // the same as the JsonNode (compared as strings: the blob is a binary node in the tree, a text node when parsed)
+            String expected = mapper.writeValueAsString(streamed.asJsonNode());
+            assertEquals(expected, json.toString());
+
+            StringWriter ndjson = new StringWriter();
+            dbExporter.contentAsNdjson(demo, "special_datatypes", List.<Object[]>of(new Object[]{3000}), ndjson);
+            assertEquals(expected + "\n", ndjson.toString());
+
+            DbRecord fromBinary = BinaryRecordReader.fromBytes(BinaryRecordWriter.toBytes(streamed), null);
+            assertArrayEquals(bytes, (byte[]) fromBinary.findElementWithName("a_blob").getValue());
+            assertEquals(text, fromBinary.findElementWithName("additional_text").getValue());
+        } finally {
+            deleteLobRows(demo);
+        }
+    }
+
+    @Test
+    void spilledLobsRoundTrip() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        // the other dbs have other lob types in special_datatypes
+        Assumptions.assumeTrue(demo.getMetaData().getDatabaseProductName().equals("H2"), "lob types of H2");
+
+        byte[] bytes = randomBytes();
+        String text = "some text with umlauts äöü ".repeat(100_000);
+        insertLobRow(demo, 3001, text, bytes);
+
+        try {
+            DbExporter dbExporter = new DbExporter();
+            dbExporter.setLobSpillThreshold(1000);
+            // spilling takes precedence over type exporters (as the default ones for CLOB and BLOB)
+            Map<String, JdbcHelpers.ColumnMetadata> columns = JdbcHelpers.getColumnMetadata(demo.getMetaData(), "special_datatypes");
+            for (String lobColumn : List.of("a_blob", "additional_text")) {
+                dbExporter.getTypeFieldExporters().put(columns.get(lobColumn).getType().toUpperCase(), (table, field, metadata, rs) -> {
+                    throw new IllegalStateException("lob read by the type exporter " + field);
+                });
+            }
+            DbRecord exported = dbExporter.contentAsTree(demo, "special_datatypes", 3001);
+            SpilledLob blob = (SpilledLob) exported.findElementWithName("a_blob").getValue();
+            assertEquals(bytes.length, Files.size(blob.getFile()));
+            assertArrayEquals(bytes, blob.getBytes());
+
+            BinaryRecordReader reader = new BinaryRecordReader(new ByteArrayInputStream(BinaryRecordWriter.toBytes(exported)), demo);
+            reader.setLobSpillThreshold(1000);
+            DbRecord readAgain = reader.read();
+            SpilledLob clob = (SpilledLob) readAgain.findElementWithName("additional_text").getValue();
+            assertEquals(text.length(), clob.length());
+            assertEquals(text, clob.getString());
+            assertTrue(readAgain.findElementWithName("a_blob").getValue() instanceof SpilledLob);
+
+            Map<RowLink, DbImporter.Remap> newKeys = new DbImporter().insertRecords(demo, readAgain);
+            Object newPk = newKeys.get(exported.getRowLink()).getPkField();
+            try (PreparedStatement statement = demo.prepareStatement("select additional_text, a_blob from special_datatypes where id = ?")) {
+                statement.setLong(1, ((Number) newPk).longValue());
+                try (ResultSet rs = statement.executeQuery()) {
+                    assertTrue(rs.next());
+                    assertEquals(text, rs.getString(1));
+                    assertArrayEquals(bytes, rs.getBytes(2));
+                }
+            }
+
+            exported.deleteSpilledLobs();
+            assertFalse(Files.exists(blob.getFile()));
+            readAgain.deleteSpilledLobs();
+            assertFalse(Files.exists(clob.getFile()));
+        } finally {
+            deleteLobRows(demo);
+        }
+    }
+
+    @Test
+    void spilledBinaryValues() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        String dbProductName = demo.getMetaData().getDatabaseProductName();
+        Assumptions.assumeTrue(dbProductName.equals("H2") || dbProductName.equals("PostgreSQL"), "binary type of H2 and postgres");
+
+        byte[] large = randomBytes();
+        try (Statement statement = demo.createStatement()) {
+            statement.execute("create table binary_spill (id int primary key, data " + (dbProductName.equals("H2") ? "varbinary(4000000)" : "bytea") + ")");
+        }
+        try (PreparedStatement statement = demo.prepareStatement("insert into binary_spill values (?, ?)")) {
+            statement.setInt(1, 1);
+            statement.setBytes(2, new byte[]{1, 2, 3});
+            statement.executeUpdate();
+            statement.setInt(1, 2);
+            statement.setBytes(2, large);
+            statement.executeUpdate();
+        }
+        try {
+            DbExporter dbExporter = new DbExporter();
+            dbExporter.setLobSpillThreshold(1000);
+            assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) dbExporter.contentAsTree(demo, "binary_spill", 1).findElementWithName("data").getValue());
+
+            DbRecord exported = dbExporter.contentAsTree(demo, "binary_spill", 2);
+            SpilledLob spilled = (SpilledLob) exported.findElementWithName("data").getValue();
+            assertEquals(large.length, Files.size(spilled.getFile()));
+
+            // inserted again as stream
+            Map<RowLink, DbImporter.Remap> newKeys = new DbImporter().insertRecords(demo, exported);
+            try (PreparedStatement statement = demo.prepareStatement("select data from binary_spill where id = ?")) {
+                statement.setLong(1, ((Number) newKeys.get(exported.getRowLink()).getPkField()).longValue());
+                try (ResultSet rs = statement.executeQuery()) {
+                    assertTrue(rs.next());
+                    assertArrayEquals(large, rs.getBytes(1));
+                }
+            }
+            exported.deleteSpilledLobs();
+        } finally {
+            try (Statement statement = demo.createStatement()) {
+                statement.execute("drop table binary_spill");
+            }
+        }
+    }
+
+    @Test
+    void writingExportsDeleteTheirSpilledLobs() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        Assumptions.assumeTrue(demo.getMetaData().getDatabaseProductName().equals("H2"), "lob types of H2");
+
+        insertLobRow(demo, 3002, "some text ".repeat(1000), randomBytes());
+        try {
+            DbExporter dbExporter = new DbExporter();
+            dbExporter.setLobSpillThreshold(1000);
+            long spillFilesBefore = spillFiles();
+
+            List<Object[]> roots = List.<Object[]>of(new Object[]{3002});
+            dbExporter.contentAsNdjson(demo, "special_datatypes", roots, new StringWriter());
+            dbExporter.contentAsGraph(demo, new StringWriter(), "special_datatypes", 3002);
+            dbExporter.contentAsFlatNdjson(demo, new StringWriter(), "special_datatypes", 3002);
+            dbExporter.subsetAsGraph(demo, new StringWriter(), "special_datatypes", roots);
+            dbExporter.dumpAsNdjson(demo, new StringWriter(), List.of("special_datatypes"));
+            dbExporter.dumpAsGraph(demo, new StringWriter(), List.of("special_datatypes"));
+            dbExporter.dumpAsBinary(demo, new ByteArrayOutputStream(), List.of("special_datatypes"));
+            assertEquals(spillFilesBefore, spillFiles());
+        } finally {
+            deleteLobRows(demo);
+        }
+    }
+
+    private static long spillFiles() throws IOException {
+        try (Stream<Path> files = Files.list(Path.of(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(f -> f.getFileName().toString().startsWith("linked-db-rows-lob")).count();
+        }
+    }
+
+    @Test
+    void spilledLobsOfReferenceTablesAreNotShared() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        Assumptions.assumeTrue(demo.getMetaData().getDatabaseProductName().equals("H2"), "lob types of H2");
+
+        try (Statement statement = demo.createStatement()) {
+            statement.execute("create table lob_ref (id int primary key, doc clob)");
+            statement.execute("create table lob_user (id int primary key, ref_id int references lob_ref(id))");
+            statement.execute("insert into lob_ref values (1, '" + "a long document ".repeat(1000) + "')");
+            statement.execute("insert into lob_user values (1, 1)");
+        }
+        try {
+            DbExporter dbExporter = new DbExporter();
+            dbExporter.getReferenceTables().add("lob_ref");
+            dbExporter.setLobSpillThreshold(100);
+
+            DbRecord first = dbExporter.contentAsTree(demo, "lob_user", 1);
+            DbRecord second = dbExporter.contentAsTree(demo, "lob_user", 1);
+            assertEquals(0, dbExporter.getReferenceRowCache().estimatedSize());
+
+            first.deleteSpilledLobs();
+            SpilledLob doc = (SpilledLob) second.getAllRecords().stream().filter(r -> r.getTableName().equalsIgnoreCase("lob_ref"))
+                    .findFirst().orElseThrow().findElementWithName("doc").getValue();
+            assertEquals("a long document ".repeat(1000), doc.getString());
+            second.deleteSpilledLobs();
+        } finally {
+            try (Statement statement = demo.createStatement()) {
+                statement.execute("drop table lob_user");
+                statement.execute("drop table lob_ref");
+            }
+        }
+    }
+
+    private static byte[] randomBytes() {
+        byte[] bytes = new byte[3_000_000];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void insertLobRow(Connection demo, int id, String text, byte[] bytes) throws SQLException {
+        try (PreparedStatement statement = demo.prepareStatement("insert into special_datatypes (id, additional_text, a_blob) values (?, ?, ?)")) {
+            statement.setInt(1, id);
+            statement.setCharacterStream(2, new StringReader(text));
+            statement.setBytes(3, bytes);
+            statement.executeUpdate();
+        }
+    }
+
+    private static void deleteLobRows(Connection demo) throws SQLException {
+        try (Statement statement = demo.createStatement()) {
+            statement.executeUpdate("delete from special_datatypes where id >= 3000");
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.oser.tools.jdbc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NdjsonTest {
+
+    @Test
+    @DisabledIfSystemProperty(named = "mixedCaseTableNames", matches = "false")
+    void exportAndImport() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+
+        // 2 separate graphs: nodes/1 (10 rows) and nodes/20 (3 rows)
+        StringWriter writer = new StringWriter();
+        assertEquals(2, dbExporter.contentAsNdjson(demo, "Nodes", List.of(new Object[]{1}, new Object[]{20}), writer));
+        String ndjson = writer.toString();
+        assertEquals(2, ndjson.lines().count());
+
+        long maxNodeId = maxNodeId(demo);
+
+        DbImporter dbImporter = new DbImporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbImporter.getFkCache());
+        dbImporter.setParsingThreads(2);
+
+        Map<String, Integer> before = JdbcHelpers.getNumberElementsInEachTable(demo);
+        assertEquals(2, dbImporter.insertNdjson(demo, "Nodes", new StringReader(ndjson)));
+        Map<String, Integer> afterAll = JdbcHelpers.getNumberElementsInEachTable(demo);
+        assertEquals(13, numberOfRows(afterAll) - numberOfRows(before));
+
+        // restart after the first line
+        dbImporter.setParsingThreads(1);
+        assertEquals(1, dbImporter.insertNdjson(demo, "Nodes", new StringReader(ndjson), 1, Long.MAX_VALUE));
+        assertEquals(3, numberOfRows(JdbcHelpers.getNumberElementsInEachTable(demo)) - numberOfRows(afterAll));
+
+        // delete the copies again
+        long copy;
+        while ((copy = maxNodeId(demo)) > maxNodeId) {
+            dbExporter.deleteRecursively(demo, "Nodes", copy);
+        }
+    }
+
+    @Test
+    @DisabledIfSystemProperty(named = "mixedCaseTableNames", matches = "false")
+    void flatRowStream(@TempDir Path directory) throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+
+        Set<RowLink> expected = dbExporter.contentAsTree(demo, "Nodes", 1).getAllNodes();
+
+        Set<RowLink> streamed = new HashSet<>();
+        assertEquals(expected.size(), dbExporter.contentAsRowStream(demo, row -> {
+            assertTrue(row.getContent().stream().allMatch(field -> field.getSubRow().isEmpty()));
+            assertTrue(streamed.add(row.getRowLink()));
+            return null;
+        }, "Nodes", 1));
+        assertEquals(expected, streamed);
+
+        // the visited rows do not fit into the memory cap
+        dbExporter.setVisitedRowsMemoryCap(0);
+        assertThrows(IllegalStateException.class, () -> dbExporter.contentAsRowStream(demo, row -> null, "Nodes", 1));
+        dbExporter.setVisitedRowsOverflowDirectory(directory);
+
+        StringWriter writer = new StringWriter();
+        assertEquals(expected.size(), dbExporter.contentAsFlatNdjson(demo, writer, "Nodes", 1));
+        assertEquals(expected.size(), writer.toString().lines().count());
+        assertEquals(0, TestHelpers.numberOfFiles(directory));
+    }
+
+    @Test
+    @DisabledIfSystemProperty(named = "mixedCaseTableNames", matches = "false")
+    void chunkedFanout() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+        DbRecord expected = dbExporter.contentAsTree(demo, "Nodes", 1);
+
+        // the edges of nodes/1 are followed one by one while they are read
+        dbExporter.setFetchSize(2);
+        dbExporter.setFanoutChunkSize(1);
+        Set<RowLink> streamed = new HashSet<>();
+        assertEquals(expected.getAllNodes().size(), dbExporter.contentAsRowStream(demo, row -> {
+            assertTrue(streamed.add(row.getRowLink()));
+            return null;
+        }, "Nodes", 1));
+        assertEquals(expected.getAllNodes(), streamed);
+
+        DbRecord chunked = dbExporter.contentAsTree(demo, "Nodes", 1);
+        assertEquals(expected.getAllNodes(), chunked.getAllNodes());
+        assertTrue(demo.getAutoCommit());
+    }
+
+    @Test
+    void wrongLine() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbImporter dbImporter = new DbImporter();
+
+        Exception exception = assertThrows(java.io.IOException.class, () ->
+                dbImporter.insertNdjson(demo, "Nodes", new StringReader("\n{ no json")));
+        assertEquals("Could not parse line 1", exception.getMessage());
+    }
+
+    private static long maxNodeId(Connection connection) throws Exception {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("select max(node_id) from Nodes")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static int numberOfRows(Map<String, Integer> rowsPerTable) {
+        return rowsPerTable.values().stream().mapToInt(Integer::intValue).sum();
+    }
+}
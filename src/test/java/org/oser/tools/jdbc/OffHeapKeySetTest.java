@@ -0,0 +1,75 @@
+package org.oser.tools.jdbc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapKeySetTest {
+
+    @Test
+    void sameAsHashSet() {
+        Set<RowLink> expected = new HashSet<>();
+        try (OffHeapKeySet keys = new OffHeapKeySet(Long.MAX_VALUE, null)) {
+            for (long i = 0; i < 5000; i++) {
+                assertEquals(expected.add(new RowLink("Nodes", i)), keys.add("Nodes", new Object[]{i}));
+                assertEquals(expected.add(new RowLink("edge", i % 7, i)), keys.add("edge", new Object[]{i % 7, i}));
+                assertEquals(expected.add(new RowLink("country", "C" + i % 300)), keys.add("country", new Object[]{"C" + i % 300}));
+            }
+            assertEquals(expected.size(), keys.size());
+
+            // like RowLink equality: keys with the same string are equal
+            assertFalse(keys.add("NODES", new Object[]{"5"}));
+            assertFalse(keys.add("edge", new Object[]{"1", 8L}));
+            assertTrue(keys.contains("country", new Object[]{"C12"}));
+            assertFalse(keys.contains("country", new Object[]{"C300"}));
+            assertFalse(keys.contains("nodes", new Object[]{"05"}));
+            assertFalse(keys.contains("edge", new Object[]{18, 1}));
+            assertFalse(keys.contains("other", new Object[]{1}));
+
+            // the pks are separated
+            assertTrue(keys.add("composite", new Object[]{"a/b", "c"}));
+            assertTrue(keys.add("composite", new Object[]{"a", "b/c"}));
+
+            assertTrue(keys.containsTable("Edge"));
+            assertFalse(keys.containsTable("other"));
+            assertEquals(expected.size() + 2, keys.size());
+        }
+    }
+
+    @Test
+    void overflowToDisk(@TempDir Path directory) throws Exception {
+        // 16 KB are 1024 slots (768 rows)
+        try (OffHeapKeySet keys = new OffHeapKeySet(16 * 1024, directory)) {
+            for (long i = 0; i < 768; i++) {
+                keys.add("nodes", new Object[]{i});
+            }
+            assertFalse(keys.isOnDisk());
+
+            for (long i = 768; i < 10_000; i++) {
+                keys.add("nodes", new Object[]{i});
+                keys.add("book", new Object[]{"isbn" + i});
+            }
+            assertTrue(keys.isOnDisk());
+            assertEquals(1, TestHelpers.numberOfFiles(directory));
+            assertEquals(19_232, keys.size());
+            assertTrue(keys.contains("nodes", new Object[]{0}));
+            assertTrue(keys.contains("book", new Object[]{"isbn9999"}));
+            assertFalse(keys.contains("book", new Object[]{"isbn10000"}));
+        }
+        assertEquals(0, TestHelpers.numberOfFiles(directory));
+
+        OffHeapKeySet keys = new OffHeapKeySet(16 * 1024, null);
+        for (long i = 0; i < 768; i++) {
+            keys.add("nodes", new Object[]{i});
+        }
+        assertThrows(IllegalStateException.class, () -> keys.add("nodes", new Object[]{768}));
+    }
+}
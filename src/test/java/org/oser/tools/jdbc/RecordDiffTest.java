@@ -0,0 +1,75 @@
+package org.oser.tools.jdbc;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecordDiffTest {
+
+    @Test
+    void compareRecords() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        dbExporter.getStopTablesExcluded().add("user_table");
+        DbImporter dbImporter = new DbImporter();
+
+        DbRecord left = dbExporter.contentAsTree(demo, "blogpost", 2);
+        DbRecord right = dbImporter.jsonToRecord(demo, "blogpost", left.asJsonNode());
+        assertTrue(RecordDiff.isEqual(left, right));
+        assertTrue(RecordDiff.compare(left, right).isEmpty());
+
+        right.findElementWithName("title").setValue("other title");
+        DbRecord comment = right.findElementWithName("id").getSubRow().get("ccomment").get(0);
+        comment.findElementWithName("author").setValue("someone else");
+
+        List<RecordDiff.Difference> differences = RecordDiff.compare(left, right);
+        assertEquals(2, differences.size(), differences.toString());
+        assertEquals(new RecordDiff.Difference(RecordDiff.Kind.FIELD_CHANGED, new RowLink("blogpost/2"), new RowLink("blogpost/2"),
+                "title", "A Test Post", "other title"), differences.get(0));
+        assertEquals("author", differences.get(1).fieldName());
+        assertEquals(new RowLink("ccomment/1"), differences.get(1).left());
+
+        right.findElementWithName("id").getSubRow().get("ccomment").clear();
+        differences = RecordDiff.compare(left, right);
+        assertEquals(2, differences.size(), differences.toString());
+        assertEquals(new RecordDiff.Difference(RecordDiff.Kind.ROW_ONLY_LEFT, new RowLink("ccomment/1"), null, null, null, null),
+                differences.get(1));
+    }
+
+    @Test
+    void compareDatabases() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        Connection other = TestHelpers.getConnection("sakila"); // also has the blog tables
+        DbExporter demoExporter = new DbExporter();
+        demoExporter.getStopTablesExcluded().add("user_table");
+        DbExporter otherExporter = new DbExporter();
+        otherExporter.getStopTablesExcluded().add("user_table");
+
+        List<Object[]> pks = List.of(new Object[]{1}, new Object[]{2}, new Object[]{999_999});
+        assertTrue(RecordDiff.compare(demo, demoExporter, other, otherExporter, "blogpost", pks).isEmpty());
+
+        try (Statement statement = other.createStatement()) {
+            statement.executeUpdate("update ccomment set author = 'changed' where id = 1");
+        }
+        try {
+            Map<RowLink, List<RecordDiff.Difference>> differences = RecordDiff.compare(demo, demoExporter, other, otherExporter, "blogpost", pks);
+            assertEquals(1, differences.size());
+            List<RecordDiff.Difference> ofPost2 = differences.get(new RowLink("blogpost/2"));
+            assertEquals(1, ofPost2.size());
+            assertEquals("author", ofPost2.get(0).fieldName());
+            assertEquals("changed", ofPost2.get(0).rightValue());
+            assertFalse(differences.containsKey(new RowLink("blogpost/1")));
+        } finally {
+            try (Statement statement = other.createStatement()) {
+                statement.executeUpdate("update ccomment set author = 'Tester' where id = 1");
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.oser.tools.jdbc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledIfSystemProperty;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StreamingImportTest {
+
+    @Test
+    @DisabledIfSystemProperty(named = "mixedCaseTableNames", matches = "false")
+    void graphWithSpilling() throws Exception {
+        // the nodes/ edges graph has edges that link to nodes that come later (so they need to wait)
+        checkStreamingImport("Nodes", 1, 10, 1);
+        checkStreamingImport("Nodes", 1, 10, 10_000);
+    }
+
+    @Test
+    void selfLink() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        // own rows (the other link2self rows link to shared rows): a chain 2000 <- 2001 <- 2002
+        try (Statement statement = demo.createStatement()) {
+            statement.executeUpdate("insert into link2self values (2000, null, null)");
+            statement.executeUpdate("insert into link2self values (2001, 2000, null)");
+            statement.executeUpdate("insert into link2self values (2002, 2001, null)");
+        }
+
+        checkStreamingImport("link2self", 2001, 3, 1);
+
+        new DbExporter().deleteRecursively(demo, "link2self", 2001);
+    }
+
+    @Test
+    void remapToExistingRow() throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+        String json = dbExporter.contentAsTree(demo, "blogpost", 2).asJsonNode().toString();
+
+        DbImporter dbImporter = new DbImporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbImporter.getFkCache());
+
+        Map<String, Integer> before = JdbcHelpers.getNumberElementsInEachTable(demo);
+        Map<RowLink, DbImporter.Remap> remapping = new HashMap<>();
+        remapping.put(new RowLink("user_table/2"), new DbImporter.Remap(1, 0));
+        Map<RowLink, DbImporter.Remap> newKeys = dbImporter.insertJsonStream(demo, "blogpost", asStream(json), remapping);
+        Map<String, Integer> after = JdbcHelpers.getNumberElementsInEachTable(demo);
+
+        assertEquals(2, numberOfRows(after) - numberOfRows(before)); // the user is not inserted
+
+        Object newBlogpostPk = newKeys.get(new RowLink("blogpost/2")).getPkField();
+        DbRecord newBlogpost = dbExporter.contentAsTree(demo, "blogpost", newBlogpostPk);
+        assertEquals(1L, ((Number) newBlogpost.findElementWithName("user_id").getValue()).longValue());
+    }
+
+    private static void checkStreamingImport(String tableName, Object pk, int numberNodes, int maxPendingRecords) throws Exception {
+        Connection demo = TestHelpers.getConnection("demo");
+        DbExporter dbExporter = new DbExporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbExporter.getFkCache());
+
+        DbRecord original = dbExporter.contentAsTree(demo, tableName, pk);
+        assertEquals(numberNodes, original.getAllNodes().size());
+
+        DbImporter dbImporter = new DbImporter();
+        Fk.initFkCacheForMysql_LogException(demo, dbImporter.getFkCache());
+        dbImporter.setMaxPendingRecords(maxPendingRecords);
+
+        Map<String, Integer> before = JdbcHelpers.getNumberElementsInEachTable(demo);
+        Map<RowLink, DbImporter.Remap> newKeys = dbImporter.insertJsonStream(demo, tableName, asStream(original.asJsonNode().toString()));
+        Map<String, Integer> after = JdbcHelpers.getNumberElementsInEachTable(demo);
+
+        assertEquals(numberNodes, numberOfRows(after) - numberOfRows(before));
+
+        // the copy is linked the same way as the original
+        Object newPk = newKeys.get(original.getRowLink()).getPkField();
+        DbRecord copy = dbExporter.contentAsTree(demo, tableName, newPk);
+        assertEquals(DbRecord.classifyNodes(original.getAllNodes()), DbRecord.classifyNodes(copy.getAllNodes()));
+
+        dbExporter.deleteRecursively(demo, tableName, newPk);
+    }
+
+    private static ByteArrayInputStream asStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int numberOfRows(Map<String, Integer> rowsPerTable) {
+        return rowsPerTable.values().stream().mapToInt(Integer::intValue).sum();
+    }
+}
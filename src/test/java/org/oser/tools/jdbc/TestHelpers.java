@@ -15,6 +15,8 @@ import org.testcontainers.containers.MSSQLServerContainer;
 import org.testcontainers.containers.OracleContainer;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Arrays;
@@ -29,6 +31,7 @@ import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -146,6 +149,18 @@ public class TestHelpers {
         return internalGetConnection(dbName, baseConfig, true);
     }
 
+    /** a dataSource for new connections (call {@link #getConnection(String)} before, to init the db) */
+    static DriverDataSource getDataSource(String dbName) throws ClassNotFoundException {
+        return getDataSource(dbName, getDbConfig());
+    }
+
+    private static DriverDataSource getDataSource(String dbName, DbConfig baseConfig) throws ClassNotFoundException {
+        Class.forName(baseConfig.driverName, true, Thread.currentThread().getContextClassLoader());
+
+        return new DriverDataSource(Thread.currentThread().getContextClassLoader(),
+                baseConfig.driverName, baseConfig.getUrlPrefix(dbName), baseConfig.getDefaultUser(), baseConfig.defaultPassword);
+    }
+
         /** side-effects: inits db if necessary (the first time only, inits all dbNames with all sql scripts - for now) */
     static Connection internalGetConnection(String dbName, DbConfig baseConfig, boolean useCache) throws SQLException, ClassNotFoundException, IOException {
         boolean initDbNow = false;
@@ -160,10 +175,7 @@ public class TestHelpers {
             }
         }
 
-        Class.forName(baseConfig.driverName, true, Thread.currentThread().getContextClassLoader());
-
-        DriverDataSource ds = new DriverDataSource(Thread.currentThread().getContextClassLoader(),
-                baseConfig.driverName, baseConfig.getUrlPrefix(dbName), baseConfig.getDefaultUser(), baseConfig.defaultPassword);
+        DriverDataSource ds = getDataSource(dbName, baseConfig);
 
         Connection con = ds.getConnection();
         con.setAutoCommit(true);
@@ -378,6 +390,13 @@ public class TestHelpers {
         }
     }
 
+    /** @return the number of entries in the directory (the listing is closed again) */
+    static long numberOfFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
     public static void initLogback() {
         LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
         ch.qos.logback.classic.Logger rootLogger = lc.getLogger(ch.qos.logback.classic.Logger.ROOT_LOGGER_NAME);